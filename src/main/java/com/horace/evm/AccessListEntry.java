@@ -0,0 +1,18 @@
+package com.horace.evm;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An address and the storage keys a transaction declares it will touch (EIP-2930).
+ */
+@AllArgsConstructor
+@Getter
+public class AccessListEntry {
+
+    private final byte[] address;
+    private final List<UInt256> storageKeys;
+
+}
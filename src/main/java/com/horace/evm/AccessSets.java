@@ -0,0 +1,262 @@
+package com.horace.evm;
+
+import java.util.Arrays;
+
+/**
+ * EIP-2929 accessed addresses and storage keys of a transaction, plus a cache of the committed value
+ * of every slot read so far, which is also the original value SSTORE pricing needs.
+ * <p>
+ * Both sets are open-addressing tables over primitive limbs, laid out like {@link TransientStorage}
+ * and cleared the same way by bumping a generation. Warmth is a flag on the entry, so cooling a key
+ * when a frame reverts leaves the cached value in place: the committed state does not change within
+ * a transaction.
+ */
+public class AccessSets {
+
+    private static final byte WARM = 1;
+    private static final byte CACHED = 2;
+
+    private static final int ADDRESS_LIMBS = 3;
+    private static final int SLOT_KEY_LIMBS = 7;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] addressKeys = new long[INITIAL_CAPACITY * ADDRESS_LIMBS];
+    private byte[] addressFlags = new byte[INITIAL_CAPACITY];
+    private int[] addressGenerations = new int[INITIAL_CAPACITY];
+    private int addressCount = 0;
+
+    private long[] slotKeys = new long[INITIAL_CAPACITY * SLOT_KEY_LIMBS];
+    private long[] slotValues = new long[INITIAL_CAPACITY * Stack.LIMBS];
+    private byte[] slotFlags = new byte[INITIAL_CAPACITY];
+    private int[] slotGenerations = new int[INITIAL_CAPACITY];
+    private int slotCount = 0;
+
+    private int generation = 1;
+
+    public boolean isWarm(final byte[] address) {
+        final int index = findAddress(address);
+        return addressGenerations[index] == generation && (addressFlags[index] & WARM) != 0;
+    }
+
+    /**
+     * Marks the address warm and returns true if it was cold.
+     * @param address
+     * @return
+     */
+    public boolean warm(final byte[] address) {
+        final int index = addAddress(address);
+        final boolean cold = (addressFlags[index] & WARM) == 0;
+        addressFlags[index] |= WARM;
+        return cold;
+    }
+
+    public void cool(final byte[] address) {
+        final int index = findAddress(address);
+        if (addressGenerations[index] == generation) {
+            addressFlags[index] &= ~WARM;
+        }
+    }
+
+    public boolean isWarm(final byte[] address, final UInt256 slot) {
+        final int index = findSlot(address, slot);
+        return slotGenerations[index] == generation && (slotFlags[index] & WARM) != 0;
+    }
+
+    /**
+     * Marks the slot warm and returns true if it was cold.
+     * @param address
+     * @param slot
+     * @return
+     */
+    public boolean warm(final byte[] address, final UInt256 slot) {
+        final int index = addSlot(address, slot);
+        final boolean cold = (slotFlags[index] & WARM) == 0;
+        slotFlags[index] |= WARM;
+        return cold;
+    }
+
+    public void cool(final byte[] address, final UInt256 slot) {
+        final int index = findSlot(address, slot);
+        if (slotGenerations[index] == generation) {
+            slotFlags[index] &= ~WARM;
+        }
+    }
+
+    /**
+     * Reads the cached committed value of the slot into the given word, returning false if it is not cached.
+     * @param address
+     * @param slot
+     * @param into
+     * @return
+     */
+    public boolean getCachedValue(final byte[] address, final UInt256 slot, final UInt256 into) {
+        final int index = findSlot(address, slot);
+        if (slotGenerations[index] != generation || (slotFlags[index] & CACHED) == 0) {
+            return false;
+        }
+        final int base = index * Stack.LIMBS;
+        into.u0 = slotValues[base];
+        into.u1 = slotValues[base + 1];
+        into.u2 = slotValues[base + 2];
+        into.u3 = slotValues[base + 3];
+        return true;
+    }
+
+    public void cacheValue(final byte[] address, final UInt256 slot, final UInt256 value) {
+        final int index = addSlot(address, slot);
+        final int base = index * Stack.LIMBS;
+        slotValues[base] = value.u0;
+        slotValues[base + 1] = value.u1;
+        slotValues[base + 2] = value.u2;
+        slotValues[base + 3] = value.u3;
+        slotFlags[index] |= CACHED;
+    }
+
+    /**
+     * Empties both sets and the value cache in constant time, at the end of a transaction.
+     */
+    public void clear() {
+        addressCount = 0;
+        slotCount = 0;
+        if (++generation == 0) {
+            Arrays.fill(addressGenerations, 0);
+            Arrays.fill(slotGenerations, 0);
+            generation = 1;
+        }
+    }
+
+    public int addressCount() {
+        return addressCount;
+    }
+
+    public int slotCount() {
+        return slotCount;
+    }
+
+    private int findAddress(final byte[] address) {
+        final long a0 = TransientStorage.addressLimb(address, 0);
+        final long a1 = TransientStorage.addressLimb(address, 1);
+        final long a2 = TransientStorage.addressLimb(address, 2);
+        final int mask = addressGenerations.length - 1;
+        int index = TransientStorage.hash(a0, a1, a2, 0, 0, 0, 0) & mask;
+        while (addressGenerations[index] == generation) {
+            final int key = index * ADDRESS_LIMBS;
+            if (addressKeys[key] == a0 && addressKeys[key + 1] == a1 && addressKeys[key + 2] == a2) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    // Returns the index of the entry, inserting it without flags if it is missing
+    private int addAddress(final byte[] address) {
+        int index = findAddress(address);
+        if (addressGenerations[index] == generation) {
+            return index;
+        }
+        if ((addressCount + 1) * 2 > addressGenerations.length) {
+            resizeAddresses(addressGenerations.length * 2);
+            index = findAddress(address);
+        }
+        final int key = index * ADDRESS_LIMBS;
+        addressKeys[key] = TransientStorage.addressLimb(address, 0);
+        addressKeys[key + 1] = TransientStorage.addressLimb(address, 1);
+        addressKeys[key + 2] = TransientStorage.addressLimb(address, 2);
+        addressFlags[index] = 0;
+        addressGenerations[index] = generation;
+        addressCount++;
+        return index;
+    }
+
+    private void resizeAddresses(final int capacity) {
+        final long[] oldKeys = addressKeys;
+        final byte[] oldFlags = addressFlags;
+        final int[] oldGenerations = addressGenerations;
+        addressKeys = new long[capacity * ADDRESS_LIMBS];
+        addressFlags = new byte[capacity];
+        addressGenerations = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldGenerations.length; i++) {
+            if (oldGenerations[i] != generation) {
+                continue;
+            }
+            final int from = i * ADDRESS_LIMBS;
+            int index = TransientStorage.hash(oldKeys[from], oldKeys[from + 1], oldKeys[from + 2], 0, 0, 0, 0) & mask;
+            while (addressGenerations[index] == generation) {
+                index = (index + 1) & mask;
+            }
+            System.arraycopy(oldKeys, from, addressKeys, index * ADDRESS_LIMBS, ADDRESS_LIMBS);
+            addressFlags[index] = oldFlags[i];
+            addressGenerations[index] = generation;
+        }
+    }
+
+    private int findSlot(final byte[] address, final UInt256 slot) {
+        final long a0 = TransientStorage.addressLimb(address, 0);
+        final long a1 = TransientStorage.addressLimb(address, 1);
+        final long a2 = TransientStorage.addressLimb(address, 2);
+        final int mask = slotGenerations.length - 1;
+        int index = TransientStorage.hash(a0, a1, a2, slot.u0, slot.u1, slot.u2, slot.u3) & mask;
+        while (slotGenerations[index] == generation) {
+            final int key = index * SLOT_KEY_LIMBS;
+            if (slotKeys[key] == a0 && slotKeys[key + 1] == a1 && slotKeys[key + 2] == a2 && slotKeys[key + 3] == slot.u0
+                    && slotKeys[key + 4] == slot.u1 && slotKeys[key + 5] == slot.u2 && slotKeys[key + 6] == slot.u3) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private int addSlot(final byte[] address, final UInt256 slot) {
+        int index = findSlot(address, slot);
+        if (slotGenerations[index] == generation) {
+            return index;
+        }
+        if ((slotCount + 1) * 2 > slotGenerations.length) {
+            resizeSlots(slotGenerations.length * 2);
+            index = findSlot(address, slot);
+        }
+        final int key = index * SLOT_KEY_LIMBS;
+        slotKeys[key] = TransientStorage.addressLimb(address, 0);
+        slotKeys[key + 1] = TransientStorage.addressLimb(address, 1);
+        slotKeys[key + 2] = TransientStorage.addressLimb(address, 2);
+        slotKeys[key + 3] = slot.u0;
+        slotKeys[key + 4] = slot.u1;
+        slotKeys[key + 5] = slot.u2;
+        slotKeys[key + 6] = slot.u3;
+        slotFlags[index] = 0;
+        slotGenerations[index] = generation;
+        slotCount++;
+        return index;
+    }
+
+    private void resizeSlots(final int capacity) {
+        final long[] oldKeys = slotKeys;
+        final long[] oldValues = slotValues;
+        final byte[] oldFlags = slotFlags;
+        final int[] oldGenerations = slotGenerations;
+        slotKeys = new long[capacity * SLOT_KEY_LIMBS];
+        slotValues = new long[capacity * Stack.LIMBS];
+        slotFlags = new byte[capacity];
+        slotGenerations = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldGenerations.length; i++) {
+            if (oldGenerations[i] != generation) {
+                continue;
+            }
+            final int from = i * SLOT_KEY_LIMBS;
+            int index = TransientStorage.hash(oldKeys[from], oldKeys[from + 1], oldKeys[from + 2], oldKeys[from + 3],
+                oldKeys[from + 4], oldKeys[from + 5], oldKeys[from + 6]) & mask;
+            while (slotGenerations[index] == generation) {
+                index = (index + 1) & mask;
+            }
+            System.arraycopy(oldKeys, from, slotKeys, index * SLOT_KEY_LIMBS, SLOT_KEY_LIMBS);
+            System.arraycopy(oldValues, i * Stack.LIMBS, slotValues, index * Stack.LIMBS, Stack.LIMBS);
+            slotFlags[index] = oldFlags[i];
+            slotGenerations[index] = generation;
+        }
+    }
+
+}
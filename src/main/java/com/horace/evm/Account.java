@@ -4,16 +4,33 @@ import java.math.BigInteger;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.Setter;
 
+/**
+ * Account metadata. The code itself lives in the {@link CodeStore} under its hash, which is computed once
+ * when the code is deployed.
+ */
 @Getter
-@Setter
 @AllArgsConstructor
 public class Account {
 
-    private BigInteger balance;
-    private byte[] code;
+    private final BigInteger balance;
+    private final Hash codeHash;
+    private final int codeSize;
+    // Number of contracts the account created, one from the start for a contract (EIP-161)
+    private final long nonce;
 
-    public static final Account NULL_ACCOUNT = new Account(null, new byte[0]);
+    public static final Account NULL_ACCOUNT = new Account(BigInteger.ZERO, CodeStore.EMPTY_CODE_HASH, 0);
+
+    public Account(final BigInteger balance, final Hash codeHash, final int codeSize) {
+        this(balance, codeHash, codeSize, 0);
+    }
+
+    public Account withBalance(final BigInteger balance) {
+        return new Account(balance, codeHash, codeSize, nonce);
+    }
+
+    public Account withNonce(final long nonce) {
+        return new Account(balance, codeHash, codeSize, nonce);
+    }
 
 }
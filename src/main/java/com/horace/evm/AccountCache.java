@@ -0,0 +1,113 @@
+package com.horace.evm;
+
+import java.util.Map;
+
+/**
+ * Write-back cache of deserialized {@link Account} objects in front of the account database, so a hot
+ * contract or EOA is decoded once rather than on every read. Missing accounts are cached too.
+ * <p>
+ * Writes only mark the cached entry dirty; dirty entries reach the backend when {@link #flush()} is called
+ * or when they are evicted. A removed account is cached as {@link Account#NULL_ACCOUNT} and removed from
+ * the backend on write-back. Cached accounts are shared and must be treated as read only.
+ * <p>
+ * Nothing flushes on its own: the owner must call {@link #flush()} before it commits or closes the
+ * backend, or dirty accounts are lost. {@link GlobalState} does so in {@link GlobalState#flush()}, called
+ * at the end of every block, and when it is closed.
+ */
+public class AccountCache {
+
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    private final Map<byte[], Account> backend;
+    private final LruCache<Address, Entry> cache;
+
+    /**
+     * @param capacity maximum number of cached accounts
+     * @param backend account database keyed by address, e.g. a MapDB map with a byte array key serializer
+     */
+    public AccountCache(final int capacity, final Map<byte[], Account> backend) {
+        this.backend = backend;
+        this.cache = new LruCache<>(capacity, (address, entry) -> {
+            if (entry.dirty) {
+                writeBack(address, entry);
+            }
+        });
+    }
+
+    public Account get(final byte[] address) {
+        return cache.computeIfAbsent(new Address(address),
+            a -> new Entry(backend.getOrDefault(a.getAddress(), Account.NULL_ACCOUNT), false)).account;
+    }
+
+    public void put(final byte[] address, final Account account) {
+        cache.put(new Address(address), new Entry(account, true));
+    }
+
+    public void remove(final byte[] address) {
+        put(address, Account.NULL_ACCOUNT);
+    }
+
+    /**
+     * Writes every dirty account to the backend. The accounts stay cached, clean.
+     */
+    public void flush() {
+        cache.forEach((address, entry) -> {
+            if (entry.dirty) {
+                writeBack(address, entry);
+            }
+        });
+    }
+
+    /**
+     * Drops every cached account, without writing dirty ones back.
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    public double hitRate() {
+        return cache.hitRate();
+    }
+
+    public String toString() {
+        return "AccountCache" + cache.toString().substring("LruCache".length());
+    }
+
+    // Called with the segment of the entry locked, so a concurrent put cannot slip in between
+    private void writeBack(final Address address, final Entry entry) {
+        if (entry.account == Account.NULL_ACCOUNT) {
+            backend.remove(address.getAddress());
+        } else {
+            backend.put(address.getAddress(), entry.account);
+        }
+        entry.dirty = false;
+    }
+
+    private static final class Entry {
+
+        private final Account account;
+        private volatile boolean dirty;
+
+        Entry(final Account account, final boolean dirty) {
+            this.account = account;
+            this.dirty = dirty;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.horace.evm;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+
+/**
+ * A straight-line run of instructions entered only at its first instruction and left only after its last.
+ * Blocks start at the beginning of the code, at every JUMPDEST and after every JUMPI, and end at
+ * JUMP, JUMPI and halting instructions. Checking the stack bounds and charging the static gas once on
+ * entry covers every instruction in the block. Instructions that read the gas left also end their block,
+ * so by the time they run exactly the gas of the instructions before them has been charged.
+ */
+public final class BasicBlock {
+
+    @Getter
+    private final int startPc;
+    // Number of stack items the block needs on entry
+    @Getter
+    private final int minStackHeight;
+    // Highest stack size the block reaches, relative to its entry size
+    @Getter
+    private final int maxStackGrowth;
+    // Indexed by GasSchedule ordinal
+    private final long[] staticGas;
+
+    BasicBlock(final int startPc, final int minStackHeight, final int maxStackGrowth, final long[] staticGas) {
+        this.startPc = startPc;
+        this.minStackHeight = minStackHeight;
+        this.maxStackGrowth = maxStackGrowth;
+        this.staticGas = staticGas;
+    }
+
+    public long getStaticGas(final GasSchedule schedule) {
+        return staticGas[schedule.ordinal()];
+    }
+
+    public String toString() {
+        return String.format("BasicBlock{pc=%d, minStack=%d, maxGrowth=%d, gas=%s}",
+            startPc, minStackHeight, maxStackGrowth, Arrays.toString(staticGas));
+    }
+
+    /**
+     * Accumulates instructions into a block as the decoder walks the code.
+     */
+    static final class Builder {
+
+        private final int startPc;
+        private int height = 0;
+        private int minStackHeight = 0;
+        private int maxStackGrowth = 0;
+        private final long[] staticGas = new long[GasSchedule.all().length];
+
+        Builder(final int startPc) {
+            this.startPc = startPc;
+        }
+
+        void add(final int opcode) {
+            final int inputs = Instruction.stackInputs(opcode);
+            minStackHeight = Math.max(minStackHeight, inputs - height);
+            height += Instruction.stackOutputs(opcode) - inputs;
+            maxStackGrowth = Math.max(maxStackGrowth, height);
+            for (GasSchedule schedule : GasSchedule.all()) {
+                staticGas[schedule.ordinal()] += schedule.staticCost(opcode);
+            }
+        }
+
+        BasicBlock build() {
+            return new BasicBlock(startPc, minStackHeight, maxStackGrowth, staticGas);
+        }
+    }
+
+}
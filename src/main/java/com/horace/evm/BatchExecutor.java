@@ -0,0 +1,287 @@
+package com.horace.evm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs read-only calls concurrently and streams their results back as they complete.
+ * <p>
+ * Requests are pulled from the caller's iterator or stream only while fewer than {@code maxInFlight}
+ * results are waiting to be consumed, so a slow consumer holds back the producer instead of buffering
+ * an unbounded number of results. Results arrive in completion order, each with the index of its request.
+ * Calls never commit, so any number of them can run against one world state; to keep them from
+ * observing a block being applied at the same time, pass a {@link GlobalState#snapshot()}.
+ * <p>
+ * EVMs are not thread safe and are pooled, one per call in flight, so the executor may be any
+ * executor, e.g. a virtual thread per task executor on Java 21.
+ */
+public class BatchExecutor implements AutoCloseable {
+
+    private final Executor executor;
+    // Null when the executor is owned by the caller
+    private final ExecutorService ownExecutor;
+    private final ExecutorService delivery;
+    private final int maxInFlight;
+    private final EVM.Engine engine;
+    private final long gasLimit;
+    private final ConcurrentLinkedQueue<EVM> evms = new ConcurrentLinkedQueue<>();
+
+    public BatchExecutor(final int threads) {
+        this(threads, EVM.Engine.INTERPRETER, EVM.DEFAULT_GAS_LIMIT);
+    }
+
+    /**
+     * @param threads number of worker threads, and a quarter of the calls allowed in flight
+     * @param engine engine every call runs on
+     * @param gasLimit gas limit of every call
+     */
+    public BatchExecutor(final int threads, final EVM.Engine engine, final long gasLimit) {
+        this(Executors.newFixedThreadPool(threads, daemon("evm-call")), true, threads * 4, engine, gasLimit);
+    }
+
+    /**
+     * @param executor runs the calls, owned by the caller and not shut down by {@link #close()}
+     * @param maxInFlight number of calls running or waiting to be consumed at most
+     * @param engine engine every call runs on
+     * @param gasLimit gas limit of every call
+     */
+    public BatchExecutor(final Executor executor, final int maxInFlight, final EVM.Engine engine,
+            final long gasLimit) {
+        this(executor, false, maxInFlight, engine, gasLimit);
+    }
+
+    private BatchExecutor(final Executor executor, final boolean owned, final int maxInFlight,
+            final EVM.Engine engine, final long gasLimit) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Calls in flight must be at least 1");
+        }
+        this.executor = executor;
+        this.ownExecutor = owned ? (ExecutorService) executor : null;
+        this.delivery = Executors.newCachedThreadPool(daemon("evm-call-delivery"));
+        this.maxInFlight = maxInFlight;
+        this.engine = engine;
+        this.gasLimit = gasLimit;
+    }
+
+    /**
+     * Starts running the requests and returns their results. Calls are submitted as results are consumed;
+     * {@code next} blocks until a result is available.
+     * @param requests
+     * @param world
+     * @return
+     */
+    public Iterator<CallResult> execute(final Iterator<CallRequest> requests, final WorldState world) {
+        return new Results(requests, world);
+    }
+
+    public Stream<CallResult> execute(final Stream<CallRequest> requests, final WorldState world) {
+        final Iterator<CallResult> results = execute(requests.iterator(), world);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.NONNULL), false)
+            .onClose(requests::close);
+    }
+
+    /**
+     * Returns a publisher of the results that pulls requests according to subscriber demand. The requests
+     * can only be consumed once, so the publisher accepts a single subscriber.
+     * @param requests
+     * @param world
+     * @return
+     */
+    public Flow.Publisher<CallResult> publish(final Iterator<CallRequest> requests, final WorldState world) {
+        final AtomicBoolean subscribed = new AtomicBoolean();
+        return subscriber -> {
+            if (!subscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(final long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Calls can only be published to one subscriber"));
+                return;
+            }
+            final CallSubscription subscription = new CallSubscription(subscriber, new Results(requests, world));
+            subscriber.onSubscribe(subscription);
+        };
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+        delivery.shutdown();
+    }
+
+    private CallResult call(final long index, final CallRequest request, final WorldState world) {
+        EVM evm = evms.poll();
+        if (evm == null) {
+            evm = new EVM(engine, gasLimit);
+        }
+        try {
+            return new CallResult(index, request, evm.call(request.getTx(), request.getBlock(), request.getCode(), world));
+        } catch (VirtualMachineError e) {
+            // Out of memory or stack, the task queues a failed result and the worker dies with the error
+            throw e;
+        } catch (RuntimeException | Error e) {
+            // A malformed request or a broken world state, every request must still get a result
+            return failed(index, request);
+        } finally {
+            evms.offer(evm);
+        }
+    }
+
+    private static CallResult failed(final long index, final CallRequest request) {
+        return new CallResult(index, request, new TxResult(TxResult.Status.FAILED, 0, new byte[0], List.of()));
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private final class Results implements Iterator<CallResult> {
+
+        private final Iterator<CallRequest> requests;
+        private final WorldState world;
+        private final BlockingQueue<CallResult> completed = new LinkedBlockingQueue<>();
+        // Only touched by the consuming thread
+        private long submitted;
+        private long taken;
+
+        Results(final Iterator<CallRequest> requests, final WorldState world) {
+            this.requests = requests;
+            this.world = world;
+        }
+
+        @Override
+        public boolean hasNext() {
+            submit();
+            return taken < submitted;
+        }
+
+        @Override
+        public CallResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final CallResult result;
+            try {
+                result = completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a call result", e);
+            }
+            taken++;
+            return result;
+        }
+
+        private void submit() {
+            while (submitted - taken < maxInFlight && requests.hasNext()) {
+                final CallRequest request = requests.next();
+                final long index = submitted++;
+                try {
+                    executor.execute(() -> {
+                        CallResult result = null;
+                        try {
+                            result = call(index, request, world);
+                        } finally {
+                            // Even a VirtualMachineError must not leave the consumer waiting for this index forever
+                            completed.add(result != null ? result : failed(index, request));
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Closed or saturated executor, the index is already counted as submitted
+                    completed.add(failed(index, request));
+                }
+            }
+        }
+    }
+
+    // Delivers results on a thread of its own, since waiting for them may block
+    private final class CallSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super CallResult> subscriber;
+        private final Results results;
+        private final AtomicLong demand = new AtomicLong();
+        // Number of drain requests not handled yet, the drain loop runs while it is not zero
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        CallSubscription(final Flow.Subscriber<? super CallResult> subscriber, final Results results) {
+            this.subscriber = subscriber;
+            this.results = results;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Demand must be positive: " + n));
+                return;
+            }
+            demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void drain() {
+            if (pending.getAndIncrement() == 0) {
+                delivery.execute(this::deliver);
+            }
+        }
+
+        private void deliver() {
+            int missed = 1;
+            do {
+                try {
+                    while (!cancelled && demand.get() > 0 && results.hasNext()) {
+                        subscriber.onNext(results.next());
+                        demand.decrementAndGet();
+                    }
+                    if (!cancelled && !results.hasNext()) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    }
+                } catch (RuntimeException e) {
+                    cancelled = true;
+                    subscriber.onError(e);
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+}
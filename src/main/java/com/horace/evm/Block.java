@@ -2,8 +2,12 @@ package com.horace.evm;
 
 import java.math.BigInteger;
 
+import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 
+@AllArgsConstructor
+@NoArgsConstructor
 @Getter
 public class Block {
 
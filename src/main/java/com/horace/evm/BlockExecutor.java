@@ -0,0 +1,587 @@
+package com.horace.evm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Executes the transactions of a block optimistically in parallel, with the result of running them one
+ * after the other (Block-STM).
+ * <p>
+ * Each execution of a transaction (an incarnation) reads through a multi-version view, which returns the
+ * value written by the closest earlier transaction, or the value in the world state if none wrote it,
+ * and records which version it read. Writes are buffered until the transaction commits, then published
+ * as its version of each account and slot. A scheduler hands out executions and validations in block
+ * order: validation re-reads the read set, and a transaction that read a stale version is aborted, its
+ * writes are marked as estimates, and it is executed again. A read that hits an estimate waits for the
+ * blocking transaction instead of running on a value that is about to change.
+ * <p>
+ * When no work is left every transaction has been validated against the final versions of the block,
+ * and the last write set of each is applied to the world state in block order, so the outcome does not
+ * depend on thread timing.
+ */
+public class BlockExecutor implements AutoCloseable {
+
+    private final int threads;
+    private final ExecutorService pool;
+    private final ThreadLocal<EVM> evms;
+
+    public BlockExecutor(final int threads) {
+        this(threads, EVM.Engine.INTERPRETER, EVM.DEFAULT_GAS_LIMIT);
+    }
+
+    /**
+     * @param threads number of worker threads
+     * @param engine engine every transaction runs on
+     * @param gasLimit gas limit of every transaction
+     */
+    public BlockExecutor(final int threads, final EVM.Engine engine, final long gasLimit) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1");
+        }
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.evms = ThreadLocal.withInitial(() -> new EVM(engine, gasLimit));
+    }
+
+    /**
+     * Runs the transactions in order on the calling thread, each committing straight to the world state,
+     * then flushes the world state at the end of the block.
+     * @param txs
+     * @param world
+     * @return
+     */
+    public List<TxResult> executeSequential(final List<TxData> txs, final WorldState world) {
+        final EVM evm = evms.get();
+        final List<TxResult> results = new ArrayList<>(txs.size());
+        for (TxData tx : txs) {
+            results.add(evm.execute(tx, world));
+        }
+        world.flush();
+        return results;
+    }
+
+    /**
+     * Runs the transactions in parallel and applies their changes to the world state, which must not be
+     * modified by anyone else until this returns, then flushes it at the end of the block.
+     * @param txs
+     * @param world
+     * @return the result of each transaction, as sequential execution would give it
+     */
+    public List<TxResult> execute(final List<TxData> txs, final WorldState world) {
+        if (txs.isEmpty()) {
+            world.flush();
+            return List.of();
+        }
+        final BlockRun run = new BlockRun(txs, world);
+        final List<Callable<Void>> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.add(() -> {
+                run.work(evms.get());
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(workers)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while executing block", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Block execution failed", e.getCause());
+        }
+        world.atomically(() -> run.applyTo(world));
+        world.flush();
+        return Arrays.asList(run.results);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    // Task kinds handed out by the scheduler
+    private static final int EXECUTION = 0;
+    private static final int VALIDATION = 1;
+
+    // Transaction status
+    private static final int READY_TO_EXECUTE = 0;
+    private static final int EXECUTING = 1;
+    private static final int EXECUTED = 2;
+    private static final int ABORTING = 3;
+
+    private static final class Task {
+
+        final int txIndex;
+        final int incarnation;
+        final int kind;
+
+        Task(final int txIndex, final int incarnation, final int kind) {
+            this.txIndex = txIndex;
+            this.incarnation = incarnation;
+            this.kind = kind;
+        }
+    }
+
+    // Guarded by its own monitor
+    private static final class TxStatus {
+
+        int incarnation = 0;
+        int status = READY_TO_EXECUTE;
+        // Transactions waiting for this one to finish executing
+        List<Integer> dependents = new ArrayList<>();
+    }
+
+    /**
+     * The transaction and incarnation that wrote a value; BASE for the world state.
+     */
+    private static final class Version {
+
+        static final Version BASE = new Version(-1, 0);
+        // Recorded when one incarnation saw two versions of a key, never valid
+        static final Version INCONSISTENT = new Version(-2, 0);
+
+        final int txIndex;
+        final int incarnation;
+
+        Version(final int txIndex, final int incarnation) {
+            this.txIndex = txIndex;
+            this.incarnation = incarnation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            final Version other = (Version) obj;
+            return txIndex == other.txIndex && incarnation == other.incarnation && this != INCONSISTENT;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * txIndex + incarnation;
+        }
+    }
+
+    private static final class Written {
+
+        final int incarnation;
+        // Account (NULL_ACCOUNT when removed) or UInt256
+        final Object value;
+        // Written by an aborted incarnation and likely to be written again
+        final boolean estimate;
+
+        Written(final int incarnation, final Object value, final boolean estimate) {
+            this.incarnation = incarnation;
+            this.value = value;
+            this.estimate = estimate;
+        }
+    }
+
+    /**
+     * Scheduler and multi-version memory for one block. Keys are an {@link Address} for an account
+     * and a {@link SlotKey} for a storage slot.
+     */
+    private static final class BlockRun {
+
+        private final List<TxData> txs;
+        private final WorldState world;
+        private final int size;
+        final TxResult[] results;
+
+        private final TxStatus[] statuses;
+        private final AtomicInteger executionIndex = new AtomicInteger();
+        private final AtomicInteger validationIndex = new AtomicInteger();
+        private final AtomicInteger decreaseCount = new AtomicInteger();
+        private final AtomicInteger activeTasks = new AtomicInteger();
+        private volatile boolean done = false;
+
+        private final Map<Object, ConcurrentSkipListMap<Integer, Written>> versions = new ConcurrentHashMap<>();
+        private final AtomicReferenceArray<Map<Object, Object>> lastWrites;
+        private final AtomicReferenceArray<Map<Object, Version>> lastReads;
+        // Content addressed, so code needs no versions
+        private final Map<Hash, byte[]> codes = new ConcurrentHashMap<>();
+
+        BlockRun(final List<TxData> txs, final WorldState world) {
+            this.txs = txs;
+            this.world = world;
+            this.size = txs.size();
+            this.results = new TxResult[size];
+            this.statuses = new TxStatus[size];
+            for (int i = 0; i < size; i++) {
+                statuses[i] = new TxStatus();
+            }
+            this.lastWrites = new AtomicReferenceArray<>(size);
+            this.lastReads = new AtomicReferenceArray<>(size);
+        }
+
+        void work(final EVM evm) {
+            Task task = null;
+            while (!done) {
+                if (task != null && task.kind == EXECUTION) {
+                    task = tryExecute(evm, task);
+                } else if (task != null) {
+                    task = validate(task);
+                }
+                if (task == null) {
+                    task = nextTask();
+                }
+            }
+        }
+
+        private Task tryExecute(final EVM evm, final Task task) {
+            while (true) {
+                final VersionedView view = new VersionedView(this, task.txIndex);
+                final TxResult result;
+                try {
+                    result = evm.execute(txs.get(task.txIndex), view);
+                } catch (ReadDependencyException e) {
+                    if (addDependency(task.txIndex, e.getBlockingIndex())) {
+                        return null;
+                    }
+                    // The blocking transaction finished in the meantime
+                    continue;
+                }
+                results[task.txIndex] = result;
+                final boolean wroteNewKey = record(task, view);
+                return finishExecution(task.txIndex, task.incarnation, wroteNewKey);
+            }
+        }
+
+        private Task validate(final Task task) {
+            final boolean aborted = !validReadSet(task.txIndex) && tryValidationAbort(task.txIndex, task.incarnation);
+            if (aborted) {
+                convertWritesToEstimates(task.txIndex);
+            }
+            return finishValidation(task.txIndex, aborted);
+        }
+
+        // Multi-version memory
+
+        /**
+         * Returns the value the transaction sees for the key from earlier transactions, or null if none
+         * wrote it, recording the version read.
+         */
+        Object read(final Object key, final int txIndex, final Map<Object, Version> reads) {
+            final ConcurrentSkipListMap<Integer, Written> written = versions.get(key);
+            final Map.Entry<Integer, Written> entry = written == null ? null : written.lowerEntry(txIndex);
+            final Version version;
+            final Object value;
+            if (entry == null) {
+                version = Version.BASE;
+                value = null;
+            } else if (entry.getValue().estimate) {
+                throw new ReadDependencyException(entry.getKey());
+            } else {
+                version = new Version(entry.getKey(), entry.getValue().incarnation);
+                value = entry.getValue().value;
+            }
+            final Version previous = reads.putIfAbsent(key, version);
+            if (previous != null && !previous.equals(version)) {
+                reads.put(key, Version.INCONSISTENT);
+            }
+            return value;
+        }
+
+        private boolean record(final Task task, final VersionedView view) {
+            for (Map.Entry<Object, Object> write : view.writes.entrySet()) {
+                versions.computeIfAbsent(write.getKey(), k -> new ConcurrentSkipListMap<>())
+                    .put(task.txIndex, new Written(task.incarnation, write.getValue(), false));
+            }
+            codes.putAll(view.codes);
+            final Map<Object, Object> previous = lastWrites.getAndSet(task.txIndex, view.writes);
+            boolean wroteNewKey = false;
+            if (previous == null) {
+                wroteNewKey = !view.writes.isEmpty();
+            } else {
+                for (Object key : previous.keySet()) {
+                    if (!view.writes.containsKey(key)) {
+                        versions.get(key).remove(task.txIndex);
+                    }
+                }
+                for (Object key : view.writes.keySet()) {
+                    if (!previous.containsKey(key)) {
+                        wroteNewKey = true;
+                        break;
+                    }
+                }
+            }
+            lastReads.set(task.txIndex, view.reads);
+            return wroteNewKey;
+        }
+
+        private boolean validReadSet(final int txIndex) {
+            for (Map.Entry<Object, Version> read : lastReads.get(txIndex).entrySet()) {
+                final ConcurrentSkipListMap<Integer, Written> written = versions.get(read.getKey());
+                final Map.Entry<Integer, Written> entry = written == null ? null : written.lowerEntry(txIndex);
+                if (entry == null) {
+                    if (read.getValue() != Version.BASE) {
+                        return false;
+                    }
+                } else if (entry.getValue().estimate
+                        || !read.getValue().equals(new Version(entry.getKey(), entry.getValue().incarnation))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void convertWritesToEstimates(final int txIndex) {
+            for (Map.Entry<Object, Object> write : lastWrites.get(txIndex).entrySet()) {
+                versions.get(write.getKey()).computeIfPresent(txIndex,
+                    (i, w) -> new Written(w.incarnation, w.value, true));
+            }
+        }
+
+        void applyTo(final WorldState target) {
+            for (Map.Entry<Hash, byte[]> code : codes.entrySet()) {
+                target.putCode(code.getKey(), code.getValue());
+            }
+            for (int i = 0; i < size; i++) {
+                final Map<Object, Object> writes = lastWrites.get(i);
+                if (writes == null) {
+                    continue;
+                }
+                for (Map.Entry<Object, Object> write : writes.entrySet()) {
+                    if (write.getKey() instanceof Address) {
+                        final byte[] address = ((Address) write.getKey()).getAddress();
+                        if (write.getValue() == Account.NULL_ACCOUNT) {
+                            target.removeAccount(address);
+                        } else {
+                            target.putAccount(address, (Account) write.getValue());
+                        }
+                    } else {
+                        final SlotKey key = (SlotKey) write.getKey();
+                        target.store(key.address(), key.slot(), (UInt256) write.getValue());
+                    }
+                }
+            }
+        }
+
+        // Scheduler
+
+        private Task nextTask() {
+            if (validationIndex.get() < executionIndex.get()) {
+                return nextToValidate();
+            }
+            return nextToExecute();
+        }
+
+        private Task nextToValidate() {
+            if (validationIndex.get() >= size) {
+                checkDone();
+                return null;
+            }
+            activeTasks.incrementAndGet();
+            final int txIndex = validationIndex.getAndIncrement();
+            if (txIndex < size) {
+                final TxStatus status = statuses[txIndex];
+                synchronized (status) {
+                    if (status.status == EXECUTED) {
+                        return new Task(txIndex, status.incarnation, VALIDATION);
+                    }
+                }
+            }
+            activeTasks.decrementAndGet();
+            return null;
+        }
+
+        private Task nextToExecute() {
+            if (executionIndex.get() >= size) {
+                checkDone();
+                return null;
+            }
+            activeTasks.incrementAndGet();
+            return tryIncarnate(executionIndex.getAndIncrement());
+        }
+
+        private Task tryIncarnate(final int txIndex) {
+            if (txIndex < size) {
+                final TxStatus status = statuses[txIndex];
+                synchronized (status) {
+                    if (status.status == READY_TO_EXECUTE) {
+                        status.status = EXECUTING;
+                        return new Task(txIndex, status.incarnation, EXECUTION);
+                    }
+                }
+            }
+            activeTasks.decrementAndGet();
+            return null;
+        }
+
+        private void checkDone() {
+            final int observed = decreaseCount.get();
+            if (Math.min(executionIndex.get(), validationIndex.get()) >= size && activeTasks.get() == 0
+                    && observed == decreaseCount.get()) {
+                done = true;
+            }
+        }
+
+        private void decreaseExecutionIndex(final int target) {
+            executionIndex.accumulateAndGet(target, Math::min);
+            decreaseCount.incrementAndGet();
+        }
+
+        private void decreaseValidationIndex(final int target) {
+            validationIndex.accumulateAndGet(target, Math::min);
+            decreaseCount.incrementAndGet();
+        }
+
+        /**
+         * Makes the transaction wait for the blocking one, returning false if that one has already
+         * finished executing and the read can simply be retried.
+         */
+        private boolean addDependency(final int txIndex, final int blockingIndex) {
+            final TxStatus blocking = statuses[blockingIndex];
+            synchronized (blocking) {
+                if (blocking.status == EXECUTED) {
+                    return false;
+                }
+                synchronized (statuses[txIndex]) {
+                    statuses[txIndex].status = ABORTING;
+                }
+                blocking.dependents.add(txIndex);
+            }
+            activeTasks.decrementAndGet();
+            return true;
+        }
+
+        private void setReady(final int txIndex) {
+            final TxStatus status = statuses[txIndex];
+            synchronized (status) {
+                status.incarnation++;
+                status.status = READY_TO_EXECUTE;
+            }
+        }
+
+        private Task finishExecution(final int txIndex, final int incarnation, final boolean wroteNewKey) {
+            final List<Integer> dependents;
+            final TxStatus status = statuses[txIndex];
+            synchronized (status) {
+                status.status = EXECUTED;
+                dependents = status.dependents;
+                status.dependents = new ArrayList<>();
+            }
+            if (!dependents.isEmpty()) {
+                int min = Integer.MAX_VALUE;
+                for (int dependent : dependents) {
+                    setReady(dependent);
+                    min = Math.min(min, dependent);
+                }
+                decreaseExecutionIndex(min);
+            }
+            if (validationIndex.get() > txIndex) {
+                if (!wroteNewKey) {
+                    // Only this transaction needs validating, later ones could not have read a new key from it
+                    return new Task(txIndex, incarnation, VALIDATION);
+                }
+                decreaseValidationIndex(txIndex);
+            }
+            activeTasks.decrementAndGet();
+            return null;
+        }
+
+        private boolean tryValidationAbort(final int txIndex, final int incarnation) {
+            final TxStatus status = statuses[txIndex];
+            synchronized (status) {
+                if (status.incarnation == incarnation && status.status == EXECUTED) {
+                    status.status = ABORTING;
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        private Task finishValidation(final int txIndex, final boolean aborted) {
+            if (aborted) {
+                setReady(txIndex);
+                decreaseValidationIndex(txIndex + 1);
+                if (executionIndex.get() > txIndex) {
+                    final Task task = tryIncarnate(txIndex);
+                    if (task != null) {
+                        // Keeps the active task count taken for the validation
+                        return task;
+                    }
+                    // tryIncarnate already gave the count back
+                    return null;
+                }
+            }
+            activeTasks.decrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * What one incarnation of a transaction sees: earlier transactions' versions over the world state.
+     * Writes are buffered and only published when the execution is recorded.
+     */
+    private static final class VersionedView implements WorldState {
+
+        private final BlockRun run;
+        private final int txIndex;
+        final Map<Object, Version> reads = new HashMap<>();
+        final Map<Object, Object> writes = new LinkedHashMap<>();
+        final Map<Hash, byte[]> codes = new HashMap<>();
+
+        VersionedView(final BlockRun run, final int txIndex) {
+            this.run = run;
+            this.txIndex = txIndex;
+        }
+
+        @Override
+        public Account getAccount(final byte[] address) {
+            final Object value = run.read(new Address(address), txIndex, reads);
+            return value == null ? run.world.getAccount(address) : (Account) value;
+        }
+
+        @Override
+        public void putAccount(final byte[] address, final Account account) {
+            writes.put(new Address(address), account);
+        }
+
+        @Override
+        public void removeAccount(final byte[] address) {
+            writes.put(new Address(address), Account.NULL_ACCOUNT);
+        }
+
+        @Override
+        public UInt256 load(final byte[] address, final UInt256 slot, final UInt256 into) {
+            final Object value = run.read(new SlotKey(address, slot), txIndex, reads);
+            return value == null ? run.world.load(address, slot, into) : into.set((UInt256) value);
+        }
+
+        @Override
+        public void store(final byte[] address, final UInt256 slot, final UInt256 value) {
+            writes.put(new SlotKey(address, slot), new UInt256().set(value));
+        }
+
+        @Override
+        public byte[] getCode(final Hash codeHash) {
+            final byte[] code = run.codes.get(codeHash);
+            return code == null ? run.world.getCode(codeHash) : code;
+        }
+
+        @Override
+        public void putCode(final Hash codeHash, final byte[] code) {
+            codes.put(codeHash, code);
+        }
+    }
+
+}
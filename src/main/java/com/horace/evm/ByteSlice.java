@@ -0,0 +1,58 @@
+package com.horace.evm;
+
+import java.util.Arrays;
+
+/**
+ * A view of a range of a byte array, used to hand calldata and return data between call frames
+ * without copying. The owner of the array must not change the range while the slice is in use:
+ * calldata is a range of the caller's memory, which cannot run while the callee does, and return data
+ * is a range of the callee's memory, which stays untouched until the caller's next call.
+ * Slices are mutable so each frame can reuse its own.
+ */
+public final class ByteSlice {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] array = EMPTY;
+    private int offset;
+    private int length;
+
+    public ByteSlice set(final byte[] array, final int offset, final int length) {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public ByteSlice set(final ByteSlice other) {
+        return set(other.array, other.offset, other.length);
+    }
+
+    public ByteSlice clear() {
+        return set(EMPTY, 0, 0);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Copies length bytes from position into dest, zero padding past the end of the slice.
+     * @param position
+     * @param dest
+     * @param destOffset
+     * @param length
+     */
+    public void copyTo(final int position, final byte[] dest, final int destOffset, final int length) {
+        final int available = (int) Math.max(0, Math.min(length, (long) this.length - position));
+        if (available > 0) {
+            System.arraycopy(array, offset + position, dest, destOffset, available);
+        }
+        Arrays.fill(dest, destOffset + available, destOffset + length, (byte) 0);
+    }
+
+    public byte[] toArray() {
+        return Arrays.copyOfRange(array, offset, offset + length);
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.horace.evm;
+
+/**
+ * The message call and contract creation opcodes, which differ in whose storage and balance the callee
+ * runs with, who it sees as caller and whether it may modify state.
+ */
+public enum CallKind {
+    // Runs the target's code as the target, with a value transfer
+    CALL,
+    // Runs the target's code as the caller itself, with the value the caller passes
+    CALLCODE,
+    // Runs the target's code as the caller itself, keeping the caller's caller and value
+    DELEGATECALL,
+    // Like CALL without value, and no state may be modified in the callee
+    STATICCALL,
+    // Runs init code as the new account it deploys to, with a value transfer
+    CREATE,
+    // Like CREATE, at an address derived from a salt instead of the creator's nonce
+    CREATE2
+}
@@ -0,0 +1,24 @@
+package com.horace.evm;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A read-only call for the {@link BatchExecutor}: the transaction, the block it sees and optionally
+ * code to run as the recipient in place of the recipient's own code.
+ */
+@AllArgsConstructor
+@Getter
+public class CallRequest {
+
+    private final TxData tx;
+    // May be null
+    private final Block block;
+    // Null to run the code of the target address
+    private final byte[] code;
+
+    public CallRequest(final TxData tx, final Block block) {
+        this(tx, block, null);
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.horace.evm;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The result of a {@link CallRequest}, with the position of the request in its batch since results
+ * arrive in completion order.
+ */
+@AllArgsConstructor
+@Getter
+public class CallResult {
+
+    private final long index;
+    private final CallRequest request;
+    private final TxResult result;
+
+}
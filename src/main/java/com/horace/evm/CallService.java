@@ -0,0 +1,138 @@
+package com.horace.evm;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serves read-only calls (eth_call) against a pinned snapshot of a {@link GlobalState} while block import
+ * keeps writing to it.
+ * <p>
+ * Calls run with STATICCALL semantics on the calling thread, so any number of threads can call at once.
+ * Each call runs entirely on the snapshot that was pinned when it started. The importer calls
+ * {@link #advance()} after each block to pin the new state. The previous snapshot is closed when its last
+ * call finishes. Neither calls nor {@link #advance()} take a lock: a call only reference-counts the
+ * snapshot it reads. The writer lock is taken only briefly, to pin the state.
+ */
+public class CallService implements AutoCloseable {
+
+    private final GlobalState state;
+    private final EVM.Engine engine;
+    private final long gasLimit;
+    private final AtomicReference<Pinned> current;
+    private final ConcurrentLinkedQueue<EVM> evms = new ConcurrentLinkedQueue<>();
+
+    public CallService(final GlobalState state) {
+        this(state, EVM.Engine.INTERPRETER, EVM.DEFAULT_GAS_LIMIT);
+    }
+
+    /**
+     * @param state the state to serve, pinned as it is now
+     * @param engine engine every call runs on
+     * @param gasLimit gas limit of every call
+     */
+    public CallService(final GlobalState state, final EVM.Engine engine, final long gasLimit) {
+        this.state = state;
+        this.engine = engine;
+        this.gasLimit = gasLimit;
+        this.current = new AtomicReference<>(new Pinned(state.snapshot()));
+    }
+
+    /**
+     * Runs the call on the pinned snapshot. Any attempt to modify state halts it with status FAILED.
+     * @param request
+     * @return
+     */
+    public TxResult call(final CallRequest request) {
+        final Pinned pinned = acquire();
+        EVM evm = evms.poll();
+        if (evm == null) {
+            evm = new EVM(engine, gasLimit);
+        }
+        try {
+            return evm.staticCall(request.getTx(), request.getBlock(), request.getCode(), pinned.snapshot);
+        } finally {
+            evms.offer(evm);
+            pinned.release();
+        }
+    }
+
+    /**
+     * Pins the state as it is now for the calls that start from here on, e.g. after a block was applied.
+     * Calls still running on the previous snapshot finish on it.
+     */
+    public void advance() {
+        final Pinned next = new Pinned(state.snapshot());
+        Pinned previous;
+        do {
+            previous = current.get();
+            if (previous == null) {
+                next.release();
+                throw new IllegalStateException("Call service is closed");
+            }
+        } while (!current.compareAndSet(previous, next));
+        previous.release();
+    }
+
+    /**
+     * Returns the version of the state calls currently run on, see {@link GlobalState#getVersion()}.
+     * @return
+     */
+    public long getVersion() {
+        final Pinned pinned = current.get();
+        if (pinned == null) {
+            throw new IllegalStateException("Call service is closed");
+        }
+        return pinned.snapshot.getVersion();
+    }
+
+    @Override
+    public void close() {
+        final Pinned pinned = current.getAndSet(null);
+        if (pinned != null) {
+            pinned.release();
+        }
+    }
+
+    private Pinned acquire() {
+        while (true) {
+            final Pinned pinned = current.get();
+            if (pinned == null) {
+                throw new IllegalStateException("Call service is closed");
+            }
+            if (pinned.retain()) {
+                return pinned;
+            }
+            // Replaced and released between the read and the retain, the next read sees its successor
+        }
+    }
+
+    private static final class Pinned {
+
+        final StateSnapshot snapshot;
+        // One for being current plus one per running call, closed when it drops to zero
+        final AtomicInteger references = new AtomicInteger(1);
+
+        Pinned(final StateSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                snapshot.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.horace.evm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+/**
+ * Everything derived from a piece of bytecode that does not depend on the execution:
+ * the jump destination bitmap and the pre-decoded instruction stream.
+ * Instances are immutable and shared between executions through {@link CodeAnalysisCache}.
+ */
+public final class CodeAnalysis {
+
+    @Getter
+    private final byte[] code;
+    @Getter
+    private final Hash codeHash;
+    @Getter
+    private final DecodedCode decodedCode;
+    // Built on first use by an interpreter running with superinstructions
+    private volatile DecodedCode fusedCode;
+    // Tiering state kept with the analysis so it follows the code hash, see TieredExecutor
+    private final AtomicLong invocations = new AtomicLong();
+    private volatile CompiledCode compiledCode;
+    // One bit per code byte, set where a JUMPDEST opcode (not push data) sits
+    private final long[] jumpdests;
+
+    private CodeAnalysis(final byte[] code, final Hash codeHash) {
+        this.code = code;
+        this.codeHash = codeHash;
+        this.jumpdests = validJumpDestinations(code);
+        this.decodedCode = DecodedCode.decode(code);
+    }
+
+    public static CodeAnalysis analyze(final byte[] code) {
+        return analyze(code, Hash.keccak256(code));
+    }
+
+    public static CodeAnalysis analyze(final byte[] code, final Hash codeHash) {
+        return new CodeAnalysis(code, codeHash);
+    }
+
+    /**
+     * Returns the decoded code with {@link Superinstruction} fusion applied.
+     * @return
+     */
+    public DecodedCode getFusedCode() {
+        DecodedCode fused = fusedCode;
+        if (fused == null) {
+            // Racing threads build equal streams, whichever is stored last wins
+            fused = Superinstruction.fuse(decodedCode);
+            fusedCode = fused;
+        }
+        return fused;
+    }
+
+    long countInvocation() {
+        return invocations.incrementAndGet();
+    }
+
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    CompiledCode getCompiledCode() {
+        return compiledCode;
+    }
+
+    void setCompiledCode(final CompiledCode compiledCode) {
+        this.compiledCode = compiledCode;
+    }
+
+    public boolean isJumpDestination(final int pc) {
+        return pc >= 0 && pc < code.length && (jumpdests[pc >>> 6] & (1L << pc)) != 0;
+    }
+
+    private static long[] validJumpDestinations(final byte[] code) {
+        final long[] bitmap = new long[(code.length + 63) >>> 6];
+        int i = 0;
+
+        while (i < code.length) {
+            final int currentOp = code[i] & 0xFF;  // Convert to unsigned byte
+
+            if (currentOp == Instruction.JUMPDEST.getOpcode()) {
+                bitmap[i >>> 6] |= 1L << i;
+            } else if (currentOp >= Instruction.PUSH1.getOpcode() && currentOp <= Instruction.PUSH32.getOpcode()) {
+                // Skip push data bytes (currentOp - PUSH1_OPCODE + 1)
+                i += (currentOp - Instruction.PUSH1.getOpcode() + 1);
+            }
+
+            i++;  // Move to next instruction
+        }
+
+        return bitmap;
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.horace.evm;
+
+import java.util.function.Supplier;
+
+/**
+ * Shared cache of {@link CodeAnalysis} keyed by keccak code hash, so a popular contract is
+ * analysed once rather than on every execution. Bounded in entries, evicting the least recently used.
+ */
+public class CodeAnalysisCache {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final CodeAnalysisCache INSTANCE = new CodeAnalysisCache(DEFAULT_CAPACITY);
+
+    private final LruCache<Hash, CodeAnalysis> cache;
+
+    public CodeAnalysisCache(final int capacity) {
+        this.cache = new LruCache<>(capacity);
+    }
+
+    public static CodeAnalysisCache getInstance() {
+        return INSTANCE;
+    }
+
+    public CodeAnalysis get(final byte[] code) {
+        return get(code, Hash.keccak256(code));
+    }
+
+    /**
+     * Returns the analysis for code whose hash the caller already knows, analysing it on a miss.
+     * @param code
+     * @param codeHash
+     * @return
+     */
+    public CodeAnalysis get(final byte[] code, final Hash codeHash) {
+        return cache.computeIfAbsent(codeHash, h -> CodeAnalysis.analyze(code, h));
+    }
+
+    /**
+     * Returns the analysis for the code with the given hash, asking for the code only on a miss, so code
+     * that is already analysed is never copied, e.g. init code hashed in memory.
+     * @param codeHash
+     * @param code
+     * @return
+     */
+    public CodeAnalysis get(final Hash codeHash, final Supplier<byte[]> code) {
+        return cache.computeIfAbsent(codeHash, h -> CodeAnalysis.analyze(code.get(), h));
+    }
+
+    /**
+     * Adds an analysis computed elsewhere, e.g. for freshly deployed code.
+     * @param analysis
+     */
+    public void put(final CodeAnalysis analysis) {
+        cache.put(analysis.getCodeHash(), analysis);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    public double hitRate() {
+        return cache.hitRate();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public String toString() {
+        return "CodeAnalysisCache" + cache.toString().substring("LruCache".length());
+    }
+
+}
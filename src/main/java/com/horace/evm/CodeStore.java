@@ -0,0 +1,78 @@
+package com.horace.evm;
+
+import org.mapdb.DB;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+
+/**
+ * Contract code keyed by its keccak hash, so identical bytecode (proxies, clones) is stored once no matter
+ * how many accounts run it. Accounts only hold the hash and size, see {@link Account}.
+ * Recently used code is kept decoded in memory; returned arrays are shared and must not be modified.
+ */
+public class CodeStore {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public static final Hash EMPTY_CODE_HASH = Hash.keccak256(new byte[0]);
+
+    private static final byte[] EMPTY_CODE = new byte[0];
+
+    private final HTreeMap<byte[], byte[]> codes;
+    private final LruCache<Hash, byte[]> cache;
+
+    public CodeStore(final DB db) {
+        this(db, DEFAULT_CAPACITY);
+    }
+
+    public CodeStore(final DB db, final int capacity) {
+        this.codes = db.hashMap("code")
+            .keySerializer(Serializer.BYTE_ARRAY)
+            .valueSerializer(Serializer.BYTE_ARRAY_NOSIZE)
+            .createOrOpen();
+        this.cache = new LruCache<>(capacity);
+    }
+
+    /**
+     * Returns the code with the given hash, or empty code if none is stored under it.
+     * @param codeHash
+     * @return
+     */
+    public byte[] get(final Hash codeHash) {
+        if (codeHash.equals(EMPTY_CODE_HASH)) {
+            return EMPTY_CODE;
+        }
+        return cache.computeIfAbsent(codeHash, h -> {
+            final byte[] code = codes.get(h.getBytes());
+            return code == null ? EMPTY_CODE : code;
+        });
+    }
+
+    /**
+     * Stores the code and returns its hash.
+     * @param code
+     * @return
+     */
+    public Hash put(final byte[] code) {
+        final Hash codeHash = Hash.keccak256(code);
+        put(codeHash, code);
+        return codeHash;
+    }
+
+    /**
+     * Stores code whose hash the caller already knows. Storing the same code again is a no-op.
+     * @param codeHash
+     * @param code
+     */
+    public void put(final Hash codeHash, final byte[] code) {
+        if (code.length == 0) {
+            return;
+        }
+        codes.putIfAbsent(codeHash.getBytes(), code);
+        cache.put(codeHash, code);
+    }
+
+    public int size() {
+        return codes.size();
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.horace.evm;
+
+import java.util.Arrays;
+
+/**
+ * Contract code compiled to JVM bytecode by {@link JitCompiler}. The generated subclass splits the blocks
+ * into chunks, one static method each, to stay below the JVM limit of 64KB per method. A chunk returns
+ * when execution halts, falls back to the interpreter, or continues in a block of another chunk.
+ */
+abstract class CompiledCode {
+
+    static final int HALTED = -1;
+
+    // First block of each chunk, ascending
+    private final int[] chunkStarts;
+
+    protected CompiledCode(final int[] chunkStarts) {
+        this.chunkStarts = chunkStarts;
+    }
+
+    /**
+     * Runs the code from the start of the given basic block.
+     * @param context
+     * @param stack
+     * @param code
+     * @param block
+     * @return {@link #HALTED} when execution halted, otherwise the pc the interpreter has to resume from
+     */
+    final int run(final ExecutionContext context, final Stack stack, final DecodedCode code, final int block) {
+        int next = block;
+        while (true) {
+            final int result = runChunk(chunkOf(next), context, stack, code, next);
+            if (result >= HALTED) {
+                return result;
+            }
+            next = continuedBlock(result);
+        }
+    }
+
+    /**
+     * Runs one chunk from the given block, which must belong to it.
+     * @return {@link #HALTED}, a pc to resume interpreting from, or {@link #continueAt(int)} of a block in another chunk
+     */
+    abstract int runChunk(int chunk, ExecutionContext context, Stack stack, DecodedCode code, int block);
+
+    static int continueAt(final int block) {
+        return -2 - block;
+    }
+
+    static int continuedBlock(final int result) {
+        return -2 - result;
+    }
+
+    private int chunkOf(final int block) {
+        final int found = Arrays.binarySearch(chunkStarts, block);
+        return found >= 0 ? found : -found - 2;
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.horace.evm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bytecode translated once into a flat instruction stream for the {@link Interpreter}.
+ * Each slot holds an int opcode and the byte offset it came from. PUSH immediates are
+ * materialized as four limbs in {@code immediates}, and {@code args} points at them.
+ * A STOP slot is appended so running off the end of the code halts like the reference engine.
+ * <p>
+ * The stream is split into {@link BasicBlock}s. Each block starts with a {@link #OP_BEGIN_BLOCK}
+ * slot whose arg is the block index; JUMPDESTs are folded into the slot that begins their block.
+ */
+public final class DecodedCode {
+
+    // Pseudo opcodes outside the byte range: block entries and the fused sequences of Superinstruction
+    static final int OP_BEGIN_BLOCK = 0x100;
+    static final int OP_PUSH_JUMP = 0x101;
+    static final int OP_PUSH_JUMPI = 0x102;
+    static final int OP_ISZERO_PUSH_JUMPI = 0x103;
+    static final int OP_DUP_SWAP = 0x104;
+    static final int OP_PUSH4_EQ = 0x105;
+
+    final int[] ops;
+    final int[] pcs;
+    final int[] args;
+    final long[] immediates;
+    final BasicBlock[] blocks;
+
+    // Sorted JUMPDEST byte offsets and the slot each one decodes to
+    private final int[] jumpdestPcs;
+    private final int[] jumpdestIndices;
+
+    private DecodedCode(final int[] ops, final int[] pcs, final int[] args, final long[] immediates,
+            final BasicBlock[] blocks, final int[] jumpdestPcs, final int[] jumpdestIndices) {
+        this.ops = ops;
+        this.pcs = pcs;
+        this.args = args;
+        this.immediates = immediates;
+        this.blocks = blocks;
+        this.jumpdestPcs = jumpdestPcs;
+        this.jumpdestIndices = jumpdestIndices;
+    }
+
+    public static DecodedCode decode(final byte[] code) {
+        // At most one block entry per instruction, plus the trailing STOP and its block
+        final int capacity = code.length * 2 + 2;
+        final int[] ops = new int[capacity];
+        final int[] pcs = new int[capacity];
+        final int[] args = new int[capacity];
+        long[] immediates = new long[64];
+        int immediateCount = 0;
+        final List<BasicBlock> blocks = new ArrayList<>();
+        BasicBlock.Builder block = null;
+        final int[] jumpdestPcs = new int[code.length];
+        final int[] jumpdestIndices = new int[code.length];
+        int jumpdests = 0;
+
+        int n = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            final int op = code[pc] & 0xFF;
+            if (block == null || op == Instruction.JUMPDEST.getOpcode()) {
+                if (block != null) {
+                    blocks.add(block.build());
+                }
+                block = new BasicBlock.Builder(pc);
+                ops[n] = OP_BEGIN_BLOCK;
+                pcs[n] = pc;
+                args[n] = blocks.size();
+                if (op == Instruction.JUMPDEST.getOpcode()) {
+                    jumpdestPcs[jumpdests] = pc;
+                    jumpdestIndices[jumpdests++] = n;
+                    block.add(op);
+                    pc++;
+                    n++;
+                    continue;
+                }
+                n++;
+            }
+            ops[n] = op;
+            pcs[n] = pc;
+            block.add(op);
+            if (op >= Instruction.PUSH1.getOpcode() && op <= Instruction.PUSH32.getOpcode()) {
+                final int size = op - Instruction.PUSH1.getOpcode() + 1;
+                if (immediateCount + Stack.LIMBS > immediates.length) {
+                    immediates = Arrays.copyOf(immediates, immediates.length * 2);
+                }
+                readImmediate(code, pc + 1, size, immediates, immediateCount);
+                args[n] = immediateCount;
+                immediateCount += Stack.LIMBS;
+                pc += size;
+            } else if (Instruction.isTerminator(op) || Instruction.readsGas(op)) {
+                blocks.add(block.build());
+                block = null;
+            }
+            pc++;
+            n++;
+        }
+        if (block == null) {
+            block = new BasicBlock.Builder(code.length);
+            ops[n] = OP_BEGIN_BLOCK;
+            pcs[n] = code.length;
+            args[n] = blocks.size();
+            n++;
+        }
+        ops[n] = Instruction.STOP.getOpcode();
+        pcs[n] = code.length;
+        block.add(Instruction.STOP.getOpcode());
+        blocks.add(block.build());
+        n++;
+
+        return new DecodedCode(
+            Arrays.copyOf(ops, n),
+            Arrays.copyOf(pcs, n),
+            Arrays.copyOf(args, n),
+            Arrays.copyOf(immediates, immediateCount),
+            blocks.toArray(new BasicBlock[0]),
+            Arrays.copyOf(jumpdestPcs, jumpdests),
+            Arrays.copyOf(jumpdestIndices, jumpdests));
+    }
+
+    /**
+     * Returns the number of instruction slots, including the trailing STOP.
+     * @return
+     */
+    public int size() {
+        return ops.length;
+    }
+
+    /**
+     * Returns a copy sharing everything but the rewritten opcode and arg streams.
+     * @param ops
+     * @param args
+     * @return
+     */
+    DecodedCode withStream(final int[] ops, final int[] args) {
+        return new DecodedCode(ops, pcs, args, immediates, blocks, jumpdestPcs, jumpdestIndices);
+    }
+
+    public BasicBlock[] getBlocks() {
+        return blocks.clone();
+    }
+
+    /**
+     * Returns the block entry slot of the JUMPDEST at the given byte offset, or -1 if it is not a valid destination.
+     * @param pc
+     * @return
+     */
+    public int jumpIndex(final int pc) {
+        final int found = Arrays.binarySearch(jumpdestPcs, pc);
+        return found >= 0 ? jumpdestIndices[found] : -1;
+    }
+
+    /**
+     * Returns the first slot decoded from the given byte offset, or -1 if no instruction starts there.
+     * Where a block begins at the offset this is its entry slot.
+     * @param pc
+     * @return
+     */
+    public int indexOf(final int pc) {
+        int low = 0;
+        int high = pcs.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (pcs[mid] < pc) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < pcs.length && pcs[low] == pc ? low : -1;
+    }
+
+    private static void readImmediate(final byte[] code, final int offset, final int size,
+            final long[] dest, final int destOffset) {
+        long l0 = 0, l1 = 0, l2 = 0, l3 = 0;
+        for (int i = 0; i < size; i++) {
+            // Push data cut off by the end of the code reads as zero bytes
+            final int b = offset + i < code.length ? code[offset + i] & 0xFF : 0;
+            l3 = (l3 << 8) | (l2 >>> 56);
+            l2 = (l2 << 8) | (l1 >>> 56);
+            l1 = (l1 << 8) | (l0 >>> 56);
+            l0 = (l0 << 8) | b;
+        }
+        dest[destOffset] = l0;
+        dest[destOffset + 1] = l1;
+        dest[destOffset + 2] = l2;
+        dest[destOffset + 3] = l3;
+    }
+
+}
@@ -1,30 +1,243 @@
 package com.horace.evm;
 
+import java.math.BigInteger;
 import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class EVM {
 
-    private void run(byte[] code) {
-        ExecutionContext context = new ExecutionContext(code);
-        while (!context.isStopped()) {
-            final int pcBefore = context.getProgramCounter();
-            final Instruction instruction = Instruction.decodeOpcode(context);
-            instruction.execute(context);
-            System.out.println(instruction + " @ pc = " + pcBefore);
-            System.out.println(context.getStack());
-            System.out.println(context.getMemory());
-            System.out.println("====================================");
+    /**
+     * The reference engine steps through the {@link Instruction} table one opcode at a time, as every
+     * engine does under a {@link Tracer}. The interpreter runs pre-decoded code in a dispatch loop.
+     * The tiered engine interprets until a contract is hot, then runs it as a compiled JVM class.
+     */
+    public enum Engine {
+        REFERENCE,
+        INTERPRETER,
+        TIERED
+    }
+
+    // Block gas limit of mainnet, a transaction can never use more
+    public static final long DEFAULT_GAS_LIMIT = 30_000_000L;
+
+    private final Engine engine;
+    private final long gasLimit;
+    private final Interpreter interpreter;
+    private final TieredExecutor tiered;
+    // Null when not tracing
+    private final Tracer tracer;
+
+    // Runs the nested frames of message calls on the same engine
+    private final Consumer<ExecutionContext> runner = this::dispatch;
+    // Reset onto the world state of every transaction, so its tables are allocated once per EVM
+    private final JournaledState journal = new JournaledState(null);
+
+    public EVM() {
+        this(Engine.INTERPRETER);
+    }
+
+    public EVM(final Engine engine) {
+        this(engine, DEFAULT_GAS_LIMIT);
+    }
+
+    public EVM(final Engine engine, final long gasLimit) {
+        this(engine, gasLimit, null);
+    }
+
+    /**
+     * @param engine
+     * @param gasLimit
+     * @param tracer sees every frame and instruction, null for none
+     */
+    public EVM(final Engine engine, final long gasLimit, final Tracer tracer) {
+        this(engine, gasLimit, tracer, new Interpreter());
+    }
+
+    /**
+     * @param engine
+     * @param gasLimit
+     * @param tracer sees every frame and instruction, null for none
+     * @param interpreter runs the interpreted code of the interpreter and tiered engines, e.g. one without
+     * superinstructions
+     */
+    EVM(final Engine engine, final long gasLimit, final Tracer tracer, final Interpreter interpreter) {
+        this.engine = engine;
+        this.gasLimit = gasLimit;
+        this.tracer = tracer;
+        this.interpreter = interpreter;
+        this.tiered = new TieredExecutor(TieredExecutor.DEFAULT_THRESHOLD, interpreter);
+    }
+
+    /**
+     * Executes the transaction against the world state: moves the value from the sender to the recipient,
+     * then runs the recipient's code with the gas limit of this EVM. Only a successful transaction commits
+     * its changes to the world state; a revert or an exceptional halt leaves it untouched.
+     * A {@link ReadDependencyException} from the world state is not a halt and propagates.
+     * @param tx
+     * @param world
+     * @return
+     */
+    public TxResult execute(final TxData tx, final WorldState world) {
+        return run(tx, null, null, world, true, false);
+    }
+
+    /**
+     * Runs the transaction like {@link #execute(TxData, WorldState)} but never commits, so the world state
+     * is only read. If code is given it runs in place of the recipient's code, as the recipient.
+     * @param tx
+     * @param block the block the call sees, may be null
+     * @param code the code to run, null for the recipient's code
+     * @param world
+     * @return
+     */
+    public TxResult call(final TxData tx, final Block block, final byte[] code, final WorldState world) {
+        return run(tx, block, code, world, false, false);
+    }
+
+    /**
+     * Runs the call like {@link #call(TxData, Block, byte[], WorldState)} with STATICCALL semantics:
+     * an attempt to modify state halts it, and so does a transaction value.
+     * @param tx
+     * @param block the block the call sees, may be null
+     * @param code the code to run, null for the recipient's code
+     * @param world
+     * @return
+     */
+    public TxResult staticCall(final TxData tx, final Block block, final byte[] code, final WorldState world) {
+        return run(tx, block, code, world, false, true);
+    }
+
+    private TxResult run(final TxData tx, final Block block, final byte[] code, final WorldState world,
+            final boolean commit, final boolean staticCall) {
+        final JournaledState state = journal;
+        state.reset(world);
+        // Frames run on the latest schedule, see ExecutionContext#reset
+        state.beginTransaction(tx, block, GasSchedule.LATEST);
+        final BigInteger value = tx.getValue() == null ? BigInteger.ZERO : new BigInteger(1, tx.getValue());
+        final Account sender = state.getAccount(tx.getFrom());
+        if (sender.getBalance().compareTo(value) < 0 || staticCall && value.signum() != 0) {
+            state.discard();
+            return new TxResult(TxResult.Status.FAILED, 0, new byte[0], List.of());
+        }
+        if (value.signum() != 0) {
+            state.setBalance(tx.getFrom(), sender.getBalance().subtract(value));
+            state.setBalance(tx.getTo(), state.getAccount(tx.getTo()).getBalance().add(value));
         }
-        if (context.getReturnData().length > 0) {
-            System.out.println("RETURN: " + HexFormat.of().formatHex(context.getReturnData()));
+        final Account recipient = state.getAccount(tx.getTo());
+        final CodeAnalysis analysis = code == null
+            ? CodeAnalysisCache.getInstance().get(state.getCode(recipient.getCodeHash()), recipient.getCodeHash())
+            : CodeAnalysisCache.getInstance().get(code);
+        // The outermost frame comes from the same per-thread pool as the nested ones
+        final ExecutionContext context = FramePool.frame(0);
+        context.reset(analysis);
+        context.setRunner(runner);
+        context.setState(state);
+        context.setTransaction(tx);
+        context.setBlock(block);
+        context.setContract(recipient);
+        context.setGasLeft(gasLimit);
+        context.setStaticCall(staticCall);
+        TxResult.Status status;
+        byte[] output = new byte[0];
+        try {
+            dispatch(context);
+            status = context.isReverted() ? TxResult.Status.REVERTED : TxResult.Status.SUCCESS;
+        } catch (ReadDependencyException e) {
+            state.discard();
+            throw e;
+        } catch (RuntimeException e) {
+            // Exceptional halt, all gas is consumed
+            context.setGasLeft(0);
+            status = TxResult.Status.FAILED;
+        } finally {
+            if (context.getOutput().length() > 0) {
+                output = context.getOutput().toArray();
+            }
+            context.getMemory().release();
         }
+        final List<Log> logs = status == TxResult.Status.SUCCESS ? state.getLogs() : List.of();
+        if (commit && status == TxResult.Status.SUCCESS) {
+            state.commit();
+        } else {
+            state.discard();
+        }
+        return new TxResult(status, gasLimit - context.getGasLeft(), output, logs);
+    }
 
+    private void dispatch(final ExecutionContext context) {
+        if (tracer != null) {
+            runTraced(context);
+        } else if (engine == Engine.INTERPRETER) {
+            interpreter.execute(context);
+        } else if (engine == Engine.TIERED) {
+            tiered.execute(context);
+        } else {
+            runReference(context);
+        }
+    }
+
+    private void runReference(final ExecutionContext context) {
+        while (!context.isStopped()) {
+            Instruction.decodeOpcode(context).execute(context);
+        }
+    }
+
+    // The reference loop with the tracer's hooks, for every engine
+    private void runTraced(final ExecutionContext context) {
+        final Stack stack = context.getStack();
+        final UInt256 slot = new UInt256();
+        final UInt256 value = new UInt256();
+        tracer.enter(context);
+        try {
+            while (!context.isStopped()) {
+                final int pc = context.getProgramCounter();
+                final Instruction instruction = Instruction.decodeOpcode(context);
+                tracer.step(context, pc, instruction);
+                final int opcode = instruction.getOpcode();
+                if (opcode == Instruction.SLOAD.getOpcode()) {
+                    stack.peek(0, slot);
+                    instruction.execute(context);
+                    tracer.storage(context, slot, stack.peek(0, value), false);
+                } else if (opcode == Instruction.SSTORE.getOpcode()) {
+                    stack.peek(0, slot);
+                    stack.peek(1, value);
+                    instruction.execute(context);
+                    tracer.storage(context, slot, value, true);
+                } else if (opcode >= Instruction.LOG0.getOpcode() && opcode <= Instruction.LOG4.getOpcode()) {
+                    instruction.execute(context);
+                    tracer.log(context, context.getState().lastLog());
+                } else {
+                    instruction.execute(context);
+                }
+                tracer.executed(context, pc, instruction);
+            }
+        } catch (RuntimeException e) {
+            tracer.exit(context, false);
+            throw e;
+        }
+        tracer.exit(context, !context.isReverted());
     }
 
     public static void main(String[] args) {
         byte[] code = HexFormat.of().parseHex("60048060005b8160125760005360016000f35b8201906001900390600556");
-        EVM evm = new EVM();
-        evm.run(code);
+        final Engine engine = args.length > 0 ? Engine.valueOf(args[0]) : Engine.INTERPRETER;
+        // The reference engine dumps the state after every instruction, the others run untraced
+        EVM evm = new EVM(engine, DEFAULT_GAS_LIMIT, engine == Engine.REFERENCE ? new StateDumpTracer(System.out) : null);
+        final byte[] caller = new byte[Address.ADDRESS_LENGTH];
+        final byte[] contract = new byte[Address.ADDRESS_LENGTH];
+        contract[Address.ADDRESS_LENGTH - 1] = (byte) 0xC0;
+        final TxData tx = new TxData(caller, contract, new byte[0], caller, new byte[0], BigInteger.ONE);
+        final TxResult result;
+        // On the backend configured by system properties, see StateBackend
+        try (GlobalState world = new GlobalState(StateBackend.fromSystemProperties())) {
+            result = evm.call(tx, null, code, world);
+        }
+        System.out.println(result.getStatus());
+        if (result.getReturnData().length > 0) {
+            System.out.println((result.isSuccess() ? "RETURN: " : "REVERT: ") + HexFormat.of().formatHex(result.getReturnData()));
+        }
+        System.out.println("GAS USED: " + result.getGasUsed());
     }
 
 }
@@ -2,15 +2,40 @@ package com.horace.evm;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import lombok.Getter;
 import lombok.Setter;
 
 public class ExecutionContext {
 
-    private boolean stopped = false;    
+    public static final int MAX_CALL_DEPTH = 1024;
+    // EIP-170
+    public static final int MAX_CODE_SIZE = 24576;
+    // EIP-3860, since Shanghai
+    public static final int MAX_INITCODE_SIZE = 2 * MAX_CODE_SIZE;
+    // Nested frames recurse into the engine, so every this many levels the callee continues on a thread of
+    // its own: the caller's thread only ever holds this many frames, whatever its stack size
+    static final int FRAMES_PER_THREAD = 64;
+    // Java stack for the threads running deeper frames, with room to spare for FRAMES_PER_THREAD frames
+    static final long FRAME_THREAD_STACK_SIZE = 4L << 20;
+
+    private static final AtomicInteger FRAME_THREADS = new AtomicInteger();
+    private static final ExecutorService DEEP_FRAMES = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(null, runnable, "evm-frames-" + FRAME_THREADS.incrementAndGet(),
+            FRAME_THREAD_STACK_SIZE);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private boolean stopped = false;
+    private boolean reverted = false;
     @Getter
     private byte[] code;
     private int pc;
@@ -18,12 +43,13 @@ public class ExecutionContext {
     private Stack stack;
     @Getter
     private Memory memory;
+    // Shared by the frames of a transaction, which snapshot and revert it
+    // Set by whoever runs the context, over the world state it executes against
     @Getter
-    private final Storage storage = new Storage();
-    @Getter
-    private byte[] returnData = new byte[0];
+    @Setter
+    private JournaledState state;
     @Getter
-    private Set<Integer> jumpDestinations = new HashSet<>();
+    private CodeAnalysis analysis;
     @Getter
     @Setter
     private TxData txData;
@@ -36,6 +62,47 @@ public class ExecutionContext {
     @Getter
     @Setter
     private Account contract;
+    @Getter
+    @Setter
+    private long gasLeft = Long.MAX_VALUE;
+    @Getter
+    @Setter
+    private GasSchedule schedule = GasSchedule.LATEST;
+    // No state may be modified, as under STATICCALL
+    @Getter
+    @Setter
+    private boolean staticCall = false;
+    // The message this frame runs: whose storage and balance, called by whom, with which value and input
+    @Getter
+    @Setter
+    private byte[] address;
+    @Getter
+    @Setter
+    private byte[] caller;
+    @Getter
+    private final UInt256 callValue = new UInt256();
+    // Calldata, the transaction data or a slice of the caller's memory
+    @Getter
+    private final ByteSlice input = new ByteSlice();
+    // What this frame returned or reverted with, a slice of its own memory
+    @Getter
+    private final ByteSlice output = new ByteSlice();
+    // Output of the last call made by this frame, for RETURNDATASIZE and RETURNDATACOPY
+    @Getter
+    private final ByteSlice returnData = new ByteSlice();
+    @Getter
+    private int depth = 0;
+    // How this frame was entered, CALL for the transaction's own
+    @Getter
+    private CallKind kind = CallKind.CALL;
+    // Runs nested frames, on the engine running this one
+    @Setter
+    private Consumer<ExecutionContext> runner;
+
+    // Scratch words reused by instructions, so the arithmetic path does not allocate per opcode
+    final UInt256 a = new UInt256();
+    final UInt256 b = new UInt256();
+    final UInt256 c = new UInt256();
 
     // Constructors
     public ExecutionContext() {
@@ -47,11 +114,32 @@ public class ExecutionContext {
     }
 
     public ExecutionContext(byte[] code, int pc, Stack stack, Memory memory) {
-        this.code = code;
+        this(CodeAnalysisCache.getInstance().get(code), pc, stack, memory);
+    }
+
+    public ExecutionContext(CodeAnalysis analysis, int pc, Stack stack, Memory memory) {
+        this.code = analysis.getCode();
+        this.analysis = analysis;
         this.pc = pc;
         this.stack = stack;
         this.memory = memory;
-        jumpDestinations = validJumpDestinations(code);
+    }
+
+    /**
+     * Sets the transaction and makes it the message of this frame: the recipient's code runs as the
+     * recipient, called by the sender with the value and data of the transaction.
+     * @param tx
+     */
+    public void setTransaction(final TxData tx) {
+        txData = tx;
+        address = tx.getTo();
+        caller = tx.getFrom();
+        callValue.setBytes(tx.getValue() == null ? new byte[0] : tx.getValue());
+        if (tx.getData() == null) {
+            input.clear();
+        } else {
+            input.set(tx.getData(), 0, tx.getData().length);
+        }
     }
 
     public void stop() {
@@ -62,6 +150,68 @@ public class ExecutionContext {
         return stopped;
     }
 
+    /**
+     * Returns true when execution ended with REVERT, in which case its state changes must be undone.
+     * @return
+     */
+    public boolean isReverted() {
+        return reverted;
+    }
+
+    /**
+     * Deducts gas, halting with an OutOfGasException when there is not enough left.
+     * @param amount
+     */
+    public void useGas(final long amount) {
+        if ((gasLeft -= amount) < 0) {
+            gasLeft = 0;
+            throw new OutOfGasException();
+        }
+    }
+
+    /**
+     * Halts with a StaticCallException if the context is static, before an instruction modifies state.
+     */
+    public void checkWritable() {
+        if (staticCall) {
+            throw new StaticCallException();
+        }
+    }
+
+    /**
+     * Charges the memory expansion needed to access [offset, offset + length) and expands the memory.
+     * @param offset
+     * @param length
+     */
+    public void expandMemory(final int offset, final int length) {
+        final long cost = memory.expansionCost(offset, length);
+        if (cost != 0) {
+            useGas(cost);
+            memory.expand(offset, length);
+        }
+    }
+
+    /**
+     * Charges the cold access surcharge if the address has not been accessed in this transaction yet.
+     * @param address
+     */
+    public void accessAccount(final byte[] address) {
+        if (state.warmAccount(address)) {
+            useGas(schedule.coldAccountSurcharge());
+        }
+    }
+
+    /**
+     * Charges the cold SLOAD surcharge if the slot has not been accessed in this transaction yet.
+     * @param address
+     * @param slot
+     */
+    public void accessSlot(final byte[] address, final UInt256 slot) {
+        if (state.warmSlot(address, slot)) {
+            useGas(schedule.coldSloadSurcharge());
+        }
+    }
+
     public int getProgramCounter() {
         return pc;
     }
@@ -78,29 +228,325 @@ public class ExecutionContext {
         return new BigInteger(bytes);
     }
 
-    public void setReturnData(final int offset, final int size) {
+    public DecodedCode getDecodedCode() {
+        return analysis.getDecodedCode();
+    }
+
+    public boolean isJumpDestination(final int pc) {
+        return analysis.isJumpDestination(pc);
+    }
+
+    public void setOutput(final int offset, final int size) {
         stopped = true;
-        returnData = memory.load(offset, size);
-    }
-
-    private Set<Integer> validJumpDestinations(byte[] code) {
-        Set<Integer> jumpdests = new HashSet<>();
-        int i = 0;
-        
-        while (i < code.length) {
-            int currentOp = code[i] & 0xFF;  // Convert to unsigned byte
-            
-            if (currentOp == Instruction.JUMPDEST.getOpcode()) {
-                jumpdests.add(i);
-            } else if (currentOp >= Instruction.PUSH1.getOpcode() && currentOp <= Instruction.PUSH32.getOpcode()) {
-                // Skip push data bytes (currentOp - PUSH1_OPCODE + 1)
-                i += (currentOp - Instruction.PUSH1.getOpcode());
+        memory.slice(offset, size, output);
+    }
+
+    public void revert(final int offset, final int size) {
+        setOutput(offset, size);
+        reverted = true;
+    }
+
+    /**
+     * Runs a message call in a nested frame and copies the start of its output to [retOffset, retOffset + retSize).
+     * Charges the memory expansion, the value transfer and new account costs and the gas passed on, of
+     * which the callee's unused gas comes back. A call at the depth limit, or without the balance for its
+     * value, fails without running and gives the gas passed on back. The callee's state changes are
+     * reverted unless it succeeds.
+     * @param kind
+     * @param gas the gas requested for the callee
+     * @param target the account whose code runs
+     * @param value the value passed, zero for DELEGATECALL and STATICCALL
+     * @param argsOffset
+     * @param argsSize
+     * @param retOffset
+     * @param retSize
+     * @return true if the callee neither reverted nor halted exceptionally
+     */
+    public boolean call(final CallKind kind, final UInt256 gas, final byte[] target, final UInt256 value,
+            final int argsOffset, final int argsSize, final int retOffset, final int retSize) {
+        expandMemory(argsOffset, argsSize);
+        expandMemory(retOffset, retSize);
+        final boolean transfer = !value.isZero() && (kind == CallKind.CALL || kind == CallKind.CALLCODE);
+        if (transfer) {
+            if (kind == CallKind.CALL) {
+                checkWritable();
+            }
+            useGas(GasSchedule.CALL_VALUE_GAS);
+            final Account recipient = state.getAccount(target);
+            if (kind == CallKind.CALL && recipient.getBalance().signum() == 0 && recipient.getCodeSize() == 0
+                    && recipient.getNonce() == 0) {
+                useGas(GasSchedule.NEW_ACCOUNT_GAS);
+            }
+        }
+        // EIP-150: all but one 64th of the gas left at most
+        final long limit = gasLeft - gasLeft / 64;
+        final long callGas = gas.fitsLong() ? Math.min(gas.longValue(), limit) : limit;
+        gasLeft -= callGas;
+        final long calleeGas = transfer ? callGas + GasSchedule.CALL_STIPEND : callGas;
+        returnData.clear();
+        final BigInteger amount = transfer ? value.toBigInteger() : BigInteger.ZERO;
+        if (depth >= MAX_CALL_DEPTH || state.getAccount(address).getBalance().compareTo(amount) < 0) {
+            gasLeft += calleeGas;
+            return false;
+        }
+        final int snapshot = state.snapshot();
+        if (transfer && kind == CallKind.CALL) {
+            state.setBalance(address, state.getAccount(address).getBalance().subtract(amount));
+            state.setBalance(target, state.getAccount(target).getBalance().add(amount));
+        }
+        final Account callee = state.getAccount(target);
+        if (callee.getCodeSize() == 0) {
+            // Nothing to run; precompiles are not implemented and behave like empty accounts
+            gasLeft += calleeGas;
+            return true;
+        }
+        final ExecutionContext frame = FramePool.frame(depth + 1);
+        frame.reset(CodeAnalysisCache.getInstance().get(state.getCode(callee.getCodeHash()), callee.getCodeHash()));
+        frame.enter(this, kind, target, value, calleeGas);
+        memory.slice(argsOffset, argsSize, frame.input);
+        final boolean success = execute(frame);
+        if (!success) {
+            state.revert(snapshot);
+        }
+        gasLeft += frame.gasLeft;
+        returnData.set(frame.output);
+        memory.copyFrom(retOffset, returnData, 0, Math.min(retSize, returnData.length()));
+        return success;
+    }
+
+    /**
+     * Creates a contract: runs the init code at [offset, offset + size) in a nested frame as the new
+     * account, then deposits the code it returns there. The address derives from the creator's address
+     * and nonce for CREATE, and from the creator's address, the salt and the init code hash for CREATE2.
+     * Charges the memory expansion, the init code and hashing costs and all but one 64th of the gas left,
+     * of which the unused part comes back. Creation at the depth limit or without the balance for the
+     * value fails without running.
+     * <p>
+     * The init code is hashed in place and its analysis looked up by hash, so a factory deploying the
+     * same init code again neither copies nor analyses it. The deposited code is analysed right away,
+     * or found analysed if the same code was deployed before, so the first call to it is a cache hit.
+     * @param value the value passed to the new account
+     * @param offset
+     * @param size
+     * @param salt the CREATE2 salt, null for CREATE
+     * @return the address of the new contract, or null if creation failed
+     */
+    public byte[] create(final UInt256 value, final int offset, final int size, final UInt256 salt) {
+        expandMemory(offset, size);
+        if (schedule.isAtLeast(GasSchedule.SHANGHAI)) {
+            if (size > MAX_INITCODE_SIZE) {
+                throw new IllegalArgumentException("Init code too large: " + size);
+            }
+            useGas(GasSchedule.initCodeCost(size));
+        }
+        if (salt != null) {
+            useGas(GasSchedule.keccakCost(size));
+        }
+        final Hash initCodeHash = new Hash(memory.keccak(offset, size, new UInt256()).toBytes());
+        final long calleeGas = gasLeft - gasLeft / 64;
+        gasLeft -= calleeGas;
+        returnData.clear();
+        final Account creator = state.getAccount(address);
+        final BigInteger amount = value.toBigInteger();
+        if (depth >= MAX_CALL_DEPTH || creator.getBalance().compareTo(amount) < 0) {
+            gasLeft += calleeGas;
+            return null;
+        }
+        final byte[] target = salt == null
+            ? createAddress(address, creator.getNonce())
+            : create2Address(address, salt, initCodeHash);
+        state.putAccount(address, creator.withNonce(creator.getNonce() + 1));
+        state.warmAccount(target);
+        final Account existing = state.getAccount(target);
+        if (existing.getNonce() != 0 || existing.getCodeSize() != 0) {
+            // Address collision, which consumes the gas passed on
+            return null;
+        }
+        final int snapshot = state.snapshot();
+        state.putAccount(target, new Account(existing.getBalance().add(amount), CodeStore.EMPTY_CODE_HASH, 0, 1));
+        state.setBalance(address, state.getAccount(address).getBalance().subtract(amount));
+        final ExecutionContext frame = FramePool.frame(depth + 1);
+        frame.reset(CodeAnalysisCache.getInstance().get(initCodeHash, () -> memory.load(offset, size)));
+        frame.enter(this, salt == null ? CallKind.CREATE : CallKind.CREATE2, target, value, calleeGas);
+        boolean success = execute(frame);
+        if (success && !deposit(frame, target)) {
+            frame.gasLeft = 0;
+            success = false;
+        }
+        if (!success) {
+            state.revert(snapshot);
+        }
+        gasLeft += frame.gasLeft;
+        // Only a revert returns data to the creator, the output of a successful creation is the code
+        if (frame.reverted) {
+            returnData.set(frame.output);
+        }
+        return success ? target : null;
+    }
+
+    /**
+     * Returns the address of a contract created by CREATE: the last 20 bytes of the keccak hash of
+     * the RLP list of the creator's address and nonce.
+     * @param creator
+     * @param nonce
+     * @return
+     */
+    public static byte[] createAddress(final byte[] creator, final long nonce) {
+        final byte[] hash = KeccakHasher.hash(Rlp.encodeList(Rlp.encodeBytes(creator), Rlp.encodeLong(nonce)));
+        return Arrays.copyOfRange(hash, hash.length - Address.ADDRESS_LENGTH, hash.length);
+    }
+
+    /**
+     * Returns the address of a contract created by CREATE2 (EIP-1014): the last 20 bytes of the keccak
+     * hash of 0xff, the creator's address, the salt and the init code hash.
+     * @param creator
+     * @param salt
+     * @param initCodeHash
+     * @return
+     */
+    public static byte[] create2Address(final byte[] creator, final UInt256 salt, final Hash initCodeHash) {
+        final byte[] preimage = new byte[1 + Address.ADDRESS_LENGTH + 2 * Hash.HASH_LENGTH];
+        preimage[0] = (byte) 0xFF;
+        System.arraycopy(creator, 0, preimage, 1, Address.ADDRESS_LENGTH);
+        salt.toBytes(preimage, 1 + Address.ADDRESS_LENGTH);
+        System.arraycopy(initCodeHash.getBytes(), 0, preimage, 1 + Address.ADDRESS_LENGTH + Hash.HASH_LENGTH,
+            Hash.HASH_LENGTH);
+        final byte[] hash = KeccakHasher.hash(preimage);
+        return Arrays.copyOfRange(hash, hash.length - Address.ADDRESS_LENGTH, hash.length);
+    }
+
+    // Runs a nested frame on the engine, returning true if it neither reverted nor halted exceptionally
+    private boolean execute(final ExecutionContext frame) {
+        if (frame.depth % FRAMES_PER_THREAD != 0) {
+            return run(frame);
+        }
+        // This thread waits for the callee, so the frames of a transaction still run one at a time
+        final Future<Boolean> callee = DEEP_FRAMES.submit(() -> run(frame));
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return callee.get();
+                } catch (InterruptedException e) {
+                    // The callee works on this frame's state, it has to finish before the caller goes on
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
             }
-            
-            i++;  // Move to next instruction
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static boolean run(final ExecutionContext frame) {
+        try {
+            frame.runner.accept(frame);
+            return !frame.reverted;
+        } catch (ReadDependencyException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // Exceptional halt of the callee, which consumes all of its gas
+            frame.gasLeft = 0;
+            frame.output.clear();
+            return false;
+        }
+    }
+
+    // Stores the output of init code as the code of the new account, false if it cannot be deposited
+    private boolean deposit(final ExecutionContext frame, final byte[] target) {
+        final int size = frame.output.length();
+        if (size == 0) {
+            return true;
+        }
+        if (size > MAX_CODE_SIZE || (long) size * GasSchedule.CODE_DEPOSIT_GAS > frame.gasLeft) {
+            return false;
+        }
+        final byte[] code = frame.output.toArray();
+        if (code[0] == (byte) 0xEF && schedule.isAtLeast(GasSchedule.LONDON)) {
+            // EIP-3541, reserved for EOF
+            return false;
+        }
+        frame.gasLeft -= size * GasSchedule.CODE_DEPOSIT_GAS;
+        final Hash codeHash = state.deployCode(code);
+        CodeAnalysisCache.getInstance().get(code, codeHash);
+        final Account account = state.getAccount(target);
+        state.putAccount(target, new Account(account.getBalance(), codeHash, size, account.getNonce()));
+        return true;
+    }
+
+    /**
+     * Prepares a pooled frame for a new run of the given code, dropping everything of its previous run.
+     * @param analysis
+     */
+    void reset(final CodeAnalysis analysis) {
+        this.code = analysis.getCode();
+        this.analysis = analysis;
+        pc = 0;
+        stopped = false;
+        reverted = false;
+        stack.reset();
+        memory.release();
+        state = null;
+        txData = null;
+        block = null;
+        chainId = BigInteger.ZERO;
+        contract = null;
+        gasLeft = Long.MAX_VALUE;
+        schedule = GasSchedule.LATEST;
+        staticCall = false;
+        address = null;
+        caller = null;
+        callValue.setZero();
+        input.clear();
+        output.clear();
+        returnData.clear();
+        kind = CallKind.CALL;
+        runner = null;
+    }
+
+    // Sets up this frame as the callee of the parent
+    private void enter(final ExecutionContext parent, final CallKind kind, final byte[] target, final UInt256 value,
+            final long gas) {
+        depth = parent.depth + 1;
+        this.kind = kind;
+        state = parent.state;
+        txData = parent.txData;
+        block = parent.block;
+        chainId = parent.chainId;
+        schedule = parent.schedule;
+        runner = parent.runner;
+        gasLeft = gas;
+        staticCall = parent.staticCall || kind == CallKind.STATICCALL;
+        switch (kind) {
+            case CALL:
+            case STATICCALL:
+            case CREATE:
+            case CREATE2:
+                address = target;
+                caller = parent.address;
+                callValue.set(value);
+                break;
+            case CALLCODE:
+                address = parent.address;
+                caller = parent.address;
+                callValue.set(value);
+                break;
+            case DELEGATECALL:
+                address = parent.address;
+                caller = parent.caller;
+                callValue.set(parent.callValue);
+                break;
         }
-        
-        return jumpdests;
+        contract = state.getAccount(address);
     }
 
 }
@@ -0,0 +1,41 @@
+package com.horace.evm;
+
+/**
+ * Call frames of the current thread by call depth, so a nested call reuses the {@link ExecutionContext},
+ * {@link Stack} and {@link Memory} of the previous call at the same depth instead of allocating them.
+ * Execution is synchronous, so the frame at a depth is free again once the call at that depth returned;
+ * its memory still holds the return data until the caller's next call, which is why it is only reset
+ * when reused. Frames are created on first use.
+ */
+final class FramePool {
+
+    private static final ThreadLocal<FramePool> POOL = ThreadLocal.withInitial(FramePool::new);
+
+    private ExecutionContext[] frames = new ExecutionContext[16];
+
+    private FramePool() {
+    }
+
+    /**
+     * Returns the frame of the current thread for the given depth, still holding its previous call.
+     * @param depth
+     * @return
+     */
+    static ExecutionContext frame(final int depth) {
+        final FramePool pool = POOL.get();
+        if (depth >= pool.frames.length) {
+            // A thread running deep frames starts at the depth it took over, not at zero
+            final ExecutionContext[] grown = new ExecutionContext[Math.min(Math.max(pool.frames.length * 2, depth + 1),
+                ExecutionContext.MAX_CALL_DEPTH + 1)];
+            System.arraycopy(pool.frames, 0, grown, 0, pool.frames.length);
+            pool.frames = grown;
+        }
+        ExecutionContext frame = pool.frames[depth];
+        if (frame == null) {
+            frame = new ExecutionContext();
+            pool.frames[depth] = frame;
+        }
+        return frame;
+    }
+
+}
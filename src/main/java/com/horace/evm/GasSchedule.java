@@ -0,0 +1,208 @@
+package com.horace.evm;
+
+/**
+ * Gas costs per fork. The static table holds the part of the cost that does not depend on operands
+ * or state; the dynamic parts (memory expansion, copied words, EXP exponent bytes, ...) are computed
+ * by the helpers below and charged by the instructions themselves.
+ * Since Berlin, account and storage access opcodes are listed at their warm access cost.
+ * <p>
+ * Opcodes introduced by a later fork are priced but not rejected by earlier ones.
+ */
+public enum GasSchedule {
+
+    ISTANBUL,
+    BERLIN,
+    LONDON,
+    SHANGHAI,
+    CANCUN;
+
+    public static final GasSchedule LATEST = CANCUN;
+
+    public static final long MEMORY_WORD_GAS = 3;
+    public static final long QUADRATIC_MEMORY_DIVISOR = 512;
+    public static final long COPY_WORD_GAS = 3;
+    public static final long KECCAK_WORD_GAS = 6;
+    public static final long EXP_BYTE_GAS = 50;
+    public static final long LOG_DATA_GAS = 8;
+    public static final long SSTORE_SET_GAS = 20000;
+    // SSTORE fails when no more than the call stipend is left (EIP-2200)
+    public static final long SSTORE_SENTRY_GAS = 2300;
+    public static final long COLD_SLOAD_GAS = 2100;
+    public static final long COLD_ACCOUNT_ACCESS_GAS = 2600;
+    public static final long CALL_VALUE_GAS = 9000;
+    // Given to the callee on top of the gas passed when a call transfers value
+    public static final long CALL_STIPEND = 2300;
+    public static final long NEW_ACCOUNT_GAS = 25000;
+    // Per byte of code deposited by a creation
+    public static final long CODE_DEPOSIT_GAS = 200;
+    // Per word of init code, since Shanghai (EIP-3860)
+    public static final long INITCODE_WORD_GAS = 2;
+    // Addresses of the precompiled contracts, warm from the start of every transaction
+    public static final int PRECOMPILE_COUNT = 10;
+
+    private static final int WORD_SIZE_IN_BYTE = 32;
+    private static final GasSchedule[] VALUES = values();
+
+    private final int[] staticCosts = new int[Instruction.MAX_OPCODE + 1];
+
+    static {
+        for (GasSchedule schedule : VALUES) {
+            schedule.setCommonCosts();
+            if (schedule.isAtLeast(BERLIN)) {
+                // EIP-2929: the warm cost is static, the cold surcharge depends on the access sets
+                for (int op : new int[] {0x31, 0x3B, 0x3C, 0x3F, 0x54, 0xF1, 0xF2, 0xF4, 0xFA}) {
+                    schedule.set(op, 100);
+                }
+            } else {
+                // EIP-1884
+                for (int op : new int[] {0x31, 0x3B, 0x3C, 0x3F, 0xF1, 0xF2, 0xF4, 0xFA}) {
+                    schedule.set(op, 700);
+                }
+                schedule.set(0x54, 800);
+            }
+        }
+    }
+
+    private void setCommonCosts() {
+        set(0x01, 3);   // ADD
+        set(0x02, 5);   // MUL
+        set(0x03, 3);   // SUB
+        set(0x04, 5);   // DIV
+        set(0x05, 5);   // SDIV
+        set(0x06, 5);   // MOD
+        set(0x07, 5);   // SMOD
+        set(0x08, 8);   // ADDMOD
+        set(0x09, 8);   // MULMOD
+        set(0x0A, 10);  // EXP
+        set(0x0B, 5);   // SIGNEXTEND
+        for (int op = 0x10; op <= 0x1D; op++) {
+            set(op, 3); // comparison and bitwise
+        }
+        set(0x20, 30);  // KECCAK256
+        set(0x30, 2);   // ADDRESS
+        set(0x32, 2);   // ORIGIN
+        set(0x33, 2);   // CALLER
+        set(0x34, 2);   // CALLVALUE
+        set(0x35, 3);   // CALLDATALOAD
+        set(0x36, 2);   // CALLDATASIZE
+        set(0x37, 3);   // CALLDATACOPY
+        set(0x38, 2);   // CODESIZE
+        set(0x39, 3);   // CODECOPY
+        set(0x3A, 2);   // GASPRICE
+        set(0x3D, 2);   // RETURNDATASIZE
+        set(0x3E, 3);   // RETURNDATACOPY
+        set(0x40, 20);  // BLOCKHASH
+        for (int op = 0x41; op <= 0x46; op++) {
+            set(op, 2); // COINBASE to CHAINID
+        }
+        set(0x47, 5);   // SELFBALANCE
+        set(0x50, 2);   // POP
+        set(0x51, 3);   // MLOAD
+        set(0x52, 3);   // MSTORE
+        set(0x53, 3);   // MSTORE8
+        set(0x56, 8);   // JUMP
+        set(0x57, 10);  // JUMPI
+        set(0x58, 2);   // PC
+        set(0x59, 2);   // MSIZE
+        set(0x5A, 2);   // GAS
+        set(0x5B, 1);   // JUMPDEST
+        set(0x5C, 100); // TLOAD
+        set(0x5D, 100); // TSTORE
+        set(0x5E, 3);   // MCOPY
+        set(0x5F, 2);   // PUSH0
+        for (int op = 0x60; op <= 0x9F; op++) {
+            set(op, 3); // PUSH1 to SWAP16
+        }
+        for (int op = 0xA0; op <= 0xA4; op++) {
+            set(op, 375 * (op - 0xA0 + 1)); // LOG0 to LOG4, 375 per topic plus the base cost
+        }
+        set(0xF0, 32000); // CREATE
+        set(0xF5, 32000); // CREATE2
+        set(0xFF, 5000);  // SELFDESTRUCT
+    }
+
+    public int staticCost(final int opcode) {
+        return staticCosts[opcode];
+    }
+
+    public boolean isAtLeast(final GasSchedule fork) {
+        return compareTo(fork) >= 0;
+    }
+
+    /**
+     * Returns the EIP-2200 cost of an SSTORE, not including the cold access charge.
+     * Refunds are not tracked.
+     * @param original value of the slot at the start of the transaction
+     * @param current value of the slot before this SSTORE
+     * @param value value written
+     * @return
+     */
+    public long sstoreCost(final UInt256 original, final UInt256 current, final UInt256 value) {
+        if (current.equals(value) || !original.equals(current)) {
+            // No-op or slot already dirty: priced as a warm read
+            return staticCost(0x54);
+        }
+        if (original.isZero()) {
+            return SSTORE_SET_GAS;
+        }
+        return isAtLeast(BERLIN) ? 5000 - COLD_SLOAD_GAS : 5000;
+    }
+
+    /**
+     * Returns what a cold SLOAD costs on top of the warm cost in the static table (EIP-2929).
+     * @return
+     */
+    public long coldSloadSurcharge() {
+        return isAtLeast(BERLIN) ? COLD_SLOAD_GAS - staticCost(0x54) : 0;
+    }
+
+    /**
+     * Returns what a cold account access costs on top of the warm cost in the static table (EIP-2929).
+     * @return
+     */
+    public long coldAccountSurcharge() {
+        return isAtLeast(BERLIN) ? COLD_ACCOUNT_ACCESS_GAS - staticCost(0x31) : 0;
+    }
+
+    static GasSchedule[] all() {
+        return VALUES;
+    }
+
+    /**
+     * Returns the total cost of a memory of the given number of words: linear plus quadratic part.
+     * @param words
+     * @return
+     */
+    public static long memoryCost(final long words) {
+        return words * MEMORY_WORD_GAS + words * words / QUADRATIC_MEMORY_DIVISOR;
+    }
+
+    public static long wordCount(final long size) {
+        return (size + WORD_SIZE_IN_BYTE - 1) / WORD_SIZE_IN_BYTE;
+    }
+
+    public static long copyCost(final int size) {
+        return wordCount(size) * COPY_WORD_GAS;
+    }
+
+    public static long keccakCost(final int size) {
+        return wordCount(size) * KECCAK_WORD_GAS;
+    }
+
+    public static long initCodeCost(final int size) {
+        return wordCount(size) * INITCODE_WORD_GAS;
+    }
+
+    public static long expCost(final UInt256 exponent) {
+        return exponent.byteLength() * EXP_BYTE_GAS;
+    }
+
+    public static long logDataCost(final int size) {
+        return size * LOG_DATA_GAS;
+    }
+
+    private void set(final int opcode, final int cost) {
+        staticCosts[opcode] = cost;
+    }
+
+}
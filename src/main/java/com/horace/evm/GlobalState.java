@@ -2,69 +2,274 @@ package com.horace.evm;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.mapdb.DataInput2;
 import org.mapdb.DataOutput2;
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
 import org.mapdb.Serializer;
 
-public class GlobalState {
+/**
+ * Persistent world state on a {@link StateBackend}. Each instance is independent, so one JVM can host
+ * many isolated states, and is passed explicitly to whatever executes against it.
+ * <p>
+ * Reads are safe from any thread. Writes are serialized by a single writer lock, held across a whole
+ * {@link #atomically(Runnable)} batch such as a transaction commit. Readers that must not observe the
+ * writer at all, e.g. calls running next to block execution, read from a {@link #snapshot()}.
+ * <p>
+ * Account changes are cached until {@link #flush()}, which the {@link BlockExecutor} calls after every
+ * block. Closing the state flushes it and closes its backend.
+ * <p>
+ * The {@link StateTrie} behind {@link #computeStateRoot()} is only kept when asked for, since it holds
+ * every account and slot in memory and records every write until the next root.
+ */
+public class GlobalState implements WorldState, AutoCloseable {
 
+    private final StateBackend backend;
+    private final HTreeMap<byte[], Account> accountMap;
+    private final AccountCache accountCache;
+    private final CodeStore codeStore;
+    // Null when no state root is kept
+    private final StateTrie stateTrie;
+    private final Storage storage;
+    private final ReentrantLock writer = new ReentrantLock();
+    // Open snapshots, which the writer saves old values into
+    private final CopyOnWriteArrayList<StateSnapshot> snapshots = new CopyOnWriteArrayList<>();
+    private volatile long version;
 
-    private static GlobalState instance;
-
-    private final DB db = DBMaker.memoryDB().make();
-    private final HTreeMap<byte[], Account> accountMap = db.hashMap("accountMap")
-        .keySerializer(Serializer.BYTE_ARRAY)
-        .valueSerializer(new AccountSerializer())
-        .createOrOpen();
-
-    private GlobalState() {
+    public GlobalState(final StateBackend backend) {
+        this(backend, false);
     }
 
-    public static GlobalState getInstance() {
-        if (instance == null) {
-            instance = new GlobalState();
+    /**
+     * @param backend
+     * @param stateRoot whether to keep the state trie for {@link #computeStateRoot()}, built from what the
+     * backend already holds when it is reopened
+     */
+    public GlobalState(final StateBackend backend, final boolean stateRoot) {
+        this.backend = backend;
+        this.accountMap = backend.getDB().hashMap("accountMap")
+            .keySerializer(Serializer.BYTE_ARRAY)
+            .valueSerializer(new AccountSerializer())
+            .createOrOpen();
+        this.accountCache = new AccountCache(AccountCache.DEFAULT_CAPACITY, accountMap);
+        this.codeStore = new CodeStore(backend.getDB());
+        this.stateTrie = stateRoot ? new StateTrie(this::getAccount, ForkJoinPool.commonPool()) : null;
+        this.storage = new Storage(backend, stateTrie);
+        if (stateTrie != null) {
+            for (byte[] address : accountMap.keySet()) {
+                stateTrie.touchAccount(address);
+            }
+            storage.replay(stateTrie);
         }
-        return instance;
     }
 
-    public static DB getDB() {
-        return getInstance().db;
+    public StateBackend getBackend() {
+        return backend;
+    }
+
+    public Storage getStorage() {
+        return storage;
     }
 
+    @Override
     public Account getAccount(final byte[] address) {
-        return accountMap.getOrDefault(address, Account.NULL_ACCOUNT);
+        return accountCache.get(address);
     }
 
+    @Override
     public void putAccount(final byte[] address, final Account account) {
-        accountMap.put(address, account);
+        writer.lock();
+        try {
+            saveAccount(address);
+            accountCache.put(address, account);
+            if (stateTrie != null) {
+                stateTrie.touchAccount(address);
+            }
+        } finally {
+            writer.unlock();
+        }
     }
 
+    @Override
     public void removeAccount(final byte[] address) {
-        accountMap.remove(address);
+        writer.lock();
+        try {
+            saveAccount(address);
+            accountCache.remove(address);
+            if (stateTrie != null) {
+                stateTrie.touchAccount(address);
+            }
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    @Override
+    public UInt256 load(final byte[] address, final UInt256 slot, final UInt256 into) {
+        return storage.load(address, slot, into);
+    }
+
+    @Override
+    public void store(final byte[] address, final UInt256 slot, final UInt256 value) {
+        writer.lock();
+        try {
+            if (!snapshots.isEmpty()) {
+                final SlotKey key = new SlotKey(address, slot);
+                final UInt256 old = storage.load(address, slot, new UInt256());
+                for (StateSnapshot snapshot : snapshots) {
+                    snapshot.saveSlot(key, old);
+                }
+            }
+            storage.store(address, slot, value);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    @Override
+    public byte[] getCode(final Hash codeHash) {
+        return codeStore.get(codeHash);
+    }
+
+    @Override
+    public void putCode(final Hash codeHash, final byte[] code) {
+        codeStore.put(codeHash, code);
+    }
+
+    /**
+     * Runs the writes as one batch under the writer lock, so no snapshot is taken half way through them.
+     * @param writes
+     */
+    @Override
+    public void atomically(final Runnable writes) {
+        writer.lock();
+        try {
+            writes.run();
+            version++;
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Pins the state as it is now, between two write batches. The snapshot must be closed when done,
+     * otherwise the writer keeps saving old values for it.
+     * @return
+     */
+    public StateSnapshot snapshot() {
+        writer.lock();
+        try {
+            final StateSnapshot snapshot = new StateSnapshot(this, version);
+            snapshots.add(snapshot);
+            return snapshot;
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of write batches so far.
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Writes the accounts changed since the last flush to the database and commits the backend,
+     * at the end of a block.
+     */
+    @Override
+    public void flush() {
+        writer.lock();
+        try {
+            accountCache.flush();
+            backend.commit();
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Flushes the cached accounts, then closes the backend.
+     */
+    @Override
+    public void close() {
+        flush();
+        backend.close();
+    }
+
+    /**
+     * Returns the state root after the changes made so far, see {@link StateTrie}.
+     * Only a state created to keep the root has one.
+     * @return
+     */
+    public Hash computeStateRoot() {
+        if (stateTrie == null) {
+            throw new IllegalStateException("No state root is kept");
+        }
+        writer.lock();
+        try {
+            return stateTrie.computeRoot();
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Null when no state root is kept
+    public StateTrie getStateTrie() {
+        return stateTrie;
+    }
+
+    public AccountCache getAccountCache() {
+        return accountCache;
+    }
+
+    public CodeStore getCodeStore() {
+        return codeStore;
+    }
+
+    void release(final StateSnapshot snapshot) {
+        snapshots.remove(snapshot);
+    }
+
+    // Called by the writer before an account changes, for every open snapshot
+    private void saveAccount(final byte[] address) {
+        if (!snapshots.isEmpty()) {
+            final Address key = new Address(address);
+            final Account old = accountCache.get(address);
+            for (StateSnapshot snapshot : snapshots) {
+                snapshot.saveAccount(key, old);
+            }
+        }
     }
 
+    // Balance, code hash, code size and nonce; the code itself is in the CodeStore
     private class AccountSerializer implements Serializer<Account> {
 
         @Override
         public void serialize(final DataOutput2 out, final Account value) throws IOException {
             final byte[] balance = value.getBalance().toByteArray();
             out.writeInt(balance.length);
-            out.write(balance);            
-            out.writeInt(value.getCode().length);
-            out.write(value.getCode());
+            out.write(balance);
+            out.write(value.getCodeHash().getBytes());
+            out.writeInt(value.getCodeSize());
+            out.writeLong(value.getNonce());
         }
 
         @Override
         public Account deserialize(DataInput2 in, int available) throws IOException {
             byte[] balance = new byte[in.readInt()];
             in.readFully(balance);
-            byte[] code = new byte[in.readInt()];
-            in.readFully(code);
-            return new Account(new BigInteger(balance), code);
+            byte[] codeHash = new byte[Hash.HASH_LENGTH];
+            in.readFully(codeHash);
+            final int codeSize = in.readInt();
+            // Accounts stored before nonces were tracked end here
+            final long nonce = available > 4 + balance.length + Hash.HASH_LENGTH + 4 ? in.readLong() : 0;
+            return new Account(new BigInteger(balance), new Hash(codeHash), codeSize, nonce);
         }
     }
 
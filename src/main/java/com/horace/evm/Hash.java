@@ -0,0 +1,49 @@
+package com.horace.evm;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * A 32-byte keccak hash with value equality, for use as a map key.
+ */
+public final class Hash {
+
+    public static final int HASH_LENGTH = 32;
+
+    private final byte[] bytes;
+    private final int hashCode;
+
+    public Hash(final byte[] bytes) {
+        if (bytes.length != HASH_LENGTH) {
+            throw new IllegalArgumentException("Invalid hash length: " + bytes.length);
+        }
+        this.bytes = bytes;
+        this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    public static Hash keccak256(final byte[] data) {
+        return new Hash(KeccakHasher.hash(data));
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        return Arrays.equals(bytes, ((Hash) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+}
@@ -1,11 +1,9 @@
 package com.horace.evm;
 
 import java.math.BigInteger;
-import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.lang3.ArrayUtils;
-import org.bouncycastle.jcajce.provider.digest.Keccak;
-import org.bouncycastle.util.BigIntegers;
 
 import lombok.Getter;
 
@@ -13,6 +11,7 @@ public abstract class Instruction {
 
     @Getter
     private final int opcode;
+    @Getter
     private final String name;
 
     public static final int MAX_OPCODE = 0xFF;
@@ -20,10 +19,6 @@ public abstract class Instruction {
 
     public static final Instruction[] INSTRUCTIONS = new Instruction[MAX_OPCODE + 1];
 
-    private static final byte[] TRUE = { 0x01 };
-    private static final byte[] FALSE = { 0x00 };
-    private static final byte[] ZERO_BYTE = { 0x00 };
-
     public Instruction(final int opcode, final String name) {
         this.opcode = opcode;
         this.name = name;
@@ -45,6 +40,7 @@ public abstract class Instruction {
         if (instruction == null) {
             throw new IllegalArgumentException("Unknown opcode: " + opcode);
         }
+        context.useGas(context.getSchedule().staticCost(opcode));
         return instruction;
     }
 
@@ -52,15 +48,32 @@ public abstract class Instruction {
         return String.format("Instruction{opcode=%02X, name='%s'}", opcode, name);
     }
 
-    private static void doJump(final BigInteger offset, final ExecutionContext context) {
-        if (offset.intValue() < 0 || offset.intValue() >= context.getCode().length) {
+    private static void doJump(final UInt256 offset, final ExecutionContext context) {
+        final int target = offset.clampedInt();
+        if (target >= context.getCode().length) {
             throw new IndexOutOfBoundsException("Jump target out of bounds");
         }
-        if (!context.getJumpDestinations().contains(offset.intValue())) {
+        if (!context.isJumpDestination(target)) {
             throw new IllegalArgumentException("Invalid jump destination: " + offset);
         }
-        context.setProgramCounter(offset.intValue());
+        context.setProgramCounter(target);
+
+    }
 
+    /**
+     * Pushes the n bytes of immediate data following the opcode. Data cut off by the end of the code
+     * is read as zero bytes, as the yellow paper specifies.
+     */
+    private static void doPush(final ExecutionContext context, final int n) {
+        final byte[] code = context.getCode();
+        final int pc = context.getProgramCounter();
+        final int available = Math.max(0, Math.min(n, code.length - pc));
+        final Stack stack = context.getStack();
+        stack.push(code, pc, available);
+        if (available < n) {
+            stack.push(stack.pop(context.a).shl((n - available) * 8));
+        }
+        context.setProgramCounter(pc + n);
     }
 
     public static final Instruction STOP = new Instruction(0x00, "STOP") {
@@ -73,233 +86,254 @@ public abstract class Instruction {
     public static final Instruction ADD = new Instruction(0x01, "ADD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            context.getStack().push(Helper.mod256(a.add(b)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.add(b));
         }
     };
 
     public static final Instruction MUL = new Instruction(0x02, "MUL") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            context.getStack().push(Helper.mod256(a.multiply(b)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.mul(b));
         }
     };
     public static final Instruction SUB = new Instruction(0x03, "SUB") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            context.getStack().push(Helper.mod256(a.subtract(b)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.sub(b));
         }
     };
     public static final Instruction DIV = new Instruction(0x04, "DIV") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            context.getStack().push(b.equals(BigInteger.ZERO) ? BigInteger.ZERO : Helper.mod256(a.divide(b)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.div(b));
         }
     };
     public static final Instruction SDIV = new Instruction(0x05, "SDIV") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = Helper.toSigned256Int(context.getStack().pop());
-            final BigInteger b = Helper.toSigned256Int(context.getStack().pop());
-            final BigInteger div = b.equals(BigInteger.ZERO) ? BigInteger.ZERO : a.divide(b);
-            context.getStack().push(Helper.toUnsigned256Int(div));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.sdiv(b));
         }
     };
     public static final Instruction MOD = new Instruction(0x06, "MOD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            context.getStack().push(b.equals(BigInteger.ZERO) ? BigInteger.ZERO : Helper.mod256(a.mod(b)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.mod(b));
         }
     };
     public static final Instruction SMOD = new Instruction(0x07, "SMOD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = Helper.toSigned256Int(context.getStack().pop());
-            final BigInteger b = Helper.toSigned256Int(context.getStack().pop());
-            final BigInteger mod = b.equals(BigInteger.ZERO) ? BigInteger.ZERO : a.mod(b);
-            context.getStack().push(Helper.toUnsigned256Int(mod));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.smod(b));
         }
     };
     public static final Instruction ADDMOD = new Instruction(0x08, "ADDMOD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            final BigInteger c = new BigInteger(context.getStack().pop());
-            context.getStack().push(c.equals(BigInteger.ZERO) ? BigInteger.ZERO : Helper.mod256(a.add(b).mod(c)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            final UInt256 c = stack.pop(context.c);
+            stack.push(a.addMod(b, c));
         }
     };
     public static final Instruction MULMOD = new Instruction(0x09, "MULMOD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            final BigInteger c = new BigInteger(context.getStack().pop());
-            context.getStack().push(c.equals(BigInteger.ZERO) ? BigInteger.ZERO : Helper.mod256(a.multiply(b).mod(c)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            final UInt256 c = stack.pop(context.c);
+            stack.push(a.mulMod(b, c));
         }
     };
     public static final Instruction EXP = new Instruction(0x0a, "EXP") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            context.getStack().push(Helper.mod256(a.pow(b.intValue())));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            context.useGas(GasSchedule.expCost(b));
+            stack.push(a.exp(b));
         }
     };
     public static final Instruction SIGNEXTEND = new Instruction(0x0b, "SIGNEXTEND") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            final BigInteger x = new BigInteger(context.getStack().pop());
-            final byte[] bytes = Helper.signExtend(x, b.intValue());
-            context.getStack().push(bytes);
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(b.signExtend(a));
         }
     };
     public static final Instruction LT = new Instruction(0x10, "LT") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            context.getStack().push(a.compareTo(b) < 0 ? TRUE : FALSE);
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.set(a.compareTo(b) < 0));
         }
     };
     public static final Instruction GT = new Instruction(0x11, "GT") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            final BigInteger b = new BigInteger(context.getStack().pop());
-            context.getStack().push(a.compareTo(b) > 0 ? TRUE : FALSE);
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.set(a.compareTo(b) > 0));
         }
     };
     public static final Instruction SLT = new Instruction(0x12, "SLT") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = Helper.toSigned256Int(context.getStack().pop());
-            final BigInteger b = Helper.toSigned256Int(context.getStack().pop());
-            context.getStack().push(a.compareTo(b) < 0 ? TRUE : FALSE);
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.set(a.signedCompareTo(b) < 0));
         }
     };
     public static final Instruction SGT = new Instruction(0x13, "SGT") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = Helper.toSigned256Int(context.getStack().pop());
-            final BigInteger b = Helper.toSigned256Int(context.getStack().pop());
-            context.getStack().push(a.compareTo(b) > 0 ? TRUE : FALSE);
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.set(a.signedCompareTo(b) > 0));
         }
     };
     public static final Instruction EQ = new Instruction(0x14, "EQ") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] a = context.getStack().pop();
-            final byte[] b = context.getStack().pop();
-            context.getStack().push(Arrays.equals(a, b) ? TRUE : FALSE);
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.set(a.equals(b)));
         }
     };
     public static final Instruction ISZERO = new Instruction(0x15, "ISZERO") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = new BigInteger(context.getStack().pop());
-            context.getStack().push(a.equals(BigInteger.ZERO) ? TRUE : FALSE);
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            stack.push(a.set(a.isZero()));
         }
     };
     public static final Instruction AND = new Instruction(0x16, "AND") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = BigIntegers.fromUnsignedByteArray(context.getStack().pop());
-            final BigInteger b = BigIntegers.fromUnsignedByteArray(context.getStack().pop());
-            context.getStack().push(Helper.mod256(a.and(b)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.and(b));
         }
     };
     public static final Instruction OR = new Instruction(0x17, "OR") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = BigIntegers.fromUnsignedByteArray(context.getStack().pop());
-            final BigInteger b = BigIntegers.fromUnsignedByteArray(context.getStack().pop());
-            context.getStack().push(Helper.mod256(a.or(b)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.or(b));
         }
     };
     public static final Instruction XOR = new Instruction(0x18, "XOR") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = BigIntegers.fromUnsignedByteArray(context.getStack().pop());
-            final BigInteger b = BigIntegers.fromUnsignedByteArray(context.getStack().pop());
-            context.getStack().push(Helper.mod256(a.xor(b)));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(a.xor(b));
         }
     };
     public static final Instruction NOT = new Instruction(0x19, "NOT") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger a = BigIntegers.fromUnsignedByteArray(context.getStack().pop());
-            context.getStack().push(Helper.mod256(a.not()));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            stack.push(a.not());
         }
     };
     public static final Instruction BYTE = new Instruction(0x1A, "BYTE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger index = new BigInteger(context.getStack().pop());
-            final byte[] value = context.getStack().pop();
-            if (index.intValue() < 0 || index.intValue() >= value.length) {
-                context.getStack().push(ZERO_BYTE);
-            }
-            context.getStack().push(new byte[] {value[index.intValue()]});
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(b.byteAt(a));
         }
     };
     public static final Instruction SHL = new Instruction(0x1B, "SHL") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger shift = new BigInteger(context.getStack().pop());
-            final BigInteger value = new BigInteger(context.getStack().pop());
-            context.getStack().push(Helper.mod256(value.shiftLeft(shift.intValue())));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(b.shl(a));
         }
     };
     public static final Instruction SHR = new Instruction(0x1C, "SHR") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger shift = new BigInteger(context.getStack().pop());
-            final BigInteger value = new BigInteger(context.getStack().pop());
-            context.getStack().push(Helper.mod256(value.shiftRight(shift.intValue())));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(b.shr(a));
         }
     };
     public static final Instruction SAR = new Instruction(0x1D, "SAR") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger shift = new BigInteger(context.getStack().pop());
-            final BigInteger value = Helper.toSigned256Int(context.getStack().pop());
-            context.getStack().push(Helper.mod256(value.shiftRight(shift.intValue())));
+            final Stack stack = context.getStack();
+            final UInt256 a = stack.pop(context.a);
+            final UInt256 b = stack.pop(context.b);
+            stack.push(b.sar(a));
         }
     };
     public static final Instruction KECCAK256 = new Instruction(0x20, "KECCAK256") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            final byte[] data = context.getMemory().load(offset.intValue(), size.intValue());
-            final Keccak.Digest256 digest256 = new Keccak.Digest256();
-            final byte[] hash = digest256.digest(data);
-            context.getStack().push(hash);
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            final int size = stack.pop(context.b).clampedInt();
+            context.expandMemory(offset, size);
+            context.useGas(GasSchedule.keccakCost(size));
+            stack.push(context.getMemory().keccak(offset, size, context.c));
         }
     };
     public static final Instruction ADDRESS = new Instruction(0x30, "ADDRESS") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getTxData().getTo());
+            context.getStack().push(context.getAddress());
         }
     };
     public static final Instruction BALANCE = new Instruction(0x31, "BALANCE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] address = context.getStack().pop();
-            final BigInteger balance = GlobalState.getInstance().getAccount(address).getBalance();
-            context.getStack().push(BigIntegers.asUnsignedByteArray(balance));
+            final byte[] address = context.getStack().popAddress();
+            context.accessAccount(address);
+            final BigInteger balance = context.getState().getAccount(address).getBalance();
+            context.getStack().push(balance);
         }
     };
     public static final Instruction ORIGIN = new Instruction(0x32, "ORIGIN") {
@@ -311,53 +345,59 @@ public abstract class Instruction {
     public static final Instruction CALLER = new Instruction(0x33, "CALLER") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getTxData().getFrom());
+            context.getStack().push(context.getCaller());
         }
     };
     public static final Instruction CALLVALUE = new Instruction(0x34, "CALLVALUE") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getTxData().getValue());
+            context.getStack().push(context.getCallValue());
         }
     };
     public static final Instruction CALLDATALOAD = new Instruction(0x35, "CALLDATALOAD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            byte[] calldataWord = new byte[32];
-            System.arraycopy(context.getTxData().getData(), offset.intValue(), calldataWord, 0, 32);
+            final int offset = context.getStack().pop(context.a).clampedInt();
+            // Zero padded past the end of the calldata
+            final byte[] calldataWord = new byte[32];
+            context.getInput().copyTo(offset, calldataWord, 0, 32);
             context.getStack().push(calldataWord);
         }
     };
     public static final Instruction CALLDATASIZE = new Instruction(0x36, "CALLDATASIZE") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(BigIntegers.asUnsignedByteArray(
-                BigInteger.valueOf(context.getTxData().getData().length)));
+            context.getStack().push(context.getInput().length());
         }
     };
     public static final Instruction CALLDATACOPY = new Instruction(0x37, "CALLDATACOPY") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger destOffset = new BigInteger(context.getStack().pop());
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());        
-            context.getMemory().store(destOffset.intValue(), Arrays.copyOfRange(context.getTxData().getData(), offset.intValue(), size.intValue()));
+            final Stack stack = context.getStack();
+            final int destOffset = stack.pop(context.a).clampedInt();
+            final int offset = stack.pop(context.b).clampedInt();
+            final int size = stack.pop(context.c).clampedInt();
+            context.expandMemory(destOffset, size);
+            context.useGas(GasSchedule.copyCost(size));
+            context.getMemory().copyFrom(destOffset, context.getInput(), offset, size);
         }
     };
     public static final Instruction CODESIZE = new Instruction(0x38, "CODESIZE") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(Helper.intToByteArray(context.getCode().length));
+            context.getStack().push(context.getCode().length);
         }
     };
     public static final Instruction CODECOPY = new Instruction(0x39, "CODECOPY") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger destOffset = new BigInteger(context.getStack().pop());
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            context.getMemory().store(destOffset.intValue(), Arrays.copyOfRange(context.getCode(), offset.intValue(), size.intValue()));
+            final Stack stack = context.getStack();
+            final int destOffset = stack.pop(context.a).clampedInt();
+            final int offset = stack.pop(context.b).clampedInt();
+            final int size = stack.pop(context.c).clampedInt();
+            context.expandMemory(destOffset, size);
+            context.useGas(GasSchedule.copyCost(size));
+            context.getMemory().copyFrom(destOffset, context.getCode(), offset, size);
         }
     };
     public static final Instruction GASPRICE = new Instruction(0x3A, "GASPRICE") {
@@ -369,57 +409,69 @@ public abstract class Instruction {
     public static final Instruction EXTCODESIZE = new Instruction(0x3B, "EXTCODESIZE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] address = context.getStack().pop();
-            final int size = GlobalState.getInstance().getAccount(address).getCode().length;
-            context.getStack().push(Helper.intToByteArray(size));
+            final byte[] address = context.getStack().popAddress();
+            context.accessAccount(address);
+            final int size = context.getState().getAccount(address).getCodeSize();
+            context.getStack().push(size);
         }
     };
     public static final Instruction EXTCODECOPY = new Instruction(0x3C, "EXTCODECOPY") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] address = context.getStack().pop();
-            final BigInteger destOffset = new BigInteger(context.getStack().pop());
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            final byte[] code = GlobalState.getInstance().getAccount(address).getCode();
-            context.getMemory().store(destOffset.intValue(), Arrays.copyOfRange(code, offset.intValue(), size.intValue()));
+            final Stack stack = context.getStack();
+            final byte[] address = stack.popAddress();
+            context.accessAccount(address);
+            final int destOffset = stack.pop(context.a).clampedInt();
+            final int offset = stack.pop(context.b).clampedInt();
+            final int size = stack.pop(context.c).clampedInt();
+            context.expandMemory(destOffset, size);
+            context.useGas(GasSchedule.copyCost(size));
+            final byte[] code = context.getState().getCode(address);
+            context.getMemory().copyFrom(destOffset, code, offset, size);
         }
     };
     public static final Instruction RETURNDATASIZE = new Instruction(0x3D, "RETURNDATASIZE") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(Helper.intToByteArray(context.getReturnData().length));
+            context.getStack().push(context.getReturnData().length());
         }
     };
     public static final Instruction RETURNDATACOPY = new Instruction(0x3E, "RETURNDATACOPY") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger destOffset = new BigInteger(context.getStack().pop());
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            context.getMemory().store(destOffset.intValue(), Arrays.copyOfRange(context.getReturnData(), offset.intValue(), size.intValue()));
+            final Stack stack = context.getStack();
+            final int destOffset = stack.pop(context.a).clampedInt();
+            final int offset = stack.pop(context.b).clampedInt();
+            final int size = stack.pop(context.c).clampedInt();
+            final ByteSlice returnData = context.getReturnData();
+            // Unlike the other copies, reading past the end of the return data is an error
+            if ((long) offset + size > returnData.length()) {
+                throw new IndexOutOfBoundsException("Return data out of bounds");
+            }
+            context.expandMemory(destOffset, size);
+            context.useGas(GasSchedule.copyCost(size));
+            context.getMemory().copyFrom(destOffset, returnData, offset, size);
         }
     };
     public static final Instruction EXTCODEHASH = new Instruction(0x3F, "EXTCODEHASH") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] address = context.getStack().pop();
-            final Account account = GlobalState.getInstance().getAccount(address);
+            final byte[] address = context.getStack().popAddress();
+            context.accessAccount(address);
+            final Account account = context.getState().getAccount(address);
             if (account == Account.NULL_ACCOUNT) {
-                context.getStack().push(ZERO_BYTE);
+                context.getStack().push(0L);
             } else {
-                final byte[] code = account.getCode();
-                final Keccak.Digest256 digest256 = new Keccak.Digest256();
-                final byte[] codeHash = digest256.digest(code);
-                context.getStack().push(codeHash);
+                context.getStack().push(account.getCodeHash().getBytes());
             }
         }
     };
     public static final Instruction BLOCKHASH = new Instruction(0x40, "BLOCKHASH") {
         @Override
         public void execute(final ExecutionContext context) {
-            // Not implemented
-            final BigInteger blockNumber = new BigInteger(context.getStack().pop());
+            // Not implemented, no block hashes are available so every lookup is out of range
+            context.getStack().drop();
+            context.getStack().push(0L);
         }
     };
     public static final Instruction COINBASE = new Instruction(0x41, "COINBASE") {
@@ -431,13 +483,13 @@ public abstract class Instruction {
     public static final Instruction TIMESTAMP = new Instruction(0x42, "TIMESTAMP") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(BigIntegers.asUnsignedByteArray(context.getBlock().getTimestamp()));
+            context.getStack().push(context.getBlock().getTimestamp());
         }
     };
     public static final Instruction NUMBER = new Instruction(0x43, "NUMBER") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(BigIntegers.asUnsignedByteArray(context.getBlock().getNumber()));
+            context.getStack().push(context.getBlock().getNumber());
         }
     };
     public static final Instruction PREVRANDAO = new Instruction(0x44, "PREVRANDAO") {
@@ -450,81 +502,102 @@ public abstract class Instruction {
     public static final Instruction GASLIMIT = new Instruction(0x45, "GASLIMIT") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(BigIntegers.asUnsignedByteArray(context.getBlock().getGasLimit()));
+            context.getStack().push(context.getBlock().getGasLimit());
         }
     };
     public static final Instruction CHAINID = new Instruction(0x46, "CHAINID") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(BigIntegers.asUnsignedByteArray(context.getChainId()));
+            context.getStack().push(context.getChainId());
         }
     };
     public static final Instruction SELFBALANCE = new Instruction(0x47, "SELFBALANCE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger balance = context.getContract().getBalance();
-            context.getStack().push(BigIntegers.asUnsignedByteArray(balance));
+            final BigInteger balance = context.getState().getAccount(context.getAddress()).getBalance();
+            context.getStack().push(balance);
         }
     };
 
     public static final Instruction POP = new Instruction(0x50, "POP") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().pop();
+            context.getStack().drop();
         }
     };
     public static final Instruction MLOAD = new Instruction(0x51, "MLOAD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final byte[] value = context.getMemory().load(offset.intValue(), 32);
-            context.getStack().push(value);
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            context.expandMemory(offset, 32);
+            stack.push(context.getMemory().loadWord(offset, context.a));
         }
     };
     public static final Instruction MSTORE = new Instruction(0x52, "MSTORE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final byte[] value = context.getStack().pop();
-            context.getMemory().store(offset.intValue(), value);
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            context.expandMemory(offset, 32);
+            context.getMemory().storeWord(offset, stack.pop(context.b));
         }
     };
     public static final Instruction MSTORE8 = new Instruction(0x53, "MSTORE8") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger value = new BigInteger(context.getStack().pop());
-            context.getMemory().store(offset.intValue(), value.toByteArray());
+            final int offset = context.getStack().pop(context.a).clampedInt();
+            final UInt256 value = context.getStack().pop(context.b);
+            context.expandMemory(offset, 1);
+            context.getMemory().storeByte(offset, (byte) value.longValue());
         }
     };
     public static final Instruction SLOAD = new Instruction(0x54, "SLOAD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] key = context.getStack().pop();
-            context.getStack().push(context.getStorage().get(context.getTxData().getTo(), key));
+            final Stack stack = context.getStack();
+            final byte[] address = context.getAddress();
+            final UInt256 key = stack.pop(context.a);
+            context.accessSlot(address, key);
+            stack.push(context.getState().load(address, key, context.b));
         }
     };
     public static final Instruction SSTORE = new Instruction(0x55, "SSTORE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] key = context.getStack().pop();
-            final byte[] value = context.getStack().pop();
-            context.getStorage().put(context.getTxData().getTo(), key, value);
+            context.checkWritable();
+            if (context.getGasLeft() <= GasSchedule.SSTORE_SENTRY_GAS) {
+                throw new OutOfGasException();
+            }
+            final Stack stack = context.getStack();
+            final byte[] address = context.getAddress();
+            final UInt256 key = stack.pop(context.a);
+            final UInt256 value = stack.pop(context.b);
+            final JournaledState state = context.getState();
+            final GasSchedule schedule = context.getSchedule();
+            // No warm cost in the static table either, a cold slot pays the full cold SLOAD cost
+            if (state.warmSlot(address, key) && schedule.isAtLeast(GasSchedule.BERLIN)) {
+                context.useGas(GasSchedule.COLD_SLOAD_GAS);
+            }
+            final UInt256 original = state.loadOriginal(address, key, new UInt256());
+            final UInt256 current = state.load(address, key, context.c);
+            context.useGas(schedule.sstoreCost(original, current, value));
+            state.store(address, key, value);
         }
     };
     public static final Instruction JUMP = new Instruction(0x56, "JUMP") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
+            final UInt256 offset = context.getStack().pop(context.a);
             doJump(offset, context);
         }
     };
     public static final Instruction JUMPI = new Instruction(0x57, "JUMPI") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger condition = new BigInteger(context.getStack().pop());
-            if (condition.equals(BigInteger.ZERO)) {
+            final UInt256 offset = context.getStack().pop(context.a);
+            final UInt256 condition = context.getStack().pop(context.b);
+            if (condition.isZero()) {
                 return;
             }
             doJump(offset, context);
@@ -533,19 +606,19 @@ public abstract class Instruction {
     public static final Instruction PC = new Instruction(0x58, "PC") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(Helper.intToByteArray(context.getProgramCounter()));
+            context.getStack().push(context.getProgramCounter() - 1);
         }
     };
     public static final Instruction MSIZE = new Instruction(0x59, "MSIZE") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(Helper.intToByteArray(context.getMemory().size()));
+            context.getStack().push(context.getMemory().size());
         }
     };
     public static final Instruction GAS = new Instruction(0x5A, "GAS") {
         @Override
         public void execute(final ExecutionContext context) {
-            //context.getStack().push(Helper.intToByteArray(context.getGas()));
+            context.getStack().push(context.getGasLeft());
         }
     };
     public static final Instruction JUMPDEST = new Instruction(0x5B, "JUMPDEST") {
@@ -557,358 +630,326 @@ public abstract class Instruction {
     public static final Instruction TLOAD = new Instruction(0x5C, "TLOAD") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] key = context.getStack().pop();
-            //context.getStack().push(context.getStorage().load(offset));
+            final Stack stack = context.getStack();
+            final UInt256 key = stack.pop(context.a);
+            stack.push(context.getState().loadTransient(context.getAddress(), key, context.b));
         }
     };
     public static final Instruction TSTORE = new Instruction(0x5D, "TSTORE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] key = context.getStack().pop();
-            final byte[] value = context.getStack().pop();
-            //context.getStorage().store(offset, value);
+            context.checkWritable();
+            final Stack stack = context.getStack();
+            final UInt256 key = stack.pop(context.a);
+            final UInt256 value = stack.pop(context.b);
+            context.getState().storeTransient(context.getAddress(), key, value);
         }
     };
     public static final Instruction MCOPY = new Instruction(0x5E, "MCOPY") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger destOffset = new BigInteger(context.getStack().pop());
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            /*
-            final byte[] data = context.getCode();
-            if (offset.intValue() < 0 || offset.intValue() >= data.length) {
-                return;
-            }
-            context.getMemory().store(destOffset.intValue(), Arrays.copyOfRange(data, offset.intValue(), size.intValue()));
-            */
+            final Stack stack = context.getStack();
+            final int destOffset = stack.pop(context.a).clampedInt();
+            final int offset = stack.pop(context.b).clampedInt();
+            final int size = stack.pop(context.c).clampedInt();
+            context.expandMemory(Math.max(destOffset, offset), size);
+            context.useGas(GasSchedule.copyCost(size));
+            context.getMemory().copy(destOffset, offset, size);
         }
     };
     public static final Instruction PUSH0 = new Instruction(0x5F, "PUSH0") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(new byte[] { 0x00 });
+            context.getStack().push(0L);
         }
     };
     public static final Instruction PUSH1 = new Instruction(0x60, "PUSH1") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(1));
-            context.getStack().push(value);
+            doPush(context, 1);
         }
     };
 
     public static final Instruction PUSH2 = new Instruction(0x61, "PUSH2") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(2));
-            context.getStack().push(value);
+            doPush(context, 2);
         }
     };
     public static final Instruction PUSH3 = new Instruction(0x62, "PUSH3") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(3));
-            context.getStack().push(value);
+            doPush(context, 3);
         }
     };
     public static final Instruction PUSH4 = new Instruction(0x63, "PUSH4") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(4));
-            context.getStack().push(value);
+            doPush(context, 4);
         }
     };
     public static final Instruction PUSH5 = new Instruction(0x64, "PUSH5") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(5));
-            context.getStack().push(value);
+            doPush(context, 5);
         }
     };
     public static final Instruction PUSH6 = new Instruction(0x65, "PUSH6") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(6));
-            context.getStack().push(value);
+            doPush(context, 6);
         }
     };
     public static final Instruction PUSH7 = new Instruction(0x66, "PUSH7") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(7));
-            context.getStack().push(value);
+            doPush(context, 7);
         }
     };
     public static final Instruction PUSH8 = new Instruction(0x67, "PUSH8") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(8));
-            context.getStack().push(value);
+            doPush(context, 8);
         }
     };
     public static final Instruction PUSH9 = new Instruction(0x68, "PUSH9") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(9));
-            context.getStack().push(value);
+            doPush(context, 9);
         }
     };
     public static final Instruction PUSH10 = new Instruction(0x69, "PUSH10") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(10));
-            context.getStack().push(value);
+            doPush(context, 10);
         }
     };
     public static final Instruction PUSH11 = new Instruction(0x6A, "PUSH11") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(11));
-            context.getStack().push(value);
+            doPush(context, 11);
         }
     };
     public static final Instruction PUSH12 = new Instruction(0x6B, "PUSH12") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(12));
-            context.getStack().push(value);
+            doPush(context, 12);
         }
     };
     public static final Instruction PUSH13 = new Instruction(0x6C, "PUSH13") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(13));
-            context.getStack().push(value);
+            doPush(context, 13);
         }
     };
     public static final Instruction PUSH14 = new Instruction(0x6D, "PUSH14") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(14));
-            context.getStack().push(value);
+            doPush(context, 14);
         }
     };
     public static final Instruction PUSH15 = new Instruction(0x6E, "PUSH15") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(15));
-            context.getStack().push(value);
+            doPush(context, 15);
         }
     };
     public static final Instruction PUSH16 = new Instruction(0x6F, "PUSH16") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(16));
-            context.getStack().push(value);
+            doPush(context, 16);
         }
     };
     public static final Instruction PUSH17 = new Instruction(0x70, "PUSH17") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(17));
-            context.getStack().push(value);
+            doPush(context, 17);
         }
     };
     public static final Instruction PUSH18 = new Instruction(0x71, "PUSH18") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(18));
-            context.getStack().push(value);
+            doPush(context, 18);
         }
     };
     public static final Instruction PUSH19 = new Instruction(0x72, "PUSH19") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(19));
-            context.getStack().push(value);
+            doPush(context, 19);
         }
     };
     public static final Instruction PUSH20 = new Instruction(0x73, "PUSH20") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(20));
-            context.getStack().push(value);
+            doPush(context, 20);
         }
     };
     public static final Instruction PUSH21 = new Instruction(0x74, "PUSH21") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(21));
-            context.getStack().push(value);
+            doPush(context, 21);
         }
     };
     public static final Instruction PUSH22 = new Instruction(0x75, "PUSH22") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(22));
-            context.getStack().push(value);
+            doPush(context, 22);
         }
     };
     public static final Instruction PUSH23 = new Instruction(0x76, "PUSH23") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(23));
-            context.getStack().push(value);
+            doPush(context, 23);
         }
     };
     public static final Instruction PUSH24 = new Instruction(0x77, "PUSH24") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(24));
-            context.getStack().push(value);
+            doPush(context, 24);
         }
     };
     public static final Instruction PUSH25 = new Instruction(0x78, "PUSH25") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(25));
-            context.getStack().push(value);
+            doPush(context, 25);
         }
     };
     public static final Instruction PUSH26 = new Instruction(0x79, "PUSH26") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(26));
-            context.getStack().push(value);
+            doPush(context, 26);
         }
     };
     public static final Instruction PUSH27 = new Instruction(0x7A, "PUSH27") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(27));
-            context.getStack().push(value);
+            doPush(context, 27);
         }
     };
     public static final Instruction PUSH28 = new Instruction(0x7B, "PUSH28") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(28));
-            context.getStack().push(value);
+            doPush(context, 28);
         }
     };
     public static final Instruction PUSH29 = new Instruction(0x7C, "PUSH29") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(29));
-            context.getStack().push(value);
+            doPush(context, 29);
         }
     };
     public static final Instruction PUSH30 = new Instruction(0x7D, "PUSH30") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(30));
-            context.getStack().push(value);
+            doPush(context, 30);
         }
     };
     public static final Instruction PUSH31 = new Instruction(0x7E, "PUSH31") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(31));
-            context.getStack().push(value);
+            doPush(context, 31);
         }
     };
     public static final Instruction PUSH32 = new Instruction(0x7F, "PUSH32") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] value = Helper.asUnsignedByteArray(context.readCode(32));
-            context.getStack().push(value);
+            doPush(context, 32);
         }
     };
     public static final Instruction DUP1 = new Instruction(0x80, "DUP1") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(0));
+            context.getStack().dup(0);
         }
     };
     public static final Instruction DUP2 = new Instruction(0x81, "DUP2") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(1));
+            context.getStack().dup(1);
         }
     };      
     public static final Instruction DUP3 = new Instruction(0x82, "DUP3") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(2));
+            context.getStack().dup(2);
         }
     };
     public static final Instruction DUP4 = new Instruction(0x83, "DUP4") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(3));
+            context.getStack().dup(3);
         }
     };
     public static final Instruction DUP5 = new Instruction(0x84, "DUP5") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(4));
+            context.getStack().dup(4);
         }
     };
     public static final Instruction DUP6 = new Instruction(0x85, "DUP6") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(5));
+            context.getStack().dup(5);
         }
     };
     public static final Instruction DUP7 = new Instruction(0x86, "DUP7") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(6));
+            context.getStack().dup(6);
         }
     };
     public static final Instruction DUP8 = new Instruction(0x87, "DUP8") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(7));
+            context.getStack().dup(7);
         }
     };
     public static final Instruction DUP9 = new Instruction(0x88, "DUP9") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(8));
+            context.getStack().dup(8);
         }
     };
     public static final Instruction DUP10 = new Instruction(0x89, "DUP10") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(9));
+            context.getStack().dup(9);
         }
     };
     public static final Instruction DUP11 = new Instruction(0x8A, "DUP11") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(10));
+            context.getStack().dup(10);
         }
     };
     public static final Instruction DUP12 = new Instruction(0x8B, "DUP12") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(11));
+            context.getStack().dup(11);
         }
     };
     public static final Instruction DUP13 = new Instruction(0x8C, "DUP13") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(12));
+            context.getStack().dup(12);
         }
     };
     public static final Instruction DUP14 = new Instruction(0x8D, "DUP14") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(13));
+            context.getStack().dup(13);
         }
     };
     public static final Instruction DUP15 = new Instruction(0x8E, "DUP15") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(14));
+            context.getStack().dup(14);
         }
     };
     public static final Instruction DUP16 = new Instruction(0x8F, "DUP16") {
         @Override
         public void execute(final ExecutionContext context) {
-            context.getStack().push(context.getStack().peek(15));
+            context.getStack().dup(15);
         }
     };
     public static final Instruction SWAP1 = new Instruction(0x90, "SWAP1") {
@@ -1010,136 +1051,195 @@ public abstract class Instruction {
     public static final Instruction LOG0 = new Instruction(0xA0, "LOG0") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            //context.getLog().log(offset.intValue(), size.intValue(), null);
+            context.checkWritable();
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            final int size = stack.pop(context.b).clampedInt();
+            context.expandMemory(offset, size);
+            context.useGas(GasSchedule.logDataCost(size));
+            final byte[] data = context.getMemory().load(offset, size);
+            context.getState().addLog(new Log(context.getAddress(), List.of(), data));
         }
     };
     public static final Instruction LOG1 = new Instruction(0xA1, "LOG1") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            final byte[] topic = context.getStack().pop();
-            //context.getLog().log(offset.intValue(), size.intValue(), topic);
+            context.checkWritable();
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            final int size = stack.pop(context.b).clampedInt();
+            final byte[] topic = stack.pop();
+            context.expandMemory(offset, size);
+            context.useGas(GasSchedule.logDataCost(size));
+            final byte[] data = context.getMemory().load(offset, size);
+            context.getState().addLog(new Log(context.getAddress(), List.of(topic), data));
         }
     };
     public static final Instruction LOG2 = new Instruction(0xA2, "LOG2") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            final byte[] topic1 = context.getStack().pop();
-            final byte[] topic2 = context.getStack().pop();
-            //context.getLog().log(offset.intValue(), size.intValue(), topic1, topic2);
+            context.checkWritable();
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            final int size = stack.pop(context.b).clampedInt();
+            final byte[] topic1 = stack.pop();
+            final byte[] topic2 = stack.pop();
+            context.expandMemory(offset, size);
+            context.useGas(GasSchedule.logDataCost(size));
+            final byte[] data = context.getMemory().load(offset, size);
+            context.getState().addLog(new Log(context.getAddress(), List.of(topic1, topic2), data));
         }
     };
     public static final Instruction LOG3 = new Instruction(0xA3, "LOG3") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            final byte[] topic1 = context.getStack().pop();
-            final byte[] topic2 = context.getStack().pop();
-            final byte[] topic3 = context.getStack().pop();
-            //context.getLog().log(offset.intValue(), size.intValue(), topic1, topic2, topic3);
+            context.checkWritable();
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            final int size = stack.pop(context.b).clampedInt();
+            final byte[] topic1 = stack.pop();
+            final byte[] topic2 = stack.pop();
+            final byte[] topic3 = stack.pop();
+            context.expandMemory(offset, size);
+            context.useGas(GasSchedule.logDataCost(size));
+            final byte[] data = context.getMemory().load(offset, size);
+            context.getState().addLog(new Log(context.getAddress(), List.of(topic1, topic2, topic3), data));
         }
     };
     public static final Instruction LOG4 = new Instruction(0xA4, "LOG4") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            final byte[] topic1 = context.getStack().pop();
-            final byte[] topic2 = context.getStack().pop();
-            final byte[] topic3 = context.getStack().pop();
-            final byte[] topic4 = context.getStack().pop();
-            //context.getLog().log(offset.intValue(), size.intValue(), topic1, topic2, topic3, topic4);
+            context.checkWritable();
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            final int size = stack.pop(context.b).clampedInt();
+            final byte[] topic1 = stack.pop();
+            final byte[] topic2 = stack.pop();
+            final byte[] topic3 = stack.pop();
+            final byte[] topic4 = stack.pop();
+            context.expandMemory(offset, size);
+            context.useGas(GasSchedule.logDataCost(size));
+            final byte[] data = context.getMemory().load(offset, size);
+            context.getState().addLog(new Log(context.getAddress(), List.of(topic1, topic2, topic3, topic4), data));
         }
     };
     public static final Instruction CREATE = new Instruction(0xF0, "CREATE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger value = new BigInteger(context.getStack().pop());
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            //context.create(value.intValue(), offset.intValue(), size.intValue());
+            context.checkWritable();
+            final Stack stack = context.getStack();
+            final UInt256 value = stack.pop(context.a);
+            final int offset = stack.pop(context.b).clampedInt();
+            final int size = stack.pop(context.c).clampedInt();
+            final byte[] address = context.create(value, offset, size, null);
+            if (address == null) {
+                stack.push(0L);
+            } else {
+                stack.push(address);
+            }
         }
     };
     public static final Instruction CALL = new Instruction(0xF1, "CALL") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger gas = new BigInteger(context.getStack().pop());
-            final byte[] address = context.getStack().pop();
-            final BigInteger value = new BigInteger(context.getStack().pop());
-            final BigInteger argsOffset = new BigInteger(context.getStack().pop());
-            final BigInteger argsSize = new BigInteger(context.getStack().pop());
-            final BigInteger retOffset = new BigInteger(context.getStack().pop());
-            final BigInteger retSize = new BigInteger(context.getStack().pop());
-            //context.call(gas.intValue(), value.intValue(), address, offset.intValue(), size.intValue());
+            final Stack stack = context.getStack();
+            final UInt256 gas = stack.pop(context.a);
+            final byte[] address = stack.popAddress();
+            context.accessAccount(address);
+            final UInt256 value = stack.pop(context.b);
+            final int argsOffset = stack.pop(context.c).clampedInt();
+            final int argsSize = stack.pop(context.c).clampedInt();
+            final int retOffset = stack.pop(context.c).clampedInt();
+            final int retSize = stack.pop(context.c).clampedInt();
+            final boolean success = context.call(CallKind.CALL, gas, address, value, argsOffset, argsSize,
+                retOffset, retSize);
+            stack.push(success ? 1L : 0L);
         }
     };
     public static final Instruction CALLCODE = new Instruction(0xF2, "CALLCODE") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger gas = new BigInteger(context.getStack().pop());
-            final byte[] address = context.getStack().pop();
-            final BigInteger value = new BigInteger(context.getStack().pop());
-            final BigInteger argsOffset = new BigInteger(context.getStack().pop());
-            final BigInteger argsSize = new BigInteger(context.getStack().pop());
-            final BigInteger retOffset = new BigInteger(context.getStack().pop());
-            final BigInteger retSize = new BigInteger(context.getStack().pop());
-            //context.call(gas.intValue(), value.intValue(), address, offset.intValue(), size.intValue());
+            final Stack stack = context.getStack();
+            final UInt256 gas = stack.pop(context.a);
+            final byte[] address = stack.popAddress();
+            context.accessAccount(address);
+            final UInt256 value = stack.pop(context.b);
+            final int argsOffset = stack.pop(context.c).clampedInt();
+            final int argsSize = stack.pop(context.c).clampedInt();
+            final int retOffset = stack.pop(context.c).clampedInt();
+            final int retSize = stack.pop(context.c).clampedInt();
+            final boolean success = context.call(CallKind.CALLCODE, gas, address, value, argsOffset, argsSize,
+                retOffset, retSize);
+            stack.push(success ? 1L : 0L);
         }
     };
     public static final Instruction RETURN = new Instruction(0xF3, "RETURN") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            context.setReturnData(offset.intValue(), size.intValue());
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            final int size = stack.pop(context.b).clampedInt();
+            context.expandMemory(offset, size);
+            context.setOutput(offset, size);
         }
     };
     public static final Instruction DELEGATECALL = new Instruction(0xF4, "DELEGATECALL") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger gas = new BigInteger(context.getStack().pop());
-            final byte[] address = context.getStack().pop();
-            final BigInteger argsOffset = new BigInteger(context.getStack().pop());
-            final BigInteger argsSize = new BigInteger(context.getStack().pop());
-            final BigInteger retOffset = new BigInteger(context.getStack().pop());
-            final BigInteger retSize = new BigInteger(context.getStack().pop());
-            //context.call(gas.intValue(), value.intValue(), address, offset.intValue(), size.intValue());
+            final Stack stack = context.getStack();
+            final UInt256 gas = stack.pop(context.a);
+            final byte[] address = stack.popAddress();
+            context.accessAccount(address);
+            final int argsOffset = stack.pop(context.c).clampedInt();
+            final int argsSize = stack.pop(context.c).clampedInt();
+            final int retOffset = stack.pop(context.c).clampedInt();
+            final int retSize = stack.pop(context.c).clampedInt();
+            final boolean success = context.call(CallKind.DELEGATECALL, gas, address, context.b.setZero(), argsOffset,
+                argsSize, retOffset, retSize);
+            stack.push(success ? 1L : 0L);
         }
     };
     public static final Instruction CREATE2 = new Instruction(0xF5, "CREATE2") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger value = new BigInteger(context.getStack().pop());
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            final byte[] salt = context.getStack().pop();
-            //context.create(value.intValue(), offset.intValue(), size.intValue());
+            context.checkWritable();
+            final Stack stack = context.getStack();
+            final UInt256 value = stack.pop(context.a);
+            final int offset = stack.pop(context.b).clampedInt();
+            final int size = stack.pop(context.c).clampedInt();
+            final UInt256 salt = stack.pop(context.b);
+            final byte[] address = context.create(value, offset, size, salt);
+            if (address == null) {
+                stack.push(0L);
+            } else {
+                stack.push(address);
+            }
         }
     };
     public static final Instruction STATICCALL = new Instruction(0xFA, "STATICCALL") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger gas = new BigInteger(context.getStack().pop());
-            final byte[] address = context.getStack().pop();
-            final BigInteger argsOffset = new BigInteger(context.getStack().pop());
-            final BigInteger argsSize = new BigInteger(context.getStack().pop());
-            final BigInteger retOffset = new BigInteger(context.getStack().pop());
-            final BigInteger retSize = new BigInteger(context.getStack().pop());
-            //context.call(gas.intValue(), value.intValue(), address, offset.intValue(), size.intValue());
+            final Stack stack = context.getStack();
+            final UInt256 gas = stack.pop(context.a);
+            final byte[] address = stack.popAddress();
+            context.accessAccount(address);
+            final int argsOffset = stack.pop(context.c).clampedInt();
+            final int argsSize = stack.pop(context.c).clampedInt();
+            final int retOffset = stack.pop(context.c).clampedInt();
+            final int retSize = stack.pop(context.c).clampedInt();
+            final boolean success = context.call(CallKind.STATICCALL, gas, address, context.b.setZero(), argsOffset,
+                argsSize, retOffset, retSize);
+            stack.push(success ? 1L : 0L);
         }
     };
     public static final Instruction REVERT = new Instruction(0xFD, "REVERT") {
         @Override
         public void execute(final ExecutionContext context) {
-            final BigInteger offset = new BigInteger(context.getStack().pop());
-            final BigInteger size = new BigInteger(context.getStack().pop());
-            //context.revert(offset.intValue(), size.intValue());
+            final Stack stack = context.getStack();
+            final int offset = stack.pop(context.a).clampedInt();
+            final int size = stack.pop(context.b).clampedInt();
+            context.expandMemory(offset, size);
+            context.revert(offset, size);
         }
     };
     public static final Instruction INVALID = new Instruction(0xFE, "INVALID") {
@@ -1151,9 +1251,112 @@ public abstract class Instruction {
     public static final Instruction SELFDESTRUCT = new Instruction(0xFF, "SELFDESTRUCT") {
         @Override
         public void execute(final ExecutionContext context) {
-            final byte[] address = context.getStack().pop();
-            // Not implemented
+            context.checkWritable();
+            final byte[] address = context.getStack().popAddress();
+            // No warm cost in the static table, a cold beneficiary pays the full access cost
+            if (context.getState().warmAccount(address) && context.getSchedule().isAtLeast(GasSchedule.BERLIN)) {
+                context.useGas(GasSchedule.COLD_ACCOUNT_ACCESS_GAS);
+            }
+            // Moving the balance and deleting the account are not implemented, the frame halts like STOP
+            context.stop();
         }
     };
 
+    // Stack items consumed and produced by each opcode, used by the basic block analysis
+    private static final int[] STACK_INPUTS = new int[MAX_OPCODE + 1];
+    private static final int[] STACK_OUTPUTS = new int[MAX_OPCODE + 1];
+
+    static {
+        stackEffect(0x01, 0x07, 2, 1);  // ADD to SMOD
+        stackEffect(0x08, 0x09, 3, 1);  // ADDMOD, MULMOD
+        stackEffect(0x0A, 0x0B, 2, 1);  // EXP, SIGNEXTEND
+        stackEffect(0x10, 0x14, 2, 1);  // LT to EQ
+        stackEffect(0x15, 0x15, 1, 1);  // ISZERO
+        stackEffect(0x16, 0x18, 2, 1);  // AND, OR, XOR
+        stackEffect(0x19, 0x19, 1, 1);  // NOT
+        stackEffect(0x1A, 0x1D, 2, 1);  // BYTE to SAR
+        stackEffect(0x20, 0x20, 2, 1);  // KECCAK256
+        stackEffect(0x30, 0x30, 0, 1);  // ADDRESS
+        stackEffect(0x31, 0x31, 1, 1);  // BALANCE
+        stackEffect(0x32, 0x34, 0, 1);  // ORIGIN, CALLER, CALLVALUE
+        stackEffect(0x35, 0x35, 1, 1);  // CALLDATALOAD
+        stackEffect(0x36, 0x36, 0, 1);  // CALLDATASIZE
+        stackEffect(0x37, 0x37, 3, 0);  // CALLDATACOPY
+        stackEffect(0x38, 0x38, 0, 1);  // CODESIZE
+        stackEffect(0x39, 0x39, 3, 0);  // CODECOPY
+        stackEffect(0x3A, 0x3A, 0, 1);  // GASPRICE
+        stackEffect(0x3B, 0x3B, 1, 1);  // EXTCODESIZE
+        stackEffect(0x3C, 0x3C, 4, 0);  // EXTCODECOPY
+        stackEffect(0x3D, 0x3D, 0, 1);  // RETURNDATASIZE
+        stackEffect(0x3E, 0x3E, 3, 0);  // RETURNDATACOPY
+        stackEffect(0x3F, 0x40, 1, 1);  // EXTCODEHASH, BLOCKHASH
+        stackEffect(0x41, 0x47, 0, 1);  // COINBASE to SELFBALANCE
+        stackEffect(0x50, 0x50, 1, 0);  // POP
+        stackEffect(0x51, 0x51, 1, 1);  // MLOAD
+        stackEffect(0x52, 0x53, 2, 0);  // MSTORE, MSTORE8
+        stackEffect(0x54, 0x54, 1, 1);  // SLOAD
+        stackEffect(0x55, 0x55, 2, 0);  // SSTORE
+        stackEffect(0x56, 0x56, 1, 0);  // JUMP
+        stackEffect(0x57, 0x57, 2, 0);  // JUMPI
+        stackEffect(0x58, 0x5A, 0, 1);  // PC, MSIZE, GAS
+        stackEffect(0x5C, 0x5C, 1, 1);  // TLOAD
+        stackEffect(0x5D, 0x5D, 2, 0);  // TSTORE
+        stackEffect(0x5E, 0x5E, 3, 0);  // MCOPY
+        stackEffect(0x5F, 0x7F, 0, 1);  // PUSH0 to PUSH32
+        for (int n = 1; n <= 16; n++) {
+            stackEffect(0x7F + n, 0x7F + n, n, n + 1);      // DUPn
+            stackEffect(0x8F + n, 0x8F + n, n + 1, n + 1);  // SWAPn
+        }
+        for (int n = 0; n <= 4; n++) {
+            stackEffect(0xA0 + n, 0xA0 + n, n + 2, 0);      // LOGn
+        }
+        stackEffect(0xF0, 0xF0, 3, 1);  // CREATE
+        stackEffect(0xF1, 0xF2, 7, 1);  // CALL, CALLCODE
+        stackEffect(0xF3, 0xF3, 2, 0);  // RETURN
+        stackEffect(0xF4, 0xF4, 6, 1);  // DELEGATECALL
+        stackEffect(0xF5, 0xF5, 4, 1);  // CREATE2
+        stackEffect(0xFA, 0xFA, 6, 1);  // STATICCALL
+        stackEffect(0xFD, 0xFD, 2, 0);  // REVERT
+        stackEffect(0xFF, 0xFF, 1, 0);  // SELFDESTRUCT
+    }
+
+    private static void stackEffect(final int from, final int to, final int inputs, final int outputs) {
+        for (int op = from; op <= to; op++) {
+            STACK_INPUTS[op] = inputs;
+            STACK_OUTPUTS[op] = outputs;
+        }
+    }
+
+    public static int stackInputs(final int opcode) {
+        return STACK_INPUTS[opcode];
+    }
+
+    public static int stackOutputs(final int opcode) {
+        return STACK_OUTPUTS[opcode];
+    }
+
+    /**
+     * Returns true for opcodes whose behaviour depends on the gas left: GAS, the SSTORE stipend check,
+     * and the gas forwarded by calls and creates.
+     * @param opcode
+     * @return
+     */
+    public static boolean readsGas(final int opcode) {
+        return opcode == GAS.opcode || opcode == SSTORE.opcode || opcode == CREATE.opcode || opcode == CALL.opcode
+            || opcode == CALLCODE.opcode || opcode == DELEGATECALL.opcode || opcode == CREATE2.opcode
+            || opcode == STATICCALL.opcode;
+    }
+
+    /**
+     * Returns true for opcodes after which execution does not continue with the next instruction.
+     * Undefined opcodes count as terminators since executing them always fails.
+     * @param opcode
+     * @return
+     */
+    public static boolean isTerminator(final int opcode) {
+        return opcode == STOP.opcode || opcode == JUMP.opcode || opcode == JUMPI.opcode
+            || opcode == RETURN.opcode || opcode == REVERT.opcode || opcode == INVALID.opcode
+            || opcode == SELFDESTRUCT.opcode || INSTRUCTIONS[opcode] == null;
+    }
+
 }
@@ -0,0 +1,259 @@
+package com.horace.evm;
+
+/**
+ * Interpreter over {@link DecodedCode}. Opcodes on the hot path are handled inline in a single
+ * switch, everything else is delegated to the matching {@link Instruction}, which remains the
+ * reference implementation and can still be run on its own for differential testing.
+ * <p>
+ * Stack bounds and static gas are checked once per {@link BasicBlock} when it is entered, so the
+ * inline opcodes use the unchecked stack operations. Delegated instructions still check on their own
+ * and charge their dynamic gas themselves.
+ * With superinstructions enabled the fused stream of {@link CodeAnalysis#getFusedCode()} is run instead.
+ */
+public class Interpreter {
+
+    private final boolean superinstructions;
+
+    public Interpreter() {
+        this(true);
+    }
+
+    public Interpreter(final boolean superinstructions) {
+        this.superinstructions = superinstructions;
+    }
+
+    public boolean isSuperinstructions() {
+        return superinstructions;
+    }
+
+    public void execute(final ExecutionContext context) {
+        if (!superinstructions) {
+            run(context, context.getDecodedCode(), null);
+            return;
+        }
+        final Superinstruction.Counts counts = Superinstruction.counts();
+        counts.enter();
+        try {
+            run(context, context.getAnalysis().getFusedCode(), counts.hits);
+        } finally {
+            counts.exit();
+        }
+    }
+
+    private void run(final ExecutionContext context, final DecodedCode decoded, final long[] hits) {
+        final int[] ops = decoded.ops;
+        final int[] pcs = decoded.pcs;
+        final int[] args = decoded.args;
+        final long[] immediates = decoded.immediates;
+        final Stack stack = context.getStack();
+        final UInt256 a = context.a;
+        final UInt256 b = context.b;
+        final BasicBlock[] blocks = decoded.blocks;
+        final Memory memory = context.getMemory();
+        final GasSchedule schedule = context.getSchedule();
+
+        int i = decoded.indexOf(context.getProgramCounter());
+        if (i < 0 || ops[i] != DecodedCode.OP_BEGIN_BLOCK) {
+            throw new IllegalArgumentException("No block starts at pc " + context.getProgramCounter());
+        }
+        while (true) {
+            final int op = ops[i];
+            switch (op) {
+                case DecodedCode.OP_BEGIN_BLOCK:
+                    final BasicBlock block = blocks[args[i]];
+                    if (stack.size < block.getMinStackHeight()) {
+                        throw new IllegalStateException("Stack underflow");
+                    }
+                    if (stack.size + block.getMaxStackGrowth() > stack.maxSize()) {
+                        throw new StackOverflowException();
+                    }
+                    context.useGas(block.getStaticGas(schedule));
+                    break;
+                case 0x00: // STOP
+                    context.setProgramCounter(pcs[i]);
+                    context.stop();
+                    return;
+                case 0x01: // ADD
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.add(stack.popUnchecked(b)));
+                    break;
+                case 0x02: // MUL
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.mul(stack.popUnchecked(b)));
+                    break;
+                case 0x03: // SUB
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.sub(stack.popUnchecked(b)));
+                    break;
+                case 0x04: // DIV
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.div(stack.popUnchecked(b)));
+                    break;
+                case 0x06: // MOD
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.mod(stack.popUnchecked(b)));
+                    break;
+                case 0x10: // LT
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.set(a.compareTo(stack.popUnchecked(b)) < 0));
+                    break;
+                case 0x11: // GT
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.set(a.compareTo(stack.popUnchecked(b)) > 0));
+                    break;
+                case 0x12: // SLT
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.set(a.signedCompareTo(stack.popUnchecked(b)) < 0));
+                    break;
+                case 0x13: // SGT
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.set(a.signedCompareTo(stack.popUnchecked(b)) > 0));
+                    break;
+                case 0x14: // EQ
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.set(a.equals(stack.popUnchecked(b))));
+                    break;
+                case 0x15: // ISZERO
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.set(a.isZero()));
+                    break;
+                case 0x16: // AND
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.and(stack.popUnchecked(b)));
+                    break;
+                case 0x17: // OR
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.or(stack.popUnchecked(b)));
+                    break;
+                case 0x18: // XOR
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.xor(stack.popUnchecked(b)));
+                    break;
+                case 0x19: // NOT
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.not());
+                    break;
+                case 0x1A: // BYTE
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(stack.popUnchecked(b).byteAt(a));
+                    break;
+                case 0x1B: // SHL
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(stack.popUnchecked(b).shl(a));
+                    break;
+                case 0x1C: // SHR
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(stack.popUnchecked(b).shr(a));
+                    break;
+                case 0x1D: // SAR
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(stack.popUnchecked(b).sar(a));
+                    break;
+                case 0x50: // POP
+                    stack.dropUnchecked();
+                    break;
+                case 0x51: { // MLOAD
+                    final int offset = stack.popUnchecked(a).clampedInt();
+                    context.expandMemory(offset, 32);
+                    stack.pushUnchecked(memory.loadWord(offset, a));
+                    break;
+                }
+                case 0x52: { // MSTORE
+                    final int offset = stack.popUnchecked(a).clampedInt();
+                    context.expandMemory(offset, 32);
+                    memory.storeWord(offset, stack.popUnchecked(b));
+                    break;
+                }
+                case 0x56: // JUMP
+                    i = jumpTarget(decoded, stack.popUnchecked(a));
+                    continue;
+                case 0x57: // JUMPI
+                    stack.popUnchecked(a);
+                    if (!stack.popUnchecked(b).isZero()) {
+                        i = jumpTarget(decoded, a);
+                        continue;
+                    }
+                    break;
+                case 0x58: // PC
+                    stack.pushUnchecked(pcs[i]);
+                    break;
+                case 0x5F: // PUSH0
+                    stack.pushUnchecked(0L);
+                    break;
+                case 0x60: case 0x61: case 0x62: case 0x63: case 0x64: case 0x65: case 0x66: case 0x67:
+                case 0x68: case 0x69: case 0x6A: case 0x6B: case 0x6C: case 0x6D: case 0x6E: case 0x6F:
+                case 0x70: case 0x71: case 0x72: case 0x73: case 0x74: case 0x75: case 0x76: case 0x77:
+                case 0x78: case 0x79: case 0x7A: case 0x7B: case 0x7C: case 0x7D: case 0x7E: case 0x7F:
+                    stack.pushUnchecked(immediates, args[i]);
+                    break;
+                case 0x80: case 0x81: case 0x82: case 0x83: case 0x84: case 0x85: case 0x86: case 0x87:
+                case 0x88: case 0x89: case 0x8A: case 0x8B: case 0x8C: case 0x8D: case 0x8E: case 0x8F:
+                    stack.dupUnchecked(op - 0x80);
+                    break;
+                case 0x90: case 0x91: case 0x92: case 0x93: case 0x94: case 0x95: case 0x96: case 0x97:
+                case 0x98: case 0x99: case 0x9A: case 0x9B: case 0x9C: case 0x9D: case 0x9E: case 0x9F:
+                    stack.swapUnchecked(op - 0x8F);
+                    break;
+                case DecodedCode.OP_PUSH_JUMP:
+                    hits[op - DecodedCode.OP_PUSH_JUMP]++;
+                    i = args[i];
+                    continue;
+                case DecodedCode.OP_PUSH_JUMPI:
+                    hits[op - DecodedCode.OP_PUSH_JUMP]++;
+                    if (!stack.popUnchecked(a).isZero()) {
+                        i = args[i];
+                        continue;
+                    }
+                    i += 2;
+                    continue;
+                case DecodedCode.OP_ISZERO_PUSH_JUMPI:
+                    hits[op - DecodedCode.OP_PUSH_JUMP]++;
+                    if (stack.popUnchecked(a).isZero()) {
+                        i = args[i];
+                        continue;
+                    }
+                    i += 3;
+                    continue;
+                case DecodedCode.OP_DUP_SWAP:
+                    hits[op - DecodedCode.OP_PUSH_JUMP]++;
+                    stack.dupUnchecked(args[i] & 0xFF);
+                    stack.swapUnchecked(args[i] >>> 8);
+                    i += 2;
+                    continue;
+                case DecodedCode.OP_PUSH4_EQ: {
+                    hits[op - DecodedCode.OP_PUSH_JUMP]++;
+                    final int k = args[i];
+                    stack.popUnchecked(a);
+                    stack.pushUnchecked(a.set(a.u0 == immediates[k] && a.u1 == immediates[k + 1]
+                        && a.u2 == immediates[k + 2] && a.u3 == immediates[k + 3]));
+                    i += 2;
+                    continue;
+                }
+                default:
+                    final Instruction instruction = Instruction.INSTRUCTIONS[op];
+                    if (instruction == null) {
+                        throw new IllegalArgumentException("Unknown opcode: " + op);
+                    }
+                    context.setProgramCounter(pcs[i] + 1);
+                    instruction.execute(context);
+                    if (context.isStopped()) {
+                        return;
+                    }
+                    break;
+            }
+            i++;
+        }
+    }
+
+    static int jumpTarget(final DecodedCode decoded, final UInt256 offset) {
+        if (offset.clampedInt() >= decoded.pcs[decoded.pcs.length - 1]) {
+            throw new IndexOutOfBoundsException("Jump target out of bounds");
+        }
+        final int index = decoded.jumpIndex(offset.intValue());
+        if (index < 0) {
+            throw new IllegalArgumentException("Invalid jump destination: " + offset);
+        }
+        return index;
+    }
+
+}
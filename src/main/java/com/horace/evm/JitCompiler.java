@@ -0,0 +1,726 @@
+package com.horace.evm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Second tier of the {@link TieredExecutor}: translates {@link DecodedCode} into a hidden JVM class per contract.
+ * <p>
+ * Basic blocks are laid out as straight-line bytecode behind a {@code tableswitch} on the block index, in as
+ * many chunk methods as needed to respect the 64KB method limit. Every block starts with the same stack and
+ * gas check as in the {@link Interpreter}. PUSH, DUP, SWAP, POP and PC work on the stack directly, jumps to a
+ * constant JUMPDEST become gotos, and every other opcode calls its {@link Instruction}, which the JVM can
+ * inline at that call site. Blocks with opcodes the compiler does not support return their start pc so the
+ * interpreter takes over from there.
+ * <p>
+ * The class is written as version 49 so the verifier infers types itself and no stack map frames are needed.
+ */
+public final class JitCompiler {
+
+    private static final int MAX_METHOD_LENGTH = 65535;
+    private static final int MAX_POOL_SIZE = 65535;
+
+    private static final String CLASS_NAME = "com/horace/evm/CompiledContract";
+    private static final String SUPER_CLASS = "com/horace/evm/CompiledCode";
+    private static final String RUNTIME = "com/horace/evm/JitCompiler";
+    private static final String STACK_CLASS = "com/horace/evm/Stack";
+    private static final String CONTEXT_CLASS = "com/horace/evm/ExecutionContext";
+    private static final String CONTEXT = "Lcom/horace/evm/ExecutionContext;";
+    private static final String STACK = "Lcom/horace/evm/Stack;";
+    private static final String DECODED_CODE = "Lcom/horace/evm/DecodedCode;";
+    private static final String CHUNK_TYPE = "(" + CONTEXT + STACK + DECODED_CODE + "I)I";
+
+    // Locals of the static chunk methods
+    private static final int LOCAL_CONTEXT = 0;
+    private static final int LOCAL_STACK = 1;
+    private static final int LOCAL_CODE = 2;
+    private static final int LOCAL_BLOCK = 3;
+
+    private JitCompiler() {
+    }
+
+    /**
+     * Compiles the code, or returns null if the generated class would exceed the class file limits or
+     * fails to load. The caller then interprets the code, so compiling never changes a result.
+     * @param code
+     * @return
+     */
+    static CompiledCode compile(final DecodedCode code) {
+        final ConstantPool pool = new ConstantPool();
+        final List<Integer> chunkStarts = new ArrayList<>();
+        final byte[] classFile = generate(code, pool, chunkStarts);
+        if (classFile == null) {
+            return null;
+        }
+        return load(classFile, chunkStarts.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Defines the generated class and instantiates it, or returns null if the JVM rejects it.
+     * @param classFile
+     * @param chunkStarts
+     * @return
+     */
+    static CompiledCode load(final byte[] classFile, final int[] chunkStarts) {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (CompiledCode) lookup.lookupClass().getDeclaredConstructor(int[].class)
+                .newInstance((Object) chunkStarts);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Verification or format errors included, the code is interpreted instead
+            return null;
+        }
+    }
+
+    /**
+     * Returns true for opcodes the compiler can emit, everything else makes its block fall back.
+     * @param opcode
+     * @return
+     */
+    public static boolean isSupported(final int opcode) {
+        return opcode <= Instruction.MAX_OPCODE && Instruction.INSTRUCTIONS[opcode] != null;
+    }
+
+    private static byte[] generate(final DecodedCode code, final ConstantPool pool, final List<Integer> chunkStarts) {
+        final int blockCount = code.blocks.length;
+        final int[] firstSlots = new int[blockCount + 1];
+        for (int block = 0, i = 0; block < blockCount; block++) {
+            firstSlots[block] = i;
+            i = blockEnd(code.ops, i);
+        }
+        firstSlots[blockCount] = code.ops.length;
+
+        // Measure every block on its own, then fill chunks greedily. Jumps leaving a chunk are emitted
+        // as a return, which is never longer than the goto_w measured here.
+        final boolean[] compiled = new boolean[blockCount];
+        final int[] lengths = new int[blockCount];
+        final int[] allInChunk = new int[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            compiled[block] = isCompilable(code.ops, firstSlots[block], firstSlots[block + 1]);
+            final Bytecode scratch = new Bytecode(0, blockCount, allInChunk);
+            emitBlock(scratch, pool, code, block, firstSlots, compiled[block]);
+            lengths[block] = scratch.length;
+        }
+
+        final List<byte[]> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < blockCount) {
+            int end = start;
+            int size = 0;
+            while (end < blockCount) {
+                // Dispatch table, out of chunk return and the fall through epilogue
+                final int overhead = 32 + 4 * (end - start + 1);
+                if (size + lengths[end] + overhead > MAX_METHOD_LENGTH) {
+                    break;
+                }
+                size += lengths[end++];
+            }
+            if (end == start) {
+                // A single block too large for a method, leave it to the interpreter
+                compiled[start] = false;
+                lengths[start] = 8;
+                continue;
+            }
+            chunkStarts.add(start);
+            chunks.add(emitChunk(pool, code, start, end, firstSlots, compiled));
+            start = end;
+        }
+
+        return writeClass(pool, chunks);
+    }
+
+    private static byte[] emitChunk(final ConstantPool pool, final DecodedCode code, final int start, final int end,
+            final int[] firstSlots, final boolean[] compiled) {
+        final Bytecode run = new Bytecode(start, end, null);
+        final int leave = run.newLabel();
+
+        run.markDispatch();
+        run.op(Bytecode.ILOAD_0 + LOCAL_BLOCK);
+        run.tableSwitch(start, run.blockLabels(), leave);
+        for (int block = start; block < end; block++) {
+            run.mark(run.blockLabel(block));
+            emitBlock(run, pool, code, block, firstSlots, compiled[block]);
+        }
+        // Falling through the last block continues in the next chunk
+        run.pushInt(pool, CompiledCode.continueAt(end));
+        run.op(Bytecode.IRETURN);
+
+        // Dynamic jump out of this chunk
+        run.mark(leave);
+        run.op(Bytecode.ILOAD_0 + LOCAL_BLOCK);
+        run.op(Bytecode.ICONST_0 + 2);
+        run.op(Bytecode.IADD);
+        run.op(Bytecode.INEG);
+        run.op(Bytecode.IRETURN);
+        return run.toByteArray();
+    }
+
+    private static void emitBlock(final Bytecode run, final ConstantPool pool, final DecodedCode code,
+            final int block, final int[] firstSlots, final boolean compiled) {
+        final int first = firstSlots[block];
+        final int end = firstSlots[block + 1];
+        if (!compiled) {
+            run.pushInt(pool, code.pcs[first]);
+            run.op(Bytecode.IRETURN);
+            return;
+        }
+        emitBeginBlock(run, pool, code.blocks[block], block);
+        final int[] ops = code.ops;
+        for (int j = first + 1; j < end; j++) {
+            final int op = ops[j];
+            final boolean isPush = op >= Instruction.PUSH1.getOpcode() && op <= Instruction.PUSH32.getOpcode();
+            if (isPush && j + 1 < end && (ops[j + 1] == Instruction.JUMP.getOpcode()
+                    || ops[j + 1] == Instruction.JUMPI.getOpcode())) {
+                final int target = staticTargetBlock(code, j);
+                if (target >= 0) {
+                    if (ops[j + 1] == Instruction.JUMPI.getOpcode()) {
+                        emitRuntimeCall(run, pool, "popNonZero", "(" + CONTEXT + STACK + ")Z");
+                        final int fallThrough = run.newLabel();
+                        run.branch(Bytecode.IFEQ, fallThrough);
+                        run.jumpToBlock(pool, target);
+                        run.mark(fallThrough);
+                    } else {
+                        run.jumpToBlock(pool, target);
+                    }
+                    j++;
+                    continue;
+                }
+            }
+            emitInstruction(run, pool, code, j, op, code.pcs[j]);
+        }
+    }
+
+    private static void emitBeginBlock(final Bytecode run, final ConstantPool pool, final BasicBlock block,
+            final int blockIndex) {
+        run.op(Bytecode.ALOAD_0 + LOCAL_CONTEXT);
+        run.op(Bytecode.ALOAD_0 + LOCAL_STACK);
+        run.pushInt(pool, block.getMinStackHeight());
+        run.pushInt(pool, block.getMaxStackGrowth());
+        run.op(Bytecode.ALOAD_0 + LOCAL_CODE);
+        run.pushInt(pool, blockIndex);
+        run.invoke(Bytecode.INVOKESTATIC, pool.method(RUNTIME, "beginBlock", "(" + CONTEXT + STACK + "II" + DECODED_CODE + "I)V"));
+    }
+
+    private static void emitInstruction(final Bytecode run, final ConstantPool pool, final DecodedCode code,
+            final int index, final int op, final int pc) {
+        if (op == Instruction.PUSH0.getOpcode()) {
+            emitPush(run, pool, 0, 0, 0, 0);
+        } else if (op >= Instruction.PUSH1.getOpcode() && op <= Instruction.PUSH32.getOpcode()) {
+            final int offset = code.args[index];
+            final long[] immediates = code.immediates;
+            emitPush(run, pool, immediates[offset], immediates[offset + 1], immediates[offset + 2], immediates[offset + 3]);
+        } else if (op >= Instruction.DUP1.getOpcode() && op <= Instruction.DUP16.getOpcode()) {
+            run.op(Bytecode.ALOAD_0 + LOCAL_STACK);
+            run.pushInt(pool, op - Instruction.DUP1.getOpcode());
+            run.invoke(Bytecode.INVOKEVIRTUAL, pool.method(STACK_CLASS, "dupUnchecked", "(I)V"));
+        } else if (op >= Instruction.SWAP1.getOpcode() && op <= Instruction.SWAP16.getOpcode()) {
+            run.op(Bytecode.ALOAD_0 + LOCAL_STACK);
+            run.pushInt(pool, op - Instruction.SWAP1.getOpcode() + 1);
+            run.invoke(Bytecode.INVOKEVIRTUAL, pool.method(STACK_CLASS, "swapUnchecked", "(I)V"));
+        } else if (op == Instruction.POP.getOpcode()) {
+            run.op(Bytecode.ALOAD_0 + LOCAL_STACK);
+            run.invoke(Bytecode.INVOKEVIRTUAL, pool.method(STACK_CLASS, "dropUnchecked", "()V"));
+        } else if (op == Instruction.PC.getOpcode()) {
+            emitPush(run, pool, pc, 0, 0, 0);
+        } else if (op == Instruction.STOP.getOpcode()) {
+            emitSetProgramCounter(run, pool, pc);
+            run.op(Bytecode.ALOAD_0 + LOCAL_CONTEXT);
+            run.invoke(Bytecode.INVOKEVIRTUAL, pool.method(CONTEXT_CLASS, "stop", "()V"));
+            run.op(Bytecode.ICONST_M1);
+            run.op(Bytecode.IRETURN);
+        } else if (op == Instruction.JUMP.getOpcode()) {
+            emitRuntimeCall(run, pool, "jumpBlock", "(" + CONTEXT + STACK + DECODED_CODE + ")I");
+            run.op(Bytecode.ISTORE_0 + LOCAL_BLOCK);
+            run.jumpToDispatch();
+        } else if (op == Instruction.JUMPI.getOpcode()) {
+            emitRuntimeCall(run, pool, "jumpiBlock", "(" + CONTEXT + STACK + DECODED_CODE + ")I");
+            run.op(Bytecode.ISTORE_0 + LOCAL_BLOCK);
+            run.op(Bytecode.ILOAD_0 + LOCAL_BLOCK);
+            final int fallThrough = run.newLabel();
+            run.branch(Bytecode.IFLT, fallThrough);
+            run.jumpToDispatch();
+            run.mark(fallThrough);
+        } else {
+            // Only the system opcodes look at the pc, and a halt has to leave it at the instruction
+            if (op >= Instruction.CREATE.getOpcode() || Instruction.isTerminator(op)) {
+                emitSetProgramCounter(run, pool, pc + 1);
+            }
+            run.field(Bytecode.GETSTATIC, pool.field("com/horace/evm/Instruction", "INSTRUCTIONS",
+                "[Lcom/horace/evm/Instruction;"));
+            run.pushInt(pool, op);
+            run.op(Bytecode.AALOAD);
+            run.op(Bytecode.ALOAD_0 + LOCAL_CONTEXT);
+            run.invoke(Bytecode.INVOKEVIRTUAL, pool.method("com/horace/evm/Instruction", "execute", "(" + CONTEXT + ")V"));
+            if (Instruction.isTerminator(op)) {
+                run.op(Bytecode.ICONST_M1);
+                run.op(Bytecode.IRETURN);
+            }
+        }
+    }
+
+    private static void emitRuntimeCall(final Bytecode run, final ConstantPool pool, final String name, final String type) {
+        run.op(Bytecode.ALOAD_0 + LOCAL_CONTEXT);
+        run.op(Bytecode.ALOAD_0 + LOCAL_STACK);
+        if (type.contains(DECODED_CODE)) {
+            run.op(Bytecode.ALOAD_0 + LOCAL_CODE);
+        }
+        run.invoke(Bytecode.INVOKESTATIC, pool.method(RUNTIME, name, type));
+    }
+
+    private static void emitPush(final Bytecode run, final ConstantPool pool,
+            final long l0, final long l1, final long l2, final long l3) {
+        run.op(Bytecode.ALOAD_0 + LOCAL_STACK);
+        run.pushLong(pool, l0);
+        if (l1 == 0 && l2 == 0 && l3 == 0) {
+            run.invoke(Bytecode.INVOKEVIRTUAL, pool.method(STACK_CLASS, "pushUnchecked", "(J)V"));
+            return;
+        }
+        run.pushLong(pool, l1);
+        run.pushLong(pool, l2);
+        run.pushLong(pool, l3);
+        run.invoke(Bytecode.INVOKESTATIC, pool.method(RUNTIME, "push", "(" + STACK + "JJJJ)V"));
+    }
+
+    private static void emitSetProgramCounter(final Bytecode run, final ConstantPool pool, final int pc) {
+        run.op(Bytecode.ALOAD_0 + LOCAL_CONTEXT);
+        run.pushInt(pool, pc);
+        run.invoke(Bytecode.INVOKEVIRTUAL, pool.method(CONTEXT_CLASS, "setProgramCounter", "(I)V"));
+    }
+
+    // Slot after the last instruction of the block starting at the given slot
+    private static int blockEnd(final int[] ops, final int start) {
+        int end = start + 1;
+        while (end < ops.length && ops[end] != DecodedCode.OP_BEGIN_BLOCK) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isCompilable(final int[] ops, final int start, final int end) {
+        for (int i = start + 1; i < end; i++) {
+            if (!isSupported(ops[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int staticTargetBlock(final DecodedCode code, final int pushIndex) {
+        final long[] immediates = code.immediates;
+        final int offset = code.args[pushIndex];
+        if (immediates[offset + 1] != 0 || immediates[offset + 2] != 0 || immediates[offset + 3] != 0
+                || immediates[offset] < 0 || immediates[offset] > Integer.MAX_VALUE) {
+            return -1;
+        }
+        final int slot = code.jumpIndex((int) immediates[offset]);
+        return slot < 0 ? -1 : code.args[slot];
+    }
+
+    private static byte[] writeClass(final ConstantPool pool, final List<byte[]> chunks) {
+        final int thisClass = pool.classRef(CLASS_NAME);
+        final int superClass = pool.classRef(SUPER_CLASS);
+        final int superInit = pool.method(SUPER_CLASS, "<init>", "([I)V");
+        final int codeAttribute = pool.utf8("Code");
+        final int[] chunkMethods = new int[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkMethods[i] = pool.method(CLASS_NAME, "chunk" + i, CHUNK_TYPE);
+        }
+
+        // runChunk(int chunk, context, stack, code, int block) calls the static method of the chunk
+        final Bytecode runChunk = new Bytecode(0, chunks.size(), null);
+        runChunk.op(Bytecode.ILOAD_0 + 1);
+        runChunk.tableSwitch(0, runChunk.blockLabels(), runChunk.blockLabel(0));
+        for (int i = 0; i < chunks.size(); i++) {
+            runChunk.mark(runChunk.blockLabel(i));
+            runChunk.op(Bytecode.ALOAD_0 + 2);
+            runChunk.op(Bytecode.ALOAD_0 + 3);
+            runChunk.load(Bytecode.ALOAD, 4);
+            runChunk.load(Bytecode.ILOAD, 5);
+            runChunk.invoke(Bytecode.INVOKESTATIC, chunkMethods[i]);
+            runChunk.op(Bytecode.IRETURN);
+        }
+        final byte[] init = {0x2A, 0x2B, (byte) 0xB7, (byte) (superInit >> 8), (byte) superInit, (byte) 0xB1};
+
+        final int initName = pool.utf8("<init>");
+        final int initType = pool.utf8("([I)V");
+        final int runChunkName = pool.utf8("runChunk");
+        final int runChunkType = pool.utf8("(I" + CONTEXT + STACK + DECODED_CODE + "I)I");
+        final int chunkType = pool.utf8(CHUNK_TYPE);
+        final int[] chunkNames = new int[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkNames[i] = pool.utf8("chunk" + i);
+        }
+        if (pool.size() > MAX_POOL_SIZE) {
+            return null;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0010 | 0x0020);  // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);  // interfaces
+            out.writeShort(0);  // fields
+            out.writeShort(2 + chunks.size());
+            writeMethod(out, 0x0001, initName, initType, codeAttribute, 2, 2, init);
+            writeMethod(out, 0x0000, runChunkName, runChunkType, codeAttribute, 8, 6, runChunk.toByteArray());
+            for (int i = 0; i < chunks.size(); i++) {
+                // ACC_PRIVATE | ACC_STATIC
+                writeMethod(out, 0x0002 | 0x0008, chunkNames[i], chunkType, codeAttribute, 16, LOCAL_BLOCK + 1, chunks.get(i));
+            }
+            out.writeShort(0);  // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(final DataOutputStream out, final int access, final int name, final int type,
+            final int codeAttribute, final int maxStack, final int maxLocals, final byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);  // exception table
+        out.writeShort(0);  // attributes
+    }
+
+    // Runtime helpers called from the generated code
+
+    // The static gas depends on the schedule of the context, so it is read from the block rather than inlined
+    static void beginBlock(final ExecutionContext context, final Stack stack, final int minStackHeight,
+            final int maxStackGrowth, final DecodedCode code, final int block) {
+        if (stack.size < minStackHeight) {
+            throw new IllegalStateException("Stack underflow");
+        }
+        if (stack.size + maxStackGrowth > stack.maxSize()) {
+            throw new StackOverflowException();
+        }
+        context.useGas(code.blocks[block].getStaticGas(context.getSchedule()));
+    }
+
+    static void push(final Stack stack, final long l0, final long l1, final long l2, final long l3) {
+        final int base = stack.size++ * Stack.LIMBS;
+        stack.words[base] = l0;
+        stack.words[base + 1] = l1;
+        stack.words[base + 2] = l2;
+        stack.words[base + 3] = l3;
+    }
+
+    static boolean popNonZero(final ExecutionContext context, final Stack stack) {
+        return !stack.popUnchecked(context.a).isZero();
+    }
+
+    static int jumpBlock(final ExecutionContext context, final Stack stack, final DecodedCode code) {
+        return code.args[Interpreter.jumpTarget(code, stack.popUnchecked(context.a))];
+    }
+
+    // Block to jump to, or -1 to fall through
+    static int jumpiBlock(final ExecutionContext context, final Stack stack, final DecodedCode code) {
+        stack.popUnchecked(context.a);
+        if (stack.popUnchecked(context.b).isZero()) {
+            return -1;
+        }
+        return code.args[Interpreter.jumpTarget(code, context.a)];
+    }
+
+    /**
+     * Constant pool of the generated class, entries are deduplicated.
+     */
+    private static final class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(final String value) {
+            return entry("U" + value, 1, 1, () -> out.writeUTF(value));
+        }
+
+        int classRef(final String name) {
+            final int nameIndex = utf8(name);
+            return entry("C" + name, 7, 1, () -> out.writeShort(nameIndex));
+        }
+
+        int method(final String owner, final String name, final String type) {
+            return member(10, owner, name, type);
+        }
+
+        int field(final String owner, final String name, final String type) {
+            return member(9, owner, name, type);
+        }
+
+        int integer(final int value) {
+            return entry("I" + value, 3, 1, () -> out.writeInt(value));
+        }
+
+        int longValue(final long value) {
+            // Long entries take two slots
+            return entry("J" + value, 5, 2, () -> out.writeLong(value));
+        }
+
+        int size() {
+            return count;
+        }
+
+        private int member(final int tag, final String owner, final String name, final String type) {
+            final int classIndex = classRef(owner);
+            final int nameIndex = utf8(name);
+            final int typeIndex = utf8(type);
+            final int nameAndType = entry("N" + name + ":" + type, 12, 1, () -> {
+                out.writeShort(nameIndex);
+                out.writeShort(typeIndex);
+            });
+            return entry(tag + owner + "." + name + ":" + type, tag, 1, () -> {
+                out.writeShort(classIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(final String key, final int tag, final int slots, final EntryWriter writer) {
+            final Integer existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                out.writeByte(tag);
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            final int index = count;
+            count += slots;
+            entries.put(key, index);
+            return index;
+        }
+
+        void write(final DataOutputStream dest) throws IOException {
+            dest.writeShort(count);
+            out.flush();
+            bytes.writeTo(dest);
+        }
+
+        private interface EntryWriter {
+            void write() throws IOException;
+        }
+    }
+
+    /**
+     * Method body covering blocks [firstBlock, endBlock). Jumps to those blocks use goto_w so offsets never
+     * overflow, jumps to other blocks return {@link CompiledCode#continueAt(int)}. Conditional branches only
+     * ever skip the jump right after them and use the short forms.
+     */
+    private static final class Bytecode {
+
+        static final int ICONST_M1 = 0x02;
+        static final int ICONST_0 = 0x03;
+        static final int ILOAD = 0x15;
+        static final int ALOAD = 0x19;
+        static final int ILOAD_0 = 0x1A;
+        static final int ALOAD_0 = 0x2A;
+        static final int AALOAD = 0x32;
+        static final int ISTORE_0 = 0x3B;
+        static final int IADD = 0x60;
+        static final int INEG = 0x74;
+        static final int IFEQ = 0x99;
+        static final int IFLT = 0x9B;
+        static final int IRETURN = 0xAC;
+        static final int GETSTATIC = 0xB2;
+        static final int INVOKEVIRTUAL = 0xB6;
+        static final int INVOKESTATIC = 0xB8;
+        private static final int BIPUSH = 0x10;
+        private static final int SIPUSH = 0x11;
+        private static final int LDC_W = 0x13;
+        private static final int LDC2_W = 0x14;
+        private static final int LCONST_0 = 0x09;
+        private static final int TABLESWITCH = 0xAA;
+        private static final int GOTO_W = 0xC8;
+
+        private final int firstBlock;
+        private final int endBlock;
+        private final int[] blockLabels;
+        private byte[] code = new byte[1024];
+        private int length = 0;
+        private final List<Integer> labels = new ArrayList<>();
+        // (instruction start, offset position, label, offset width)
+        private final List<int[]> fixups = new ArrayList<>();
+        private int dispatch = -1;
+
+        /**
+         * @param firstBlock
+         * @param endBlock
+         * @param blockLabels labels to share when only measuring, null to create one per block
+         */
+        Bytecode(final int firstBlock, final int endBlock, final int[] blockLabels) {
+            this.firstBlock = firstBlock;
+            this.endBlock = endBlock;
+            if (blockLabels != null) {
+                this.blockLabels = blockLabels;
+            } else {
+                this.blockLabels = new int[endBlock - firstBlock];
+                for (int i = 0; i < this.blockLabels.length; i++) {
+                    this.blockLabels[i] = newLabel();
+                }
+            }
+        }
+
+        int[] blockLabels() {
+            return blockLabels;
+        }
+
+        int blockLabel(final int block) {
+            return blockLabels[block - firstBlock];
+        }
+
+        int newLabel() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        void mark(final int label) {
+            labels.set(label, length);
+        }
+
+        void op(final int opcode) {
+            u1(opcode);
+        }
+
+        void load(final int opcode, final int local) {
+            u1(opcode);
+            u1(local);
+        }
+
+        void invoke(final int opcode, final int index) {
+            u1(opcode);
+            u2(index);
+        }
+
+        void field(final int opcode, final int index) {
+            u1(opcode);
+            u2(index);
+        }
+
+        void pushInt(final ConstantPool pool, final int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(pool.integer(value));
+            }
+        }
+
+        void pushLong(final ConstantPool pool, final long value) {
+            if (value == 0 || value == 1) {
+                u1(LCONST_0 + (int) value);
+            } else {
+                u1(LDC2_W);
+                u2(pool.longValue(value));
+            }
+        }
+
+        void branch(final int opcode, final int label) {
+            final int start = length;
+            u1(opcode);
+            fixups.add(new int[] {start, length, label, 2});
+            u2(0);
+        }
+
+        void jumpToBlock(final ConstantPool pool, final int block) {
+            if (block >= firstBlock && block < endBlock) {
+                jump(blockLabel(block));
+            } else {
+                pushInt(pool, CompiledCode.continueAt(block));
+                u1(IRETURN);
+            }
+        }
+
+        void markDispatch() {
+            dispatch = newLabel();
+            mark(dispatch);
+        }
+
+        void jumpToDispatch() {
+            if (dispatch < 0) {
+                // Only measuring, the target does not matter
+                dispatch = newLabel();
+            }
+            jump(dispatch);
+        }
+
+        private void jump(final int label) {
+            final int start = length;
+            u1(GOTO_W);
+            fixups.add(new int[] {start, length, label, 4});
+            u4(0);
+        }
+
+        void tableSwitch(final int low, final int[] targets, final int defaultLabel) {
+            final int start = length;
+            u1(TABLESWITCH);
+            while (length % 4 != 0) {
+                u1(0);
+            }
+            fixups.add(new int[] {start, length, defaultLabel, 4});
+            u4(0);
+            u4(low);
+            u4(low + targets.length - 1);
+            for (int target : targets) {
+                fixups.add(new int[] {start, length, target, 4});
+                u4(0);
+            }
+        }
+
+        byte[] toByteArray() {
+            for (int[] fixup : fixups) {
+                final int offset = labels.get(fixup[2]) - fixup[0];
+                int at = fixup[1];
+                for (int shift = (fixup[3] - 1) * 8; shift >= 0; shift -= 8) {
+                    code[at++] = (byte) (offset >>> shift);
+                }
+            }
+            return Arrays.copyOf(code, length);
+        }
+
+        private void u1(final int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(final int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        private void u4(final int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+    }
+
+}
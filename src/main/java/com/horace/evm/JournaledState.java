@@ -0,0 +1,409 @@
+package com.horace.evm;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transaction-local overlay above a {@link WorldState}, usually {@link GlobalState}.
+ * <p>
+ * Reads fall through to the backing store until a value is written; writes only go to the overlay and
+ * append the value they replace to a journal. A snapshot is the current journal length, and reverting
+ * to it undoes the newer entries in reverse order, so nested frames never copy state. The backing store
+ * is only written by {@link #commit()}, so a failed transaction costs nothing there.
+ * Transient storage and the EIP-2929 access sets are journaled the same way and cleared when the
+ * transaction commits or is discarded, in constant time, so one instance is reused for transaction after
+ * transaction through {@link #reset(WorldState)}. Committed slot values are read from the backing store at most
+ * once per transaction and then served from {@link AccessSets}.
+ * Code deployed in the transaction is kept by hash until commit; being content addressed, it needs no
+ * journal entry, a reverted deployment only leaves code that no account refers to.
+ * Logs are journaled too, so a reverted frame drops the logs it emitted.
+ * <p>
+ * Accounts returned by {@link #getAccount(byte[])} must be treated as read only; changes go through
+ * {@link #putAccount(byte[], Account)} or {@link #setBalance(byte[], BigInteger)} so they are journaled.
+ */
+public class JournaledState {
+
+    // Overlay value of an account removed in this transaction
+    private static final Account REMOVED = new Account(null, CodeStore.EMPTY_CODE_HASH, 0);
+
+    private WorldState world;
+
+    private final Map<Address, Account> accounts = new HashMap<>();
+    private final Map<SlotKey, UInt256> slots = new HashMap<>();
+    private final Map<Hash, byte[]> codes = new HashMap<>();
+    private final TransientStorage transientStorage = new TransientStorage();
+    private final AccessSets accessSets = new AccessSets();
+    private final List<Log> logs = new ArrayList<>();
+    private final List<Entry> journal = new ArrayList<>();
+    // Scratch words for transient storage, so a TSTORE does not allocate them
+    private final UInt256 transientSlot = new UInt256();
+    private final UInt256 transientValue = new UInt256();
+
+    public JournaledState(final WorldState world) {
+        this.world = world;
+    }
+
+    /**
+     * Drops every change and starts over on the given world state, keeping the tables of the previous
+     * transaction.
+     * @param world
+     */
+    public void reset(final WorldState world) {
+        discard();
+        this.world = world;
+    }
+
+    public Account getAccount(final byte[] address) {
+        final Account account = accounts.get(new Address(address));
+        if (account == null) {
+            return world.getAccount(address);
+        }
+        return account == REMOVED ? Account.NULL_ACCOUNT : account;
+    }
+
+    public void putAccount(final byte[] address, final Account account) {
+        final Address key = new Address(address);
+        journal.add(new AccountChange(key, accounts.put(key, account)));
+    }
+
+    public void removeAccount(final byte[] address) {
+        putAccount(address, REMOVED);
+    }
+
+    public void setBalance(final byte[] address, final BigInteger balance) {
+        final Account account = getAccount(address);
+        putAccount(address, account.withBalance(balance));
+    }
+
+    /**
+     * Returns the code of the account at the given address, which must not be modified.
+     * @param address
+     * @return
+     */
+    public byte[] getCode(final byte[] address) {
+        return getCode(getAccount(address).getCodeHash());
+    }
+
+    public byte[] getCode(final Hash codeHash) {
+        final byte[] code = codes.get(codeHash);
+        return code == null ? world.getCode(codeHash) : code;
+    }
+
+    /**
+     * Hashes the code once and keeps it until commit, returning the hash for the deployed account.
+     * @param code
+     * @return
+     */
+    public Hash deployCode(final byte[] code) {
+        final Hash codeHash = Hash.keccak256(code);
+        codes.put(codeHash, code);
+        return codeHash;
+    }
+
+    /**
+     * Reads the slot into the given word and returns it.
+     * @param address
+     * @param slot
+     * @param into
+     * @return
+     */
+    public UInt256 load(final byte[] address, final UInt256 slot, final UInt256 into) {
+        final UInt256 value = slots.get(new SlotKey(address, slot));
+        return value == null ? loadOriginal(address, slot, into) : into.set(value);
+    }
+
+    /**
+     * Reads the value the slot had at the start of the transaction into the given word and returns it.
+     * @param address
+     * @param slot
+     * @param into
+     * @return
+     */
+    public UInt256 loadOriginal(final byte[] address, final UInt256 slot, final UInt256 into) {
+        if (!accessSets.getCachedValue(address, slot, into)) {
+            world.load(address, slot, into);
+            accessSets.cacheValue(address, slot, into);
+        }
+        return into;
+    }
+
+    public void store(final byte[] address, final UInt256 slot, final UInt256 value) {
+        final SlotKey key = new SlotKey(address, slot);
+        journal.add(new SlotChange(key, slots.put(key, new UInt256().set(value))));
+    }
+
+    public UInt256 loadTransient(final byte[] address, final UInt256 slot, final UInt256 into) {
+        return transientStorage.load(address, slot, into);
+    }
+
+    public void storeTransient(final byte[] address, final UInt256 slot, final UInt256 value) {
+        final UInt256 previous = transientStorage.load(address, slot, transientValue);
+        journal.add(new TransientChange(address, slot, previous));
+        transientStorage.store(address, slot, value);
+    }
+
+    public void addLog(final Log log) {
+        logs.add(log);
+        journal.add(LogAdded.INSTANCE);
+    }
+
+    /**
+     * Returns the logs emitted so far in this transaction.
+     * @return
+     */
+    public List<Log> getLogs() {
+        return List.copyOf(logs);
+    }
+
+    // The log added last, for tracers
+    Log lastLog() {
+        return logs.get(logs.size() - 1);
+    }
+
+    /**
+     * Warms up what every transaction starts with: sender, recipient, precompiles, the access list and,
+     * since Shanghai, the coinbase (EIP-3651). This is not journaled, a revert never makes them cold again.
+     * @param tx
+     * @param block the block the transaction is in, may be null
+     * @param schedule
+     */
+    public void beginTransaction(final TxData tx, final Block block, final GasSchedule schedule) {
+        accessSets.warm(tx.getOrigin());
+        accessSets.warm(tx.getTo());
+        if (block != null && block.getCoinbase() != null && schedule.isAtLeast(GasSchedule.SHANGHAI)) {
+            accessSets.warm(block.getCoinbase());
+        }
+        final byte[] precompile = new byte[Address.ADDRESS_LENGTH];
+        for (int i = 1; i <= GasSchedule.PRECOMPILE_COUNT; i++) {
+            precompile[Address.ADDRESS_LENGTH - 1] = (byte) i;
+            accessSets.warm(precompile);
+        }
+        for (AccessListEntry entry : tx.getAccessList()) {
+            accessSets.warm(entry.getAddress());
+            for (UInt256 slot : entry.getStorageKeys()) {
+                accessSets.warm(entry.getAddress(), slot);
+            }
+        }
+    }
+
+    /**
+     * Marks the address accessed and returns true if it was cold until now.
+     * @param address
+     * @return
+     */
+    public boolean warmAccount(final byte[] address) {
+        if (!accessSets.warm(address)) {
+            return false;
+        }
+        journal.add(new AccountWarmed(address));
+        return true;
+    }
+
+    /**
+     * Marks the slot accessed and returns true if it was cold until now.
+     * @param address
+     * @param slot
+     * @return
+     */
+    public boolean warmSlot(final byte[] address, final UInt256 slot) {
+        if (!accessSets.warm(address, slot)) {
+            return false;
+        }
+        journal.add(new SlotWarmed(address, new UInt256().set(slot)));
+        return true;
+    }
+
+    /**
+     * Returns a handle to the current state that {@link #revert(int)} can return to.
+     * @return
+     */
+    public int snapshot() {
+        return journal.size();
+    }
+
+    /**
+     * Undoes every change made since the snapshot was taken.
+     * @param snapshot
+     */
+    public void revert(final int snapshot) {
+        if (snapshot < 0 || snapshot > journal.size()) {
+            throw new IllegalArgumentException("Invalid snapshot: " + snapshot);
+        }
+        for (int i = journal.size() - 1; i >= snapshot; i--) {
+            journal.remove(i).revert(this);
+        }
+    }
+
+    /**
+     * Writes the overlay to the backing store and starts over with an empty journal.
+     */
+    public void commit() {
+        world.atomically(this::write);
+        discard();
+    }
+
+    /**
+     * Drops every change without writing it.
+     */
+    public void discard() {
+        accounts.clear();
+        slots.clear();
+        codes.clear();
+        transientStorage.clear();
+        accessSets.clear();
+        logs.clear();
+        journal.clear();
+    }
+
+    private void write() {
+        for (Map.Entry<Hash, byte[]> entry : codes.entrySet()) {
+            world.putCode(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Address, Account> entry : accounts.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                world.removeAccount(entry.getKey().getAddress());
+            } else {
+                world.putAccount(entry.getKey().getAddress(), entry.getValue());
+            }
+        }
+        for (Map.Entry<SlotKey, UInt256> entry : slots.entrySet()) {
+            world.store(entry.getKey().address(), entry.getKey().slot(), entry.getValue());
+        }
+    }
+
+    public int getJournalSize() {
+        return journal.size();
+    }
+
+    private interface Entry {
+        void revert(JournaledState state);
+    }
+
+    // The previous overlay values, null when the key was not in the overlay yet
+
+    private static final class AccountChange implements Entry {
+
+        private final Address address;
+        private final Account previous;
+
+        AccountChange(final Address address, final Account previous) {
+            this.address = address;
+            this.previous = previous;
+        }
+
+        @Override
+        public void revert(final JournaledState state) {
+            if (previous == null) {
+                state.accounts.remove(address);
+            } else {
+                state.accounts.put(address, previous);
+            }
+        }
+    }
+
+    private static final class SlotChange implements Entry {
+
+        private final SlotKey key;
+        private final UInt256 previous;
+
+        SlotChange(final SlotKey key, final UInt256 previous) {
+            this.key = key;
+            this.previous = previous;
+        }
+
+        @Override
+        public void revert(final JournaledState state) {
+            if (previous == null) {
+                state.slots.remove(key);
+            } else {
+                state.slots.put(key, previous);
+            }
+        }
+    }
+
+    // Limbs rather than words, a TSTORE allocates nothing but the entry
+    private static final class TransientChange implements Entry {
+
+        private final byte[] address;
+        private final long s0;
+        private final long s1;
+        private final long s2;
+        private final long s3;
+        private final long p0;
+        private final long p1;
+        private final long p2;
+        private final long p3;
+
+        TransientChange(final byte[] address, final UInt256 slot, final UInt256 previous) {
+            this.address = address;
+            s0 = slot.u0;
+            s1 = slot.u1;
+            s2 = slot.u2;
+            s3 = slot.u3;
+            p0 = previous.u0;
+            p1 = previous.u1;
+            p2 = previous.u2;
+            p3 = previous.u3;
+        }
+
+        @Override
+        public void revert(final JournaledState state) {
+            final UInt256 slot = state.transientSlot;
+            slot.u0 = s0;
+            slot.u1 = s1;
+            slot.u2 = s2;
+            slot.u3 = s3;
+            final UInt256 previous = state.transientValue;
+            previous.u0 = p0;
+            previous.u1 = p1;
+            previous.u2 = p2;
+            previous.u3 = p3;
+            state.transientStorage.store(address, slot, previous);
+        }
+    }
+
+    private static final class AccountWarmed implements Entry {
+
+        private final byte[] address;
+
+        AccountWarmed(final byte[] address) {
+            this.address = address;
+        }
+
+        @Override
+        public void revert(final JournaledState state) {
+            state.accessSets.cool(address);
+        }
+    }
+
+    private static final class SlotWarmed implements Entry {
+
+        private final byte[] address;
+        private final UInt256 slot;
+
+        SlotWarmed(final byte[] address, final UInt256 slot) {
+            this.address = address;
+            this.slot = slot;
+        }
+
+        @Override
+        public void revert(final JournaledState state) {
+            state.accessSets.cool(address, slot);
+        }
+    }
+
+    private static final class LogAdded implements Entry {
+
+        // Logs are only ever appended, so undoing one removes the last
+        static final LogAdded INSTANCE = new LogAdded();
+
+        @Override
+        public void revert(final JournaledState state) {
+            state.logs.remove(state.logs.size() - 1);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.horace.evm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bouncycastle.crypto.digests.KeccakDigest;
+
+/**
+ * Keccak-256 with one reusable digest per thread, hashing straight from a byte range into a word.
+ * <p>
+ * 32- and 64-byte inputs, which is what Solidity hashes for every mapping and dynamic array access,
+ * go through a small direct-mapped memo per thread first. Entries are pure functions of their input,
+ * so the memo never needs invalidating; a colliding input simply replaces the entry.
+ * Hits and misses of the memo are counted across threads.
+ */
+public final class KeccakHasher {
+
+    public static final int HASH_LENGTH = 32;
+
+    // Entries per thread, a power of two
+    private static final int MEMO_SIZE = 512;
+    private static final int MAX_MEMO_LIMBS = 8;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private KeccakHasher() {
+    }
+
+    public static byte[] hash(final byte[] data) {
+        return hash(data, 0, data.length);
+    }
+
+    public static byte[] hash(final byte[] data, final int offset, final int length) {
+        final State state = STATE.get();
+        final byte[] out = new byte[HASH_LENGTH];
+        if (length == 32 || length == 64) {
+            final UInt256 word = hash(data, offset, length, new UInt256());
+            word.toBytes(out, 0);
+        } else {
+            state.digest.update(data, offset, length);
+            state.digest.doFinal(out, 0);
+        }
+        return out;
+    }
+
+    /**
+     * Hashes the byte range into the given word and returns it, without allocating.
+     * @param data
+     * @param offset
+     * @param length
+     * @param into
+     * @return
+     */
+    public static UInt256 hash(final byte[] data, final int offset, final int length, final UInt256 into) {
+        final State state = STATE.get();
+        if (length != 32 && length != 64) {
+            return state.digest(data, offset, length, into);
+        }
+        final int limbs = length / 8;
+        long mix = length;
+        for (int i = 0; i < limbs; i++) {
+            mix = mix * 0x9E3779B97F4A7C15L + (long) LONGS.get(data, offset + i * 8);
+        }
+        final int index = (int) (mix ^ (mix >>> 29)) & (MEMO_SIZE - 1);
+        final int key = index * MAX_MEMO_LIMBS;
+        if (state.lengths[index] == length && matches(state.inputs, key, data, offset, limbs)) {
+            hits.increment();
+            final int value = index * Stack.LIMBS;
+            into.u0 = state.outputs[value];
+            into.u1 = state.outputs[value + 1];
+            into.u2 = state.outputs[value + 2];
+            into.u3 = state.outputs[value + 3];
+            return into;
+        }
+        misses.increment();
+        state.digest(data, offset, length, into);
+        for (int i = 0; i < limbs; i++) {
+            state.inputs[key + i] = (long) LONGS.get(data, offset + i * 8);
+        }
+        state.lengths[index] = (byte) length;
+        final int value = index * Stack.LIMBS;
+        state.outputs[value] = into.u0;
+        state.outputs[value + 1] = into.u1;
+        state.outputs[value + 2] = into.u2;
+        state.outputs[value + 3] = into.u3;
+        return into;
+    }
+
+    public static long hitCount() {
+        return hits.sum();
+    }
+
+    public static long missCount() {
+        return misses.sum();
+    }
+
+    public static double hitRate() {
+        final long hit = hits.sum();
+        final long total = hit + misses.sum();
+        return total == 0 ? 0.0 : (double) hit / total;
+    }
+
+    public static String stats() {
+        return String.format("KeccakHasher{hits=%d, misses=%d, hitRate=%.3f}", hitCount(), missCount(), hitRate());
+    }
+
+    private static boolean matches(final long[] inputs, final int key, final byte[] data, final int offset,
+            final int limbs) {
+        for (int i = 0; i < limbs; i++) {
+            if (inputs[key + i] != (long) LONGS.get(data, offset + i * 8)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class State {
+
+        final KeccakDigest digest = new KeccakDigest(256);
+        final byte[] out = new byte[HASH_LENGTH];
+        final long[] inputs = new long[MEMO_SIZE * MAX_MEMO_LIMBS];
+        // Length of the input held by each entry, zero when empty
+        final byte[] lengths = new byte[MEMO_SIZE];
+        final long[] outputs = new long[MEMO_SIZE * Stack.LIMBS];
+
+        UInt256 digest(final byte[] data, final int offset, final int length, final UInt256 into) {
+            digest.update(data, offset, length);
+            digest.doFinal(out, 0);
+            into.u3 = (long) LONGS.get(out, 0);
+            into.u2 = (long) LONGS.get(out, 8);
+            into.u1 = (long) LONGS.get(out, 16);
+            into.u0 = (long) LONGS.get(out, 24);
+            return into;
+        }
+    }
+
+}
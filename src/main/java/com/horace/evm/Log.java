@@ -0,0 +1,19 @@
+package com.horace.evm;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An event emitted by LOG0 to LOG4: the emitting contract, up to four 32-byte topics and the data.
+ */
+@AllArgsConstructor
+@Getter
+public class Log {
+
+    private final byte[] address;
+    private final List<byte[]> topics;
+    private final byte[] data;
+
+}
@@ -0,0 +1,221 @@
+package com.horace.evm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Size-bounded LRU cache that is safe for concurrent use.
+ * Entries are spread over independently locked segments, each an access-ordered LinkedHashMap
+ * evicting its own least recently used entry, so readers on different keys rarely contend.
+ * Hits, misses and evictions are counted.
+ */
+public class LruCache<K, V> {
+
+    private static final int DEFAULT_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final BiConsumer<K, V> evictionListener;
+
+    public LruCache(final int capacity) {
+        this(capacity, (k, v) -> { });
+    }
+
+    /**
+     * @param capacity maximum number of entries held across all segments
+     * @param evictionListener called with each evicted entry, while its segment is locked
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(final int capacity, final BiConsumer<K, V> evictionListener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid cache capacity: " + capacity);
+        }
+        final int count = Math.min(DEFAULT_SEGMENTS, capacity);
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(capacity / count + (i < capacity % count ? 1 : 0), this);
+        }
+        this.evictionListener = evictionListener;
+    }
+
+    public V get(final K key) {
+        final V value = segmentFor(key).get(key);
+        (value != null ? hits : misses).increment();
+        return value;
+    }
+
+    /**
+     * Returns the cached value, computing and caching it on a miss. The value is computed outside
+     * the segment lock, so two threads missing on the same key may both compute it; the first one
+     * stored wins.
+     * @param key
+     * @param loader
+     * @return
+     */
+    public V computeIfAbsent(final K key, final Function<K, V> loader) {
+        final Segment<K, V> segment = segmentFor(key);
+        final V cached = segment.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        final V value = loader.apply(key);
+        return segment.putIfAbsent(key, value);
+    }
+
+    public void put(final K key, final V value) {
+        segmentFor(key).put(key, value);
+    }
+
+    public V remove(final K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Applies the action to every cached entry, one segment at a time under its lock.
+     * @param action
+     */
+    public void forEach(final BiConsumer<K, V> action) {
+        for (final Segment<K, V> segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+    public void clear() {
+        for (final Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        final long hit = hits.sum();
+        final long total = hit + misses.sum();
+        return total == 0 ? 0.0 : (double) hit / total;
+    }
+
+    public String toString() {
+        return String.format("LruCache{size=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f}",
+            size(), hitCount(), missCount(), evictionCount(), hitRate());
+    }
+
+    private Segment<K, V> segmentFor(final K key) {
+        final int h = key.hashCode();
+        return segments[((h ^ (h >>> 16)) & 0x7FFFFFFF) % segments.length];
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+        private final LruCache<K, V> owner;
+
+        Segment(final int capacity, final LruCache<K, V> owner) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.owner = owner;
+        }
+
+        @Override
+        public V get(final Object key) {
+            lock.lock();
+            try {
+                return super.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public V put(final K key, final V value) {
+            lock.lock();
+            try {
+                return super.put(key, value);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public V putIfAbsent(final K key, final V value) {
+            lock.lock();
+            try {
+                final V existing = super.get(key);
+                if (existing != null) {
+                    return existing;
+                }
+                super.put(key, value);
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public V remove(final Object key) {
+            lock.lock();
+            try {
+                return super.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void forEach(final BiConsumer<? super K, ? super V> action) {
+            lock.lock();
+            try {
+                super.forEach(action);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void clear() {
+            lock.lock();
+            try {
+                super.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                owner.evictions.increment();
+                owner.evictionListener.accept(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -1,6 +1,10 @@
 package com.horace.evm;
 
-import java.nio.ByteBuffer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HexFormat;
 
 /**
@@ -10,82 +14,279 @@ import java.util.HexFormat;
 // The memory is expanded by a word (32 bytes) at a time. Memory expansion costs gas.
 // The memory size is always a multiple of 32 bytes.
 // The memory starts empty at the beginning of every instance execution.
- * 
+ *
+ * The logical size (MSIZE) is tracked apart from the capacity of the backing array, which grows
+ * geometrically so a run of ascending writes copies the array only a logarithmic number of times.
+ * Everything past the logical size is kept zeroed, which makes expansion itself free.
+ * The gas cost of the current size is cached, so pricing an expansion is a single subtraction.
+ * Backing arrays are handed back to a small per-thread pool by {@link #release()}.
  */
 public class Memory {
 
     private static final int WORD_SIZE_IN_BYTE = 256 / 8;
 
-    private ByteBuffer memory = ByteBuffer.allocate(0);
     private static final String INVALID_MEMORY_OFFSET = "Invalid memory offset";
     private static final String INVALID_MEMORY_VALUE_SIZE = "Invalid memory value size";
 
-    //private final List<byte[]> memory = new ArrayList<>();
+    // Largest word aligned size a byte array can hold
+    private static final long MAX_SIZE = (Integer.MAX_VALUE - 8) & ~(WORD_SIZE_IN_BYTE - 1L);
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int POOL_SIZE = 4;
+    // Larger arrays are left to the garbage collector instead of being kept alive by the pool
+    private static final int MAX_POOLED_CAPACITY = 1 << 20;
+    private static final ThreadLocal<ArrayDeque<byte[]>> POOL = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private byte[] memory = EMPTY;
+    private int size = 0;
+    // GasSchedule.memoryCost of the current size
+    private long cost = 0;
 
     public void store(final int offset, final byte[] value) {
         store(offset, value, WORD_SIZE_IN_BYTE);
     }
 
+    /**
+     * Writes size bytes at offset: the start of value, zero padded if value is shorter.
+     * @param offset
+     * @param value
+     * @param size
+     */
     public void store(final int offset, final byte[] value, final int size) {
-        if (offset < 0) {
-            throw new IllegalArgumentException(INVALID_MEMORY_OFFSET);
+        if (size < 0) {
+            throw new IllegalArgumentException(INVALID_MEMORY_VALUE_SIZE);
         }
+        copyFrom(offset, value, 0, size);
+    }
 
-        checkIfMemoryNeedsExpansion(offset, size);
-
-        byte[] word = new byte[WORD_SIZE_IN_BYTE];
-        System.arraycopy(value, 0, word, 0, Math.min(value.length, word.length));
-        this.memory.put(word);
+    public void storeByte(final int offset, final byte value) {
+        expand(offset, 1);
+        memory[offset] = value;
     }
 
+    /**
+     * Writes the word as 32 big-endian bytes, straight from its limbs.
+     * @param offset
+     * @param word
+     */
+    public void storeWord(final int offset, final UInt256 word) {
+        expand(offset, WORD_SIZE_IN_BYTE);
+        LONGS.set(memory, offset, word.u3);
+        LONGS.set(memory, offset + 8, word.u2);
+        LONGS.set(memory, offset + 16, word.u1);
+        LONGS.set(memory, offset + 24, word.u0);
+    }
 
     public byte[] load(final int offset) {
         return load(offset, WORD_SIZE_IN_BYTE);
     }
 
     public byte[] load(final int offset, final int size) {
-        if (offset < 0) {
-            throw new IllegalArgumentException(INVALID_MEMORY_OFFSET);
+        if (size < 0) {
+            throw new IllegalArgumentException(INVALID_MEMORY_VALUE_SIZE);
         }
         if (size == 0) {
             return new byte[0];
         }
+        expand(offset, size);
+        return Arrays.copyOfRange(memory, offset, offset + size);
+    }
+
+    /**
+     * Reads the 32 bytes at offset into the given word and returns it.
+     * @param offset
+     * @param into
+     * @return
+     */
+    public UInt256 loadWord(final int offset, final UInt256 into) {
+        expand(offset, WORD_SIZE_IN_BYTE);
+        into.u3 = (long) LONGS.get(memory, offset);
+        into.u2 = (long) LONGS.get(memory, offset + 8);
+        into.u1 = (long) LONGS.get(memory, offset + 16);
+        into.u0 = (long) LONGS.get(memory, offset + 24);
+        return into;
+    }
+
+    /**
+     * Hashes size bytes at offset into the given word and returns it, without copying them out first.
+     * @param offset
+     * @param size
+     * @param into
+     * @return
+     */
+    public UInt256 keccak(final int offset, final int size, final UInt256 into) {
+        if (size < 0) {
+            throw new IllegalArgumentException(INVALID_MEMORY_VALUE_SIZE);
+        }
+        expand(offset, size);
+        return KeccakHasher.hash(memory, size == 0 ? 0 : offset, size, into);
+    }
 
-        checkIfMemoryNeedsExpansion(offset, size);
+    /**
+     * Copies length bytes of source starting at sourceOffset to offset. Bytes past the end of source
+     * read as zero, as CALLDATACOPY, CODECOPY and EXTCODECOPY require.
+     * @param offset
+     * @param source
+     * @param sourceOffset
+     * @param length
+     */
+    public void copyFrom(final int offset, final byte[] source, final int sourceOffset, final int length) {
+        if (length == 0) {
+            return;
+        }
+        expand(offset, length);
+        final int available = (int) Math.max(0, Math.min(length, (long) source.length - sourceOffset));
+        if (available > 0) {
+            System.arraycopy(source, sourceOffset, memory, offset, available);
+        }
+        Arrays.fill(memory, offset + available, offset + length, (byte) 0);
+    }
 
-        byte[] output = new byte[size];
-        for (int i = 0; i < size; i++) {
-            output[i] = this.memory.get(offset + i);
+    /**
+     * Writes length bytes at offset from the slice, starting at sourceOffset and zero padded past its end.
+     * @param offset
+     * @param source
+     * @param sourceOffset
+     * @param length
+     */
+    public void copyFrom(final int offset, final ByteSlice source, final int sourceOffset, final int length) {
+        if (length == 0) {
+            return;
         }
-        return output;
+        expand(offset, length);
+        source.copyTo(sourceOffset, memory, offset, length);
     }
 
-    private boolean checkIfMemoryNeedsExpansion(final int offset, final int size) {
-        final int overflow = (int) (Math.ceil((double) (offset + size) / 32) * 32 - this.size());
-        if (overflow > 0) {
-            ByteBuffer newMemory = ByteBuffer.allocate(this.size() + overflow);
-            this.memory.rewind(); // Reset position to 0
-            newMemory.put(this.memory);
-            this.memory = newMemory;
+    /**
+     * Points the slice at [offset, offset + size) of the memory, which must already cover it.
+     * The slice is only valid until the memory grows or is released.
+     * @param offset
+     * @param size
+     * @param into
+     * @return
+     */
+    public ByteSlice slice(final int offset, final int size, final ByteSlice into) {
+        return size == 0 ? into.clear() : into.set(memory, offset, size);
+    }
+
+    /**
+     * Copies within memory, the ranges may overlap (MCOPY).
+     * @param offset
+     * @param sourceOffset
+     * @param length
+     */
+    public void copy(final int offset, final int sourceOffset, final int length) {
+        if (length == 0) {
+            return;
         }
-        return overflow > 0;
+        expand(Math.max(offset, sourceOffset), length);
+        System.arraycopy(memory, sourceOffset, memory, offset, length);
+    }
+
+    /**
+     * Returns the gas needed to grow the memory to cover [offset, offset + length), zero if it already does.
+     * @param offset
+     * @param length
+     * @return
+     */
+    public long expansionCost(final int offset, final int length) {
+        if (offset < 0) {
+            throw new IllegalArgumentException(INVALID_MEMORY_OFFSET);
+        }
+        if (length == 0) {
+            return 0;
+        }
+        final long end = (long) offset + length;
+        if (end <= size) {
+            return 0;
+        }
+        return GasSchedule.memoryCost(GasSchedule.wordCount(end)) - cost;
+    }
+
+    /**
+     * Grows the logical size to cover [offset, offset + length), rounded up to whole words.
+     * A zero length never expands, whatever the offset.
+     * @param offset
+     * @param length
+     */
+    public void expand(final int offset, final int length) {
+        if (offset < 0) {
+            throw new IllegalArgumentException(INVALID_MEMORY_OFFSET);
+        }
+        if (length == 0) {
+            return;
+        }
+        final long end = (long) offset + length;
+        if (end <= size) {
+            return;
+        }
+        final long newSize = (end + WORD_SIZE_IN_BYTE - 1) & ~(WORD_SIZE_IN_BYTE - 1L);
+        if (newSize > MAX_SIZE) {
+            throw new IllegalArgumentException(INVALID_MEMORY_VALUE_SIZE);
+        }
+        if (newSize > memory.length) {
+            grow((int) newSize);
+        }
+        size = (int) newSize;
+        cost = GasSchedule.memoryCost(newSize / WORD_SIZE_IN_BYTE);
+    }
+
+    private void grow(final int minCapacity) {
+        final long doubled = Math.max((long) memory.length * 2, INITIAL_CAPACITY);
+        final int capacity = (int) Math.min(Math.max(doubled, minCapacity), MAX_SIZE);
+        byte[] grown = memory == EMPTY ? acquire(capacity) : null;
+        if (grown == null) {
+            grown = new byte[capacity];
+            System.arraycopy(memory, 0, grown, 0, size);
+        }
+        memory = grown;
+    }
+
+    private static byte[] acquire(final int capacity) {
+        final ArrayDeque<byte[]> pool = POOL.get();
+        for (byte[] pooled : pool) {
+            if (pooled.length >= capacity) {
+                pool.remove(pooled);
+                return pooled;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Empties the memory and hands its backing array to the pool of the current thread.
+     * The memory can still be used afterwards, starting from size zero.
+     */
+    public void release() {
+        if (memory != EMPTY) {
+            Arrays.fill(memory, 0, size, (byte) 0);
+            final ArrayDeque<byte[]> pool = POOL.get();
+            if (memory.length <= MAX_POOLED_CAPACITY && pool.size() < POOL_SIZE) {
+                pool.push(memory);
+            }
+        }
+        memory = EMPTY;
+        size = 0;
+        cost = 0;
     }
 
     public String toString() {
         final StringBuilder dump = new StringBuilder();
-        for (int i = 0; i < this.memory.position(); i += 32) {
-            int end = Math.min(i + 32, this.memory.position());
-            byte[] word = new byte[end - i];
-            for (int j = 0; j < end - i; j++) {
-                word[j] = this.memory.get(i + j);
-            }
-            dump.append(HexFormat.of().formatHex(word)).append("\n");
+        for (int i = 0; i < size; i += WORD_SIZE_IN_BYTE) {
+            dump.append(HexFormat.of().formatHex(memory, i, i + WORD_SIZE_IN_BYTE)).append("\n");
         }
         return dump.toString();
     }
 
     public int size() {
-        return memory.position();
+        return size;
+    }
+
+    public int capacity() {
+        return memory.length;
     }
 
     public int activeWordsCount() {
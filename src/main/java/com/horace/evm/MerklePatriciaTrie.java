@@ -0,0 +1,341 @@
+package com.horace.evm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * In-memory Merkle Patricia Trie with the Ethereum node encoding.
+ * <p>
+ * Every node caches its reference (its RLP encoding if shorter than 32 bytes, the encoded keccak hash
+ * otherwise). An update clears the cache on the path to the changed leaf only, so {@link #rootHash(ForkJoinPool)}
+ * rehashes the touched paths and nothing else. Dirty children of the top branch levels are hashed as
+ * separate tasks, since their subtries are independent.
+ * <p>
+ * Not safe for concurrent updates; callers hash the keys themselves (the state trie is a secure trie).
+ */
+public class MerklePatriciaTrie {
+
+    public static final Hash EMPTY_ROOT = Hash.keccak256(Rlp.EMPTY_STRING);
+
+    // Branch levels below the root whose dirty children are hashed in parallel, up to 16^2 tasks
+    private static final int PARALLEL_DEPTH = 2;
+
+    private Node root;
+
+    public byte[] get(final byte[] key) {
+        final byte[] nibbles = toNibbles(key);
+        Node node = root;
+        int pos = 0;
+        while (node != null) {
+            if (node instanceof Leaf) {
+                final Leaf leaf = (Leaf) node;
+                return matches(leaf.path, nibbles, pos) && pos + leaf.path.length == nibbles.length ? leaf.value : null;
+            } else if (node instanceof Extension) {
+                final Extension extension = (Extension) node;
+                if (!matches(extension.path, nibbles, pos)) {
+                    return null;
+                }
+                pos += extension.path.length;
+                node = extension.child;
+            } else {
+                final Branch branch = (Branch) node;
+                if (pos == nibbles.length) {
+                    return branch.value;
+                }
+                node = branch.children[nibbles[pos++]];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the value of the key, removing it if the value is empty.
+     * @param key
+     * @param value
+     */
+    public void put(final byte[] key, final byte[] value) {
+        if (value.length == 0) {
+            remove(key);
+            return;
+        }
+        if (!Arrays.equals(get(key), value)) {
+            root = insert(root, toNibbles(key), 0, value);
+        }
+    }
+
+    public void remove(final byte[] key) {
+        if (get(key) != null) {
+            root = delete(root, toNibbles(key), 0);
+        }
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public Hash rootHash() {
+        return rootHash(null);
+    }
+
+    /**
+     * Returns the root hash, hashing independent dirty subtries on the pool when one is given.
+     * @param pool
+     * @return
+     */
+    public Hash rootHash(final ForkJoinPool pool) {
+        if (root == null) {
+            return EMPTY_ROOT;
+        }
+        if (pool != null) {
+            pool.invoke(new HashTask(root, 0));
+        }
+        final byte[] ref = reference(root);
+        // A short root is embedded rather than hashed, but the root hash is always the keccak of the encoding
+        return root.hashed ? new Hash(Arrays.copyOfRange(ref, 1, ref.length)) : Hash.keccak256(ref);
+    }
+
+    private static Node insert(final Node node, final byte[] key, final int pos, final byte[] value) {
+        if (node == null) {
+            return new Leaf(Arrays.copyOfRange(key, pos, key.length), value);
+        }
+        node.ref = null;
+        if (node instanceof Leaf) {
+            final Leaf leaf = (Leaf) node;
+            final int common = commonPrefix(leaf.path, key, pos);
+            if (common == leaf.path.length && pos + common == key.length) {
+                leaf.value = value;
+                return leaf;
+            }
+            final Branch branch = new Branch();
+            if (common == leaf.path.length) {
+                branch.value = leaf.value;
+            } else {
+                branch.children[leaf.path[common]] = new Leaf(Arrays.copyOfRange(leaf.path, common + 1, leaf.path.length),
+                    leaf.value);
+            }
+            addRemainder(branch, key, pos + common, value);
+            return common > 0 ? new Extension(Arrays.copyOf(leaf.path, common), branch) : branch;
+        } else if (node instanceof Extension) {
+            final Extension extension = (Extension) node;
+            final int common = commonPrefix(extension.path, key, pos);
+            if (common == extension.path.length) {
+                extension.child = insert(extension.child, key, pos + common, value);
+                return extension;
+            }
+            final Branch branch = new Branch();
+            final byte[] rest = Arrays.copyOfRange(extension.path, common + 1, extension.path.length);
+            branch.children[extension.path[common]] = rest.length == 0 ? extension.child
+                : new Extension(rest, extension.child);
+            addRemainder(branch, key, pos + common, value);
+            return common > 0 ? new Extension(Arrays.copyOf(extension.path, common), branch) : branch;
+        } else {
+            final Branch branch = (Branch) node;
+            if (pos == key.length) {
+                branch.value = value;
+            } else {
+                branch.children[key[pos]] = insert(branch.children[key[pos]], key, pos + 1, value);
+            }
+            return branch;
+        }
+    }
+
+    private static void addRemainder(final Branch branch, final byte[] key, final int pos, final byte[] value) {
+        if (pos == key.length) {
+            branch.value = value;
+        } else {
+            branch.children[key[pos]] = new Leaf(Arrays.copyOfRange(key, pos + 1, key.length), value);
+        }
+    }
+
+    // The key is known to be present
+    private static Node delete(final Node node, final byte[] key, final int pos) {
+        node.ref = null;
+        if (node instanceof Leaf) {
+            return null;
+        } else if (node instanceof Extension) {
+            final Extension extension = (Extension) node;
+            final Node child = delete(extension.child, key, pos + extension.path.length);
+            if (child instanceof Leaf) {
+                return new Leaf(concat(extension.path, ((Leaf) child).path), ((Leaf) child).value);
+            } else if (child instanceof Extension) {
+                return new Extension(concat(extension.path, ((Extension) child).path), ((Extension) child).child);
+            }
+            extension.child = child;
+            return extension;
+        }
+        final Branch branch = (Branch) node;
+        if (pos == key.length) {
+            branch.value = null;
+        } else {
+            branch.children[key[pos]] = delete(branch.children[key[pos]], key, pos + 1);
+        }
+        // A branch left with a single entry collapses into its parent path
+        int only = -1;
+        int count = branch.value == null ? 0 : 1;
+        for (int i = 0; i < 16; i++) {
+            if (branch.children[i] != null) {
+                only = i;
+                count++;
+            }
+        }
+        if (count > 1) {
+            return branch;
+        }
+        if (only < 0) {
+            return new Leaf(new byte[0], branch.value);
+        }
+        final Node child = branch.children[only];
+        final byte[] prefix = {(byte) only};
+        if (child instanceof Leaf) {
+            return new Leaf(concat(prefix, ((Leaf) child).path), ((Leaf) child).value);
+        } else if (child instanceof Extension) {
+            return new Extension(concat(prefix, ((Extension) child).path), ((Extension) child).child);
+        }
+        return new Extension(prefix, child);
+    }
+
+    // Encodes the node, hashing dirty children first, and caches its reference
+    private static byte[] reference(final Node node) {
+        if (node.ref != null) {
+            return node.ref;
+        }
+        final byte[] encoded;
+        if (node instanceof Leaf) {
+            final Leaf leaf = (Leaf) node;
+            encoded = Rlp.encodeList(Rlp.encodeBytes(compactPath(leaf.path, true)), Rlp.encodeBytes(leaf.value));
+        } else if (node instanceof Extension) {
+            final Extension extension = (Extension) node;
+            encoded = Rlp.encodeList(Rlp.encodeBytes(compactPath(extension.path, false)),
+                reference(extension.child));
+        } else {
+            final Branch branch = (Branch) node;
+            final byte[][] items = new byte[17][];
+            for (int i = 0; i < 16; i++) {
+                final Node child = branch.children[i];
+                items[i] = child == null ? Rlp.EMPTY_STRING : reference(child);
+            }
+            items[16] = branch.value == null ? Rlp.EMPTY_STRING : Rlp.encodeBytes(branch.value);
+            encoded = Rlp.encodeList(items);
+        }
+        node.hashed = encoded.length >= Hash.HASH_LENGTH;
+        node.ref = node.hashed ? Rlp.encodeBytes(Hash.keccak256(encoded).getBytes()) : encoded;
+        return node.ref;
+    }
+
+    /**
+     * Hashes the dirty children of a branch near the root as separate tasks, then the node itself.
+     */
+    private static final class HashTask extends RecursiveAction {
+
+        private final Node node;
+        private final int depth;
+
+        HashTask(final Node node, final int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.ref == null && depth < PARALLEL_DEPTH) {
+                final Node fork = node instanceof Extension ? ((Extension) node).child : node;
+                if (fork instanceof Branch) {
+                    final List<HashTask> tasks = new ArrayList<>();
+                    for (final Node child : ((Branch) fork).children) {
+                        if (child != null && child.ref == null) {
+                            tasks.add(new HashTask(child, depth + 1));
+                        }
+                    }
+                    if (tasks.size() > 1) {
+                        ForkJoinTask.invokeAll(tasks);
+                    }
+                }
+            }
+            reference(node);
+        }
+    }
+
+    private static byte[] toNibbles(final byte[] key) {
+        final byte[] nibbles = new byte[key.length * 2];
+        for (int i = 0; i < key.length; i++) {
+            nibbles[2 * i] = (byte) ((key[i] >> 4) & 0x0F);
+            nibbles[2 * i + 1] = (byte) (key[i] & 0x0F);
+        }
+        return nibbles;
+    }
+
+    // Hex-prefix encoding of a nibble path, flagging leaves and odd lengths in the first nibble
+    private static byte[] compactPath(final byte[] path, final boolean leaf) {
+        final int flag = (leaf ? 2 : 0) + (path.length & 1);
+        final byte[] compact = new byte[path.length / 2 + 1];
+        int from = 0;
+        if ((path.length & 1) == 1) {
+            compact[0] = (byte) ((flag << 4) | path[0]);
+            from = 1;
+        } else {
+            compact[0] = (byte) (flag << 4);
+        }
+        for (int i = 1; i < compact.length; i++, from += 2) {
+            compact[i] = (byte) ((path[from] << 4) | path[from + 1]);
+        }
+        return compact;
+    }
+
+    private static int commonPrefix(final byte[] path, final byte[] key, final int pos) {
+        int i = 0;
+        while (i < path.length && pos + i < key.length && path[i] == key[pos + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean matches(final byte[] path, final byte[] key, final int pos) {
+        return commonPrefix(path, key, pos) == path.length;
+    }
+
+    private static byte[] concat(final byte[] a, final byte[] b) {
+        final byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private abstract static class Node {
+        // Cached reference, null while the node or anything below it is dirty
+        byte[] ref;
+        // Whether the reference is a hash rather than the embedded encoding
+        boolean hashed;
+    }
+
+    private static final class Leaf extends Node {
+
+        final byte[] path;
+        byte[] value;
+
+        Leaf(final byte[] path, final byte[] value) {
+            this.path = path;
+            this.value = value;
+        }
+    }
+
+    private static final class Extension extends Node {
+
+        final byte[] path;
+        Node child;
+
+        Extension(final byte[] path, final Node child) {
+            this.path = path;
+            this.child = child;
+        }
+    }
+
+    private static final class Branch extends Node {
+
+        final Node[] children = new Node[16];
+        byte[] value;
+    }
+
+}
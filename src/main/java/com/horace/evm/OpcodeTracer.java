@@ -0,0 +1,49 @@
+package com.horace.evm;
+
+import java.io.PrintStream;
+import java.util.HexFormat;
+
+/**
+ * Prints one line per instruction, with the call depth, pc and gas left, and a line per frame,
+ * storage access and log. Cheap next to {@link StateDumpTracer}, which prints the stack and memory too.
+ */
+public class OpcodeTracer implements Tracer {
+
+    protected final PrintStream out;
+
+    public OpcodeTracer(final PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void enter(final ExecutionContext frame) {
+        out.printf("%d %s %s gas=%d%n", frame.getDepth(), frame.getKind(), hex(frame.getAddress()), frame.getGasLeft());
+    }
+
+    @Override
+    public void step(final ExecutionContext frame, final int pc, final Instruction instruction) {
+        out.printf("%d pc=%d %s gas=%d%n", frame.getDepth(), pc, instruction.getName(), frame.getGasLeft());
+    }
+
+    @Override
+    public void storage(final ExecutionContext frame, final UInt256 slot, final UInt256 value, final boolean write) {
+        out.printf("%d %s %s = %s%n", frame.getDepth(), write ? "store" : "load", slot.toBigInteger().toString(16),
+            value.toBigInteger().toString(16));
+    }
+
+    @Override
+    public void log(final ExecutionContext frame, final Log log) {
+        out.printf("%d log %d topics, %d bytes%n", frame.getDepth(), log.getTopics().size(), log.getData().length);
+    }
+
+    @Override
+    public void exit(final ExecutionContext frame, final boolean success) {
+        out.printf("%d %s gas=%d%n", frame.getDepth(), success ? "exit" : frame.isReverted() ? "revert" : "halt",
+            frame.getGasLeft());
+    }
+
+    private static String hex(final byte[] bytes) {
+        return bytes == null ? "-" : HexFormat.of().formatHex(bytes);
+    }
+
+}
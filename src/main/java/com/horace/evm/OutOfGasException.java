@@ -0,0 +1,15 @@
+package com.horace.evm;
+
+/**
+ * Thrown when an execution needs more gas than it has left. Like every other exceptional halt,
+ * it consumes all remaining gas of the frame.
+ */
+public class OutOfGasException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public OutOfGasException() {
+        super("Out of gas");
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.horace.evm;
+
+/**
+ * Thrown by a {@link WorldState} that cannot serve a read yet because an earlier transaction of the block,
+ * which is about to be re-executed, is expected to write the value. Unlike an exceptional halt it does not
+ * fail the transaction: the execution is abandoned and retried once the blocking transaction has run.
+ */
+public class ReadDependencyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int blockingIndex;
+
+    public ReadDependencyException(final int blockingIndex) {
+        super(null, null, false, false);
+        this.blockingIndex = blockingIndex;
+    }
+
+    public int getBlockingIndex() {
+        return blockingIndex;
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.horace.evm;
+
+import java.math.BigInteger;
+
+/**
+ * The subset of RLP encoding the state trie needs: byte strings, unsigned integers and lists of
+ * already encoded items.
+ */
+public final class Rlp {
+
+    public static final byte[] EMPTY_STRING = {(byte) 0x80};
+
+    private Rlp() {
+    }
+
+    public static byte[] encodeBytes(final byte[] bytes) {
+        if (bytes.length == 1 && (bytes[0] & 0xFF) < 0x80) {
+            return bytes;
+        }
+        final byte[] encoded = new byte[headerLength(bytes.length) + bytes.length];
+        final int offset = writeHeader(encoded, 0x80, bytes.length);
+        System.arraycopy(bytes, 0, encoded, offset, bytes.length);
+        return encoded;
+    }
+
+    /**
+     * Encodes a non-negative integer as its big-endian bytes without leading zeros.
+     * @param value
+     * @return
+     */
+    public static byte[] encodeBigInteger(final BigInteger value) {
+        if (value.signum() == 0) {
+            return EMPTY_STRING;
+        }
+        return encodeBytes(trimLeadingZeros(value.toByteArray()));
+    }
+
+    public static byte[] encodeLong(final long value) {
+        return encodeBigInteger(BigInteger.valueOf(value));
+    }
+
+    /**
+     * Encodes a list of items, each of which must already be RLP encoded.
+     * @param items
+     * @return
+     */
+    public static byte[] encodeList(final byte[]... items) {
+        int length = 0;
+        for (final byte[] item : items) {
+            length += item.length;
+        }
+        final byte[] encoded = new byte[headerLength(length) + length];
+        int offset = writeHeader(encoded, 0xC0, length);
+        for (final byte[] item : items) {
+            System.arraycopy(item, 0, encoded, offset, item.length);
+            offset += item.length;
+        }
+        return encoded;
+    }
+
+    public static byte[] trimLeadingZeros(final byte[] bytes) {
+        int start = 0;
+        while (start < bytes.length && bytes[start] == 0) {
+            start++;
+        }
+        if (start == 0) {
+            return bytes;
+        }
+        final byte[] trimmed = new byte[bytes.length - start];
+        System.arraycopy(bytes, start, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    private static int headerLength(final int length) {
+        return length < 56 ? 1 : 1 + lengthOfLength(length);
+    }
+
+    private static int lengthOfLength(final int length) {
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+    }
+
+    // Writes the prefix for a payload of the given length and returns where the payload starts
+    private static int writeHeader(final byte[] dest, final int base, final int length) {
+        if (length < 56) {
+            dest[0] = (byte) (base + length);
+            return 1;
+        }
+        final int size = lengthOfLength(length);
+        dest[0] = (byte) (base + 55 + size);
+        for (int i = 0; i < size; i++) {
+            dest[size - i] = (byte) (length >>> (8 * i));
+        }
+        return 1 + size;
+    }
+
+}
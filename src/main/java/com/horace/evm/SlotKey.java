@@ -0,0 +1,38 @@
+package com.horace.evm;
+
+import java.util.Arrays;
+
+/**
+ * An (address, slot) pair in the 52-byte layout of {@link Storage}, with value equality.
+ */
+final class SlotKey {
+
+    private final byte[] bytes;
+    private final int hashCode;
+
+    SlotKey(final byte[] address, final UInt256 slot) {
+        this.bytes = Storage.key(address, slot);
+        this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    byte[] address() {
+        return Arrays.copyOf(bytes, Address.ADDRESS_LENGTH);
+    }
+
+    UInt256 slot() {
+        return new UInt256().setBytes(bytes, Address.ADDRESS_LENGTH, UInt256.SIZE_IN_BYTES);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        return Arrays.equals(bytes, ((SlotKey) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+}
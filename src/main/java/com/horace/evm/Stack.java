@@ -2,47 +2,141 @@ package com.horace.evm;
 
 import java.math.BigInteger;
 
-import org.apache.commons.lang3.ArrayUtils;
-
+/**
+ * Operand stack backed by a single preallocated slab of longs, four limbs per 256-bit word.
+ * Entry i occupies words[i * 4] (least significant limb) to words[i * 4 + 3].
+ * Push, pop, dup and swap copy limbs in place, so no per-entry arrays are allocated,
+ * and the same stack can be reset and reused across executions.
+ */
 public class Stack {
 
     private static final int MAX_SIZE = 1024;
-    private final byte[][] stack;
-    private int top = -1;
-    private int size = 0;
+    static final int LIMBS = 4;
+
+    final long[] words;
+    private final int maxSize;
+    int size = 0;
 
     public Stack() {
-        this.stack = new byte[MAX_SIZE][];
+        this(MAX_SIZE);
     }
 
     public Stack(final int maxSize) {
-        this.stack = new byte[Math.min(maxSize, MAX_SIZE)][];
+        this.maxSize = Math.min(maxSize, MAX_SIZE);
+        this.words = new long[this.maxSize * LIMBS];
     }
 
+    /**
+     * Pushes a big-endian unsigned value of up to 32 bytes.
+     * @param value
+     */
     public void push(final byte[] value) {
-        push(new BigInteger(value));
+        push(value, 0, value.length);
     }
 
-    public void push(final BigInteger value) {
-        if (size >= MAX_SIZE) {
-            throw new StackOverflowError("Stack overflow");
+    /**
+     * Pushes the big-endian unsigned value held in the given byte range.
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    public void push(final byte[] bytes, final int offset, final int length) {
+        if (length > UInt256.SIZE_IN_BYTES) {
+            throw new IllegalArgumentException("Value out of range");
         }
+        final int base = grow();
+        long l0 = 0, l1 = 0, l2 = 0, l3 = 0;
+        for (int i = offset; i < offset + length; i++) {
+            l3 = (l3 << 8) | (l2 >>> 56);
+            l2 = (l2 << 8) | (l1 >>> 56);
+            l1 = (l1 << 8) | (l0 >>> 56);
+            l0 = (l0 << 8) | (bytes[i] & 0xFF);
+        }
+        words[base] = l0;
+        words[base + 1] = l1;
+        words[base + 2] = l2;
+        words[base + 3] = l3;
+    }
+
+    public void push(final BigInteger value) {
         if (Helper.checkValueRange(value)) {
-            stack[++top] = value.toByteArray();
-            size++;
+            final int base = grow();
+            words[base] = value.longValue();
+            words[base + 1] = value.shiftRight(64).longValue();
+            words[base + 2] = value.shiftRight(128).longValue();
+            words[base + 3] = value.shiftRight(192).longValue();
         }
     }
-    
+
+    public void push(final UInt256 value) {
+        checkPush();
+        pushUnchecked(value);
+    }
+
+    /**
+     * Pushes a non-negative value that fits in a long.
+     * @param value
+     */
+    public void push(final long value) {
+        checkPush();
+        pushUnchecked(value);
+    }
+
+    /**
+     * Pushes the four limbs starting at the given offset, least significant first.
+     * @param limbs
+     * @param offset
+     */
+    void push(final long[] limbs, final int offset) {
+        checkPush();
+        pushUnchecked(limbs, offset);
+    }
+
+    /**
+     * Pops the top value as 32 big-endian bytes.
+     * @return
+     */
     public byte[] pop() {
-        if (size <= 0) {
-            throw new IllegalStateException("Stack underflow");
-        }
-        final byte[] value = stack[top];
-        stack[top--] = null;
-        size--;
+        final byte[] value = new byte[UInt256.SIZE_IN_BYTES];
+        pop(new UInt256()).toBytes(value, 0);
         return value;
     }
 
+    /**
+     * Pops the top value into the given word and returns it, so callers can reuse their words.
+     * @param into
+     * @return
+     */
+    public UInt256 pop(final UInt256 into) {
+        checkPop();
+        return popUnchecked(into);
+    }
+
+    /**
+     * Pops the top value and returns its low 20 bytes as an address.
+     * @return
+     */
+    public byte[] popAddress() {
+        final int base = shrink();
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        final long high = words[base + 2];
+        for (int i = 0; i < 4; i++) {
+            address[i] = (byte) (high >>> ((3 - i) * 8));
+        }
+        for (int i = 0; i < 8; i++) {
+            address[4 + i] = (byte) (words[base + 1] >>> ((7 - i) * 8));
+            address[12 + i] = (byte) (words[base] >>> ((7 - i) * 8));
+        }
+        return address;
+    }
+
+    /**
+     * Discards the top value.
+     */
+    public void drop() {
+        shrink();
+    }
+
     /**
      * Returns the value at the top of the stack without removing it.
      * @return
@@ -51,7 +145,7 @@ public class Stack {
         if (size <= 0) {
             throw new IllegalStateException("Stack is empty");
         }
-        return ArrayUtils.clone(stack[top]);
+        return peek(0);
     }
 
     /**
@@ -61,10 +155,26 @@ public class Stack {
      * @return
      */
     public byte[] peek(final int index) {
-        if (index < 0 || index > top) {
-            throw new IndexOutOfBoundsException("Stack index out of bounds");
-        }
-        return ArrayUtils.clone(stack[top - index]);
+        return peek(index, new UInt256()).toBytes();
+    }
+
+    public UInt256 peek(final int index, final UInt256 into) {
+        final int base = indexBase(index);
+        into.u0 = words[base];
+        into.u1 = words[base + 1];
+        into.u2 = words[base + 2];
+        into.u3 = words[base + 3];
+        return into;
+    }
+
+    /**
+     * Pushes a copy of the value at the specified index from the top of the stack (DUP1 is dup(0)).
+     * @param index
+     */
+    public void dup(final int index) {
+        indexBase(index);
+        checkPush();
+        dupUnchecked(index);
     }
 
     /**
@@ -74,33 +184,150 @@ public class Stack {
      * @param index
      */
     public void swap(final int index) {
-        if (index < 0 || index > top) {
-            throw new IndexOutOfBoundsException("Stack index out of bounds");
-        }
-        final byte[] temp = stack[top];
-        stack[top] = stack[top - index];
-        stack[top - index] = temp;
+        indexBase(index);
+        swapUnchecked(index);
+    }
+
+    /**
+     * Returns one 64-bit limb of the value at the specified index from the top of the stack.
+     * Limb 0 is the least significant one.
+     * @param index
+     * @param limb
+     * @return
+     */
+    public long getLimb(final int index, final int limb) {
+        return words[indexBase(index) + limb];
+    }
+
+    public void setLimb(final int index, final int limb, final long value) {
+        words[indexBase(index) + limb] = value;
+    }
+
+    /**
+     * Empties the stack so it can be reused for another execution.
+     * @return
+     */
+    public Stack reset() {
+        size = 0;
+        return this;
     }
 
     public int size() {
         return size;
     }
 
+    public int maxSize() {
+        return maxSize;
+    }
+
     public boolean isEmpty() {
         return size == 0;
     }
 
+    // Unchecked variants for the interpreter, which validates the stack bounds once on entry
+    // to each basic block instead of on every push and pop
+
+    void pushUnchecked(final UInt256 value) {
+        final int base = size++ * LIMBS;
+        words[base] = value.u0;
+        words[base + 1] = value.u1;
+        words[base + 2] = value.u2;
+        words[base + 3] = value.u3;
+    }
+
+    void pushUnchecked(final long value) {
+        final int base = size++ * LIMBS;
+        words[base] = value;
+        words[base + 1] = 0;
+        words[base + 2] = 0;
+        words[base + 3] = 0;
+    }
+
+    void pushUnchecked(final long[] limbs, final int offset) {
+        final int base = size++ * LIMBS;
+        words[base] = limbs[offset];
+        words[base + 1] = limbs[offset + 1];
+        words[base + 2] = limbs[offset + 2];
+        words[base + 3] = limbs[offset + 3];
+    }
+
+    UInt256 popUnchecked(final UInt256 into) {
+        final int base = --size * LIMBS;
+        into.u0 = words[base];
+        into.u1 = words[base + 1];
+        into.u2 = words[base + 2];
+        into.u3 = words[base + 3];
+        return into;
+    }
+
+    void dropUnchecked() {
+        size--;
+    }
+
+    void dupUnchecked(final int index) {
+        final int from = (size - 1 - index) * LIMBS;
+        final int to = size++ * LIMBS;
+        words[to] = words[from];
+        words[to + 1] = words[from + 1];
+        words[to + 2] = words[from + 2];
+        words[to + 3] = words[from + 3];
+    }
+
+    void swapUnchecked(final int index) {
+        final int other = (size - 1 - index) * LIMBS;
+        final int top = (size - 1) * LIMBS;
+        for (int i = 0; i < LIMBS; i++) {
+            final long temp = words[top + i];
+            words[top + i] = words[other + i];
+            words[other + i] = temp;
+        }
+    }
+
     public String toString() {
-        StringBuilder sb = new StringBuilder();
+        final StringBuilder sb = new StringBuilder();
+        final UInt256 word = new UInt256();
         sb.append("Stack: [");
-        for (int i = 0; i <= top; i++) {
-            sb.append(new BigInteger(stack[i]));
-            if (i < top) {
+        for (int i = 0; i < size; i++) {
+            sb.append(peek(size - 1 - i, word));
+            if (i < size - 1) {
                 sb.append(", ");
             }
         }
         sb.append("]");
         return sb.toString();
     }
-    
+
+    private int grow() {
+        if (size >= maxSize) {
+            throw new StackOverflowException();
+        }
+        return size++ * LIMBS;
+    }
+
+    private void checkPush() {
+        if (size >= maxSize) {
+            throw new StackOverflowException();
+        }
+    }
+
+    private void checkPop() {
+        if (size <= 0) {
+            throw new IllegalStateException("Stack underflow");
+        }
+    }
+
+    private int shrink() {
+        if (size <= 0) {
+            throw new IllegalStateException("Stack underflow");
+        }
+        return --size * LIMBS;
+    }
+
+    private int indexBase(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Stack index out of bounds");
+        }
+        return (size - 1 - index) * LIMBS;
+    }
+
 }
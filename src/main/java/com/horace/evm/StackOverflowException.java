@@ -0,0 +1,16 @@
+package com.horace.evm;
+
+/**
+ * Thrown when an execution would push more than the 1024 items the EVM stack holds. Like every other
+ * exceptional halt, it consumes all remaining gas of the frame. It is not a {@link StackOverflowError},
+ * which only the JVM throws when its own stack runs out.
+ */
+public class StackOverflowException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StackOverflowException() {
+        super("Stack overflow");
+    }
+
+}
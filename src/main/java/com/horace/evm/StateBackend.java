@@ -0,0 +1,133 @@
+package com.horace.evm;
+
+import java.nio.file.Path;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+/**
+ * The MapDB store under {@link GlobalState} and {@link Storage}. State can live on the Java heap,
+ * in off-heap direct memory, or in a memory-mapped file that survives the process.
+ * <p>
+ * Only the file store is transactional. {@link #commit()} is called once per committed block and only
+ * reaches the store every {@code commitBatch} calls, trading durability of the last blocks for fewer syncs.
+ * <p>
+ * {@link #fromSystemProperties()} reads {@code evm.state.backend} ({@code heap}, {@code direct} or
+ * {@code mmap}), {@code evm.state.file} and {@code evm.state.commitBatch}.
+ */
+public class StateBackend implements AutoCloseable {
+
+    public enum Kind {
+        HEAP,
+        DIRECT,
+        MAPPED_FILE
+    }
+
+    public static final String DEFAULT_FILE = "evm-state.db";
+    public static final int DEFAULT_COMMIT_BATCH = 1;
+
+    private final Kind kind;
+    private final DB db;
+    private final boolean transactional;
+    private final int commitBatch;
+    private int pendingCommits = 0;
+
+    private StateBackend(final Kind kind, final DB db, final boolean transactional, final int commitBatch) {
+        if (commitBatch < 1) {
+            throw new IllegalArgumentException("Commit batch must be at least 1");
+        }
+        this.kind = kind;
+        this.db = db;
+        this.transactional = transactional;
+        this.commitBatch = commitBatch;
+    }
+
+    public static StateBackend heap() {
+        return new StateBackend(Kind.HEAP, DBMaker.memoryDB().make(), false, DEFAULT_COMMIT_BATCH);
+    }
+
+    public static StateBackend direct() {
+        return new StateBackend(Kind.DIRECT, DBMaker.memoryDirectDB().make(), false, DEFAULT_COMMIT_BATCH);
+    }
+
+    public static StateBackend mappedFile(final Path file) {
+        return mappedFile(file, DEFAULT_COMMIT_BATCH);
+    }
+
+    /**
+     * Opens or creates the state file, mapped into memory where the platform supports it.
+     * @param file
+     * @param commitBatch number of {@link #commit()} calls that make one commit of the store
+     * @return
+     */
+    public static StateBackend mappedFile(final Path file, final int commitBatch) {
+        final DB db = DBMaker.fileDB(file.toFile())
+            .fileMmapEnableIfSupported()
+            .transactionEnable()
+            .closeOnJvmShutdown()
+            .make();
+        return new StateBackend(Kind.MAPPED_FILE, db, true, commitBatch);
+    }
+
+    public static StateBackend of(final Kind kind, final Path file, final int commitBatch) {
+        switch (kind) {
+            case DIRECT:
+                return direct();
+            case MAPPED_FILE:
+                return mappedFile(file, commitBatch);
+            default:
+                return heap();
+        }
+    }
+
+    public static StateBackend fromSystemProperties() {
+        final String name = System.getProperty("evm.state.backend", "heap");
+        final Kind kind;
+        switch (name) {
+            case "heap":
+                kind = Kind.HEAP;
+                break;
+            case "direct":
+                kind = Kind.DIRECT;
+                break;
+            case "mmap":
+                kind = Kind.MAPPED_FILE;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown state backend: " + name);
+        }
+        final Path file = Path.of(System.getProperty("evm.state.file", DEFAULT_FILE));
+        final int commitBatch = Integer.getInteger("evm.state.commitBatch", DEFAULT_COMMIT_BATCH);
+        return of(kind, file, commitBatch);
+    }
+
+    public DB getDB() {
+        return db;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Marks the end of a block, committing the store once every {@code commitBatch} calls.
+     */
+    public synchronized void commit() {
+        if (transactional && ++pendingCommits >= commitBatch) {
+            db.commit();
+            pendingCommits = 0;
+        }
+    }
+
+    /**
+     * Commits what is pending and closes the store.
+     */
+    @Override
+    public synchronized void close() {
+        if (transactional && pendingCommits > 0) {
+            db.commit();
+        }
+        db.close();
+    }
+
+}
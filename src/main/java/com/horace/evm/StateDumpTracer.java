@@ -0,0 +1,28 @@
+package com.horace.evm;
+
+import java.io.PrintStream;
+
+/**
+ * Prints every instruction with the full stack and memory it left once it executed, in place of the
+ * instruction line of the {@link OpcodeTracer}, which still prints frames, storage accesses and logs.
+ * Costs a formatted dump of both per instruction, meant for short runs.
+ */
+public class StateDumpTracer extends OpcodeTracer {
+
+    public StateDumpTracer(final PrintStream out) {
+        super(out);
+    }
+
+    @Override
+    public void step(final ExecutionContext frame, final int pc, final Instruction instruction) {
+    }
+
+    @Override
+    public void executed(final ExecutionContext frame, final int pc, final Instruction instruction) {
+        out.println(instruction + " @ pc = " + pc);
+        out.println(frame.getStack());
+        out.println(frame.getMemory());
+        out.println("====================================");
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.horace.evm;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only view of a {@link GlobalState} as it was when the snapshot was taken, for any number of
+ * concurrent readers while the single writer carries on.
+ * <p>
+ * Before the writer changes an account or slot for the first time after the snapshot was taken,
+ * it saves the old value here. A read takes the live value first and then prefers a saved one, so a
+ * write landing in between is never seen. Code is content addressed and never changes, so it is read
+ * straight through. Saved values accumulate until the snapshot is closed.
+ */
+public class StateSnapshot implements WorldState, AutoCloseable {
+
+    private final GlobalState state;
+    private final long version;
+    private final ConcurrentHashMap<Address, Account> accounts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SlotKey, UInt256> slots = new ConcurrentHashMap<>();
+
+    StateSnapshot(final GlobalState state, final long version) {
+        this.state = state;
+        this.version = version;
+    }
+
+    /**
+     * Returns the number of writer commits before this snapshot was taken.
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public Account getAccount(final byte[] address) {
+        final Account live = state.getAccount(address);
+        final Account saved = accounts.get(new Address(address));
+        return saved == null ? live : saved;
+    }
+
+    @Override
+    public UInt256 load(final byte[] address, final UInt256 slot, final UInt256 into) {
+        state.load(address, slot, into);
+        final UInt256 saved = slots.get(new SlotKey(address, slot));
+        return saved == null ? into : into.set(saved);
+    }
+
+    @Override
+    public byte[] getCode(final Hash codeHash) {
+        return state.getCode(codeHash);
+    }
+
+    @Override
+    public void putAccount(final byte[] address, final Account account) {
+        throw new UnsupportedOperationException("State snapshots are read only");
+    }
+
+    @Override
+    public void removeAccount(final byte[] address) {
+        throw new UnsupportedOperationException("State snapshots are read only");
+    }
+
+    @Override
+    public void store(final byte[] address, final UInt256 slot, final UInt256 value) {
+        throw new UnsupportedOperationException("State snapshots are read only");
+    }
+
+    @Override
+    public void putCode(final Hash codeHash, final byte[] code) {
+        throw new UnsupportedOperationException("State snapshots are read only");
+    }
+
+    @Override
+    public void close() {
+        state.release(this);
+    }
+
+    // Called by the writer with the old value, before it is overwritten
+    void saveAccount(final Address address, final Account account) {
+        accounts.putIfAbsent(address, account);
+    }
+
+    void saveSlot(final SlotKey key, final UInt256 value) {
+        slots.putIfAbsent(key, value);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.horace.evm;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Ethereum state root over the accounts of {@link GlobalState} and the slots of {@link Storage}.
+ * <p>
+ * The account trie and one storage trie per account are kept in memory. Writes to the state are only
+ * recorded here; {@link #computeRoot()} applies them, rehashing the touched paths. Storage tries of
+ * different accounts are updated and hashed as separate tasks on the pool, then the account trie.
+ * Both are secure tries, keyed by the keccak hash of the address or slot.
+ */
+public class StateTrie {
+
+    private final Function<byte[], Account> accounts;
+    private final ForkJoinPool pool;
+    private final MerklePatriciaTrie accountTrie = new MerklePatriciaTrie();
+    private final Map<Address, MerklePatriciaTrie> storageTries = new HashMap<>();
+
+    // Changes since the last root: accounts written or removed, and slots written per account
+    private final Set<Address> dirtyAccounts = new LinkedHashSet<>();
+    private final Map<Address, Map<UInt256, UInt256>> dirtySlots = new HashMap<>();
+    private Hash root = MerklePatriciaTrie.EMPTY_ROOT;
+
+    /**
+     * @param accounts reads the current account at an address, for accounts whose storage changed
+     * @param pool
+     */
+    public StateTrie(final Function<byte[], Account> accounts, final ForkJoinPool pool) {
+        this.accounts = accounts;
+        this.pool = pool;
+    }
+
+    public synchronized void touchAccount(final byte[] address) {
+        dirtyAccounts.add(new Address(address));
+    }
+
+    public synchronized void updateSlot(final byte[] address, final UInt256 slot, final UInt256 value) {
+        dirtySlots.computeIfAbsent(new Address(address), a -> new HashMap<>())
+            .put(new UInt256().set(slot), new UInt256().set(value));
+    }
+
+    /**
+     * Applies the changes recorded since the last call and returns the new state root.
+     * @return
+     */
+    public synchronized Hash computeRoot() {
+        if (dirtyAccounts.isEmpty() && dirtySlots.isEmpty()) {
+            return root;
+        }
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(dirtySlots.size());
+        for (Map.Entry<Address, Map<UInt256, UInt256>> entry : dirtySlots.entrySet()) {
+            final MerklePatriciaTrie trie = storageTries.computeIfAbsent(entry.getKey(), a -> new MerklePatriciaTrie());
+            final Map<UInt256, UInt256> slots = entry.getValue();
+            tasks.add(ForkJoinTask.adapt(() -> updateStorage(trie, slots)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        final Set<Address> touched = new LinkedHashSet<>(dirtyAccounts);
+        touched.addAll(dirtySlots.keySet());
+        for (Address address : touched) {
+            final byte[] key = Hash.keccak256(address.getAddress()).getBytes();
+            final Account account = accounts.apply(address.getAddress());
+            final MerklePatriciaTrie storage = storageTries.get(address);
+            if (storage != null && storage.isEmpty()) {
+                storageTries.remove(address);
+            }
+            final boolean hasStorage = storage != null && !storage.isEmpty();
+            if (account == Account.NULL_ACCOUNT && !hasStorage) {
+                accountTrie.remove(key);
+            } else {
+                final Hash storageRoot = hasStorage ? storage.rootHash() : MerklePatriciaTrie.EMPTY_ROOT;
+                accountTrie.put(key, encode(account, storageRoot));
+            }
+        }
+        dirtyAccounts.clear();
+        dirtySlots.clear();
+        root = accountTrie.rootHash(pool);
+        return root;
+    }
+
+    public synchronized Hash getRoot() {
+        return root;
+    }
+
+    // Runs on the pool, one task per account, so the storage root is hashed here too
+    private static void updateStorage(final MerklePatriciaTrie trie, final Map<UInt256, UInt256> slots) {
+        for (Map.Entry<UInt256, UInt256> slot : slots.entrySet()) {
+            final byte[] key = Hash.keccak256(slot.getKey().toBytes()).getBytes();
+            if (slot.getValue().isZero()) {
+                trie.remove(key);
+            } else {
+                trie.put(key, Rlp.encodeBytes(Rlp.trimLeadingZeros(slot.getValue().toBytes())));
+            }
+        }
+        trie.rootHash();
+    }
+
+    private static byte[] encode(final Account account, final Hash storageRoot) {
+        final BigInteger balance = account.getBalance() == null ? BigInteger.ZERO : account.getBalance();
+        return Rlp.encodeList(Rlp.encodeLong(account.getNonce()), Rlp.encodeBigInteger(balance),
+            Rlp.encodeBytes(storageRoot.getBytes()), Rlp.encodeBytes(account.getCodeHash().getBytes()));
+    }
+
+}
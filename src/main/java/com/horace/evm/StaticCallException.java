@@ -0,0 +1,15 @@
+package com.horace.evm;
+
+/**
+ * Thrown when a static execution tries to modify state (EIP-214). Like every other exceptional halt,
+ * it consumes all remaining gas of the frame.
+ */
+public class StaticCallException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StaticCallException() {
+        super("State modification in a static call");
+    }
+
+}
@@ -1,67 +1,123 @@
 package com.horace.evm;
 
-import java.io.IOException;
-import java.util.HexFormat;
+import java.util.Arrays;
+import java.util.Map;
 
-import org.mapdb.DataInput2;
-import org.mapdb.DataOutput2;
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
 import org.mapdb.Serializer;
 
+/**
+ * Contract storage of every account in one flat map. Keys are the 20-byte address followed by the
+ * 32-byte slot, values are 32-byte words, so a lookup is a single hash probe with no map per contract.
+ * Zero is never stored: writing zero removes the slot and a missing slot reads as zero.
+ * Writes are reported to the {@link StateTrie}, if there is one, for the next state root.
+ */
 public class Storage {
 
-    private final HTreeMap<byte[], Slot> addrMap = GlobalState.getDB().hashMap("addressMap")
-        .keySerializer(Serializer.BYTE_ARRAY)
-        .valueSerializer(new SlotSerializer())
-        .createOrOpen();
+    public static final int KEY_LENGTH = Address.ADDRESS_LENGTH + UInt256.SIZE_IN_BYTES;
 
-    public byte[] get(final byte[] address, final byte[] key) {
-        final Slot slot = addrMap.computeIfAbsent(key, k -> new Slot(address));
-        return slot.slotMap.getOrDefault(key, new byte[] {(byte)0x00});
+    // Returned for missing slots by get, callers must not modify it
+    private static final byte[] ZERO = new byte[UInt256.SIZE_IN_BYTES];
+
+    private final HTreeMap<byte[], byte[]> slots;
+    // Null when no state root is kept
+    private final StateTrie stateTrie;
+
+    public Storage(final StateBackend backend) {
+        this(backend, null);
     }
 
-    public void put(final byte[] address, final byte[] key, final byte[] value) {
-        final Slot slot = addrMap.computeIfAbsent(key, k -> new Slot(address));
-        slot.slotMap.put(key, value);
+    public Storage(final StateBackend backend, final StateTrie stateTrie) {
+        this.stateTrie = stateTrie;
+        this.slots = backend.getDB().hashMap("storage")
+            .keySerializer(Serializer.BYTE_ARRAY)
+            .valueSerializer(Serializer.BYTE_ARRAY_NOSIZE)
+            .createOrOpen();
     }
 
-    private class Slot {
+    /**
+     * Reads the slot into the given word and returns it.
+     * @param address
+     * @param slot
+     * @param into
+     * @return
+     */
+    public UInt256 load(final byte[] address, final UInt256 slot, final UInt256 into) {
+        final byte[] value = slots.get(key(address, slot));
+        return value == null ? into.setZero() : into.setBytes(value);
+    }
 
-        private final HTreeMap<byte[], byte[]> slotMap;
+    public void store(final byte[] address, final UInt256 slot, final UInt256 value) {
+        if (stateTrie != null) {
+            stateTrie.updateSlot(address, slot, value);
+        }
+        if (value.isZero()) {
+            slots.remove(key(address, slot));
+        } else {
+            slots.put(key(address, slot), value.toBytes());
+        }
+    }
 
-        private final byte[] address;
+    /**
+     * Returns the 32-byte value of the slot. Missing slots return a shared zero word that must not be modified.
+     * @param address
+     * @param key
+     * @return
+     */
+    public byte[] get(final byte[] address, final byte[] key) {
+        final byte[] value = slots.get(key(address, key));
+        return value == null ? ZERO : value;
+    }
 
-        public Slot(final byte[] address) {
-            this.address = address;
-            slotMap = GlobalState.getDB().hashMap("slotMap-" + HexFormat.of().formatHex(address))
-                .keySerializer(Serializer.BYTE_ARRAY)
-                .valueSerializer(Serializer.BYTE_ARRAY)
-                .createOrOpen();
+    public void put(final byte[] address, final byte[] key, final byte[] value) {
+        final byte[] word = new byte[UInt256.SIZE_IN_BYTES];
+        copyRightAligned(value, word, 0, UInt256.SIZE_IN_BYTES);
+        if (stateTrie != null) {
+            stateTrie.updateSlot(address, new UInt256().setBytes(key), new UInt256().setBytes(word));
         }
+        if (Arrays.equals(word, ZERO)) {
+            slots.remove(key(address, key));
+        } else {
+            slots.put(key(address, key), word);
+        }
+    }
 
+    /**
+     * Reports every stored slot to the trie, so that a trie over a reopened backend covers them.
+     * @param trie
+     */
+    void replay(final StateTrie trie) {
+        final UInt256 slot = new UInt256();
+        final UInt256 value = new UInt256();
+        for (Map.Entry<byte[], byte[]> entry : slots.entrySet()) {
+            final byte[] key = entry.getKey();
+            slot.setBytes(key, Address.ADDRESS_LENGTH, UInt256.SIZE_IN_BYTES);
+            trie.updateSlot(Arrays.copyOf(key, Address.ADDRESS_LENGTH), slot, value.setBytes(entry.getValue()));
+        }
     }
 
-    private class SlotSerializer implements Serializer<Slot> {
+    public int size() {
+        return slots.size();
+    }
 
-        @Override
-        public void serialize(final DataOutput2 out, final Slot value) throws IOException {
-            // Implement serialization logic here
-            out.write(value.address);
-        }
+    static byte[] key(final byte[] address, final UInt256 slot) {
+        final byte[] key = new byte[KEY_LENGTH];
+        copyRightAligned(address, key, 0, Address.ADDRESS_LENGTH);
+        slot.toBytes(key, Address.ADDRESS_LENGTH);
+        return key;
+    }
 
-        @Override
-        public Slot deserialize(DataInput2 in, int available) throws IOException {
-            // Implement deserialization logic here
-            byte[] address = new byte[available];
-            in.readFully(address);
-            return new Slot(address);
-        }
+    static byte[] key(final byte[] address, final byte[] slot) {
+        final byte[] key = new byte[KEY_LENGTH];
+        copyRightAligned(address, key, 0, Address.ADDRESS_LENGTH);
+        copyRightAligned(slot, key, Address.ADDRESS_LENGTH, UInt256.SIZE_IN_BYTES);
+        return key;
+    }
 
-        @Override
-        public int fixedSize() {
-            return Address.ADDRESS_LENGTH; // Return the fixed size of the serialized object, if applicable
-        }
+    // Copies the low length bytes of source into dest, zero padding on the left if source is shorter
+    private static void copyRightAligned(final byte[] source, final byte[] dest, final int offset, final int length) {
+        final int count = Math.min(source.length, length);
+        System.arraycopy(source, source.length - count, dest, offset + length - count, count);
     }
+
 }
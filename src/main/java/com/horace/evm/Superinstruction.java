@@ -0,0 +1,175 @@
+package com.horace.evm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opcode sequences common in Solidity output that the {@link Interpreter} can run as a single dispatch.
+ * Fusion is a rewrite of the {@link DecodedCode} stream: the first slot of a matched sequence gets the
+ * fused opcode and the interpreter steps over the remaining ones. Sequences never cross a block boundary,
+ * so stack checks and gas stay with the enclosing {@link BasicBlock} and the semantics are unchanged.
+ * Jumps are only fused when the pushed target is a valid JUMPDEST, which is then resolved to its slot here.
+ */
+public enum Superinstruction {
+
+    PUSH_JUMP(DecodedCode.OP_PUSH_JUMP, 2),
+    PUSH_JUMPI(DecodedCode.OP_PUSH_JUMPI, 2),
+    ISZERO_PUSH_JUMPI(DecodedCode.OP_ISZERO_PUSH_JUMPI, 3),
+    DUP_SWAP(DecodedCode.OP_DUP_SWAP, 2),
+    PUSH4_EQ(DecodedCode.OP_PUSH4_EQ, 2);
+
+    private static final Superinstruction[] VALUES = values();
+    private static final ThreadLocal<Counts> COUNTS = ThreadLocal.withInitial(Counts::new);
+
+    private final int opcode;
+    // Number of original instructions replaced
+    private final int length;
+    private final LongAdder hits = new LongAdder();
+
+    Superinstruction(final int opcode, final int length) {
+        this.opcode = opcode;
+        this.length = length;
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns how many times the fused instruction has been executed, by transactions that have finished.
+     * @return
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of dispatches avoided by executing the fused instruction instead of its parts.
+     * @return
+     */
+    public long getDispatchesSaved() {
+        return getHits() * (length - 1);
+    }
+
+    public static void resetHits() {
+        for (Superinstruction superinstruction : VALUES) {
+            superinstruction.hits.reset();
+        }
+    }
+
+    /**
+     * Returns the hit counts of the current thread, which the interpreter increments without allocating
+     * or touching the shared counters.
+     * @return
+     */
+    static Counts counts() {
+        return COUNTS.get();
+    }
+
+    /**
+     * Hit counts of the frames running on one thread, indexed by the fused opcode minus
+     * {@link DecodedCode#OP_PUSH_JUMP}. They are added to the shared counters when the outermost frame
+     * on the thread returns, once per transaction rather than once per frame.
+     */
+    static final class Counts {
+
+        final long[] hits = new long[VALUES.length];
+        private int depth;
+
+        void enter() {
+            depth++;
+        }
+
+        void exit() {
+            if (--depth > 0) {
+                return;
+            }
+            for (Superinstruction superinstruction : VALUES) {
+                final int index = superinstruction.opcode - DecodedCode.OP_PUSH_JUMP;
+                if (hits[index] != 0) {
+                    superinstruction.hits.add(hits[index]);
+                    hits[index] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the instruction stream with every sequence that can be fused.
+     * @param code
+     * @return
+     */
+    public static DecodedCode fuse(final DecodedCode code) {
+        final int[] source = code.ops;
+        final int[] ops = source.clone();
+        final int[] args = code.args.clone();
+        int i = 0;
+        while (i < source.length) {
+            final Superinstruction fused = match(code, source, i);
+            if (fused == null) {
+                i++;
+                continue;
+            }
+            ops[i] = fused.opcode;
+            switch (fused) {
+                case PUSH_JUMP:
+                case PUSH_JUMPI:
+                    args[i] = staticTarget(code, i);
+                    break;
+                case ISZERO_PUSH_JUMPI:
+                    args[i] = staticTarget(code, i + 1);
+                    break;
+                case DUP_SWAP:
+                    args[i] = (source[i] - 0x80) | (source[i + 1] - 0x8F) << 8;
+                    break;
+                default:
+                    // PUSH4_EQ keeps the immediate offset of the PUSH4
+                    break;
+            }
+            i += fused.length;
+        }
+        return code.withStream(ops, args);
+    }
+
+    private static Superinstruction match(final DecodedCode code, final int[] ops, final int i) {
+        final int op = ops[i];
+        final int next = i + 1 < ops.length ? ops[i + 1] : -1;
+        if (op == Instruction.ISZERO.getOpcode() && isPush(next) && i + 2 < ops.length
+                && ops[i + 2] == Instruction.JUMPI.getOpcode() && staticTarget(code, i + 1) >= 0) {
+            return ISZERO_PUSH_JUMPI;
+        }
+        if (isPush(op) && next == Instruction.JUMP.getOpcode() && staticTarget(code, i) >= 0) {
+            return PUSH_JUMP;
+        }
+        if (isPush(op) && next == Instruction.JUMPI.getOpcode() && staticTarget(code, i) >= 0) {
+            return PUSH_JUMPI;
+        }
+        if (op == Instruction.PUSH4.getOpcode() && next == Instruction.EQ.getOpcode()) {
+            return PUSH4_EQ;
+        }
+        if (op >= Instruction.DUP1.getOpcode() && op <= Instruction.DUP16.getOpcode()
+                && next >= Instruction.SWAP1.getOpcode() && next <= Instruction.SWAP16.getOpcode()) {
+            return DUP_SWAP;
+        }
+        return null;
+    }
+
+    private static boolean isPush(final int op) {
+        return op >= Instruction.PUSH1.getOpcode() && op <= Instruction.PUSH32.getOpcode();
+    }
+
+    // Slot of the block entry the PUSH at the given slot jumps to, or -1 if the target is not a JUMPDEST
+    private static int staticTarget(final DecodedCode code, final int pushIndex) {
+        final long[] immediates = code.immediates;
+        final int offset = code.args[pushIndex];
+        if (immediates[offset + 1] != 0 || immediates[offset + 2] != 0 || immediates[offset + 3] != 0
+                || immediates[offset] < 0 || immediates[offset] > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return code.jumpIndex((int) immediates[offset]);
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.horace.evm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs code in the {@link Interpreter} until its code hash has been invoked {@code threshold} times,
+ * then compiles it with the {@link JitCompiler} and runs the compiled class from then on.
+ * Code that cannot be compiled, and blocks the compiler does not support, keep running in the interpreter.
+ */
+public class TieredExecutor {
+
+    public static final long DEFAULT_THRESHOLD = 1000;
+
+    // Marks code the compiler gave up on, so it is not counted or compiled again
+    private static final CompiledCode NOT_COMPILABLE = new CompiledCode(new int[] {0}) {
+        @Override
+        int runChunk(final int chunk, final ExecutionContext context, final Stack stack, final DecodedCode code,
+                final int block) {
+            return code.blocks[block].getStartPc();
+        }
+    };
+
+    private final Interpreter interpreter;
+    private final long threshold;
+    private final LongAdder compiled = new LongAdder();
+    private final LongAdder compiledRuns = new LongAdder();
+
+    public TieredExecutor() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public TieredExecutor(final long threshold) {
+        this(threshold, new Interpreter());
+    }
+
+    public TieredExecutor(final long threshold, final Interpreter interpreter) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be at least 1");
+        }
+        this.threshold = threshold;
+        this.interpreter = interpreter;
+    }
+
+    public void execute(final ExecutionContext context) {
+        final CodeAnalysis analysis = context.getAnalysis();
+        CompiledCode code = analysis.getCompiledCode();
+        if (code == null) {
+            // Only the invocation that reaches the threshold compiles, the others keep interpreting meanwhile
+            if (analysis.countInvocation() != threshold) {
+                interpreter.execute(context);
+                return;
+            }
+            code = compile(analysis);
+        }
+        if (code == NOT_COMPILABLE) {
+            interpreter.execute(context);
+            return;
+        }
+        final DecodedCode decoded = analysis.getDecodedCode();
+        final int index = decoded.indexOf(context.getProgramCounter());
+        if (index < 0 || decoded.ops[index] != DecodedCode.OP_BEGIN_BLOCK) {
+            throw new IllegalArgumentException("No block starts at pc " + context.getProgramCounter());
+        }
+        compiledRuns.increment();
+        final int resume = code.run(context, context.getStack(), decoded, decoded.args[index]);
+        if (resume >= 0) {
+            context.setProgramCounter(resume);
+            interpreter.execute(context);
+        }
+    }
+
+    private CompiledCode compile(final CodeAnalysis analysis) {
+        CompiledCode code = JitCompiler.compile(analysis.getDecodedCode());
+        if (code == null) {
+            code = NOT_COMPILABLE;
+        } else {
+            compiled.increment();
+        }
+        analysis.setCompiledCode(code);
+        return code;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns how many contracts this executor has compiled.
+     * @return
+     */
+    public long getCompiledCount() {
+        return compiled.sum();
+    }
+
+    /**
+     * Returns how many executions started in compiled code.
+     * @return
+     */
+    public long getCompiledRuns() {
+        return compiledRuns.sum();
+    }
+
+}
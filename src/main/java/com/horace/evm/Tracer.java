@@ -0,0 +1,66 @@
+package com.horace.evm;
+
+/**
+ * Hooks into execution for debugging and tracing. Every hook does nothing by default, so a tracer only
+ * overrides what it needs.
+ * <p>
+ * An {@link EVM} created with a tracer steps through its code one {@link Instruction} at a time, whatever
+ * its engine, since superinstructions and compiled code have no boundary between opcodes to hook into.
+ * An EVM without a tracer never looks for one, so untraced execution pays nothing for tracing.
+ * Frames and words passed to the hooks are reused once the hook returns and must not be kept.
+ */
+public interface Tracer {
+
+    /**
+     * Called when a frame starts to run: the transaction's own, a message call or a creation,
+     * see {@link ExecutionContext#getKind()}.
+     * @param frame
+     */
+    default void enter(final ExecutionContext frame) {
+    }
+
+    /**
+     * Called before each instruction executes, once its static gas has been charged.
+     * @param frame
+     * @param pc the position of the instruction in the code
+     * @param instruction
+     */
+    default void step(final ExecutionContext frame, final int pc, final Instruction instruction) {
+    }
+
+    /**
+     * Called after an instruction executed without halting exceptionally, with the stack and memory it left.
+     * @param frame
+     * @param pc the position of the instruction in the code
+     * @param instruction
+     */
+    default void executed(final ExecutionContext frame, final int pc, final Instruction instruction) {
+    }
+
+    /**
+     * Called after SLOAD read or SSTORE wrote a slot of the frame's account.
+     * @param frame
+     * @param slot
+     * @param value
+     * @param write true for SSTORE
+     */
+    default void storage(final ExecutionContext frame, final UInt256 slot, final UInt256 value, final boolean write) {
+    }
+
+    /**
+     * Called after a LOG instruction emitted the log.
+     * @param frame
+     * @param log
+     */
+    default void log(final ExecutionContext frame, final Log log) {
+    }
+
+    /**
+     * Called when a frame stops, also when it halts exceptionally.
+     * @param frame
+     * @param success false if the frame reverted or halted exceptionally
+     */
+    default void exit(final ExecutionContext frame, final boolean success) {
+    }
+
+}
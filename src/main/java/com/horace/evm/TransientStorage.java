@@ -0,0 +1,160 @@
+package com.horace.evm;
+
+import java.util.Arrays;
+
+/**
+ * EIP-1153 transient storage: (address, slot) to word, discarded at the end of every transaction.
+ * <p>
+ * Open addressing with linear probing over flat long arrays: an address takes three limbs, a slot and
+ * a value four each, so lookups neither allocate nor hash objects. A slot of the table is live only
+ * when its generation matches the current one, which makes {@link #clear()} a counter increment.
+ * Writing zero keeps the entry, a zero value reads the same as a missing one.
+ */
+public class TransientStorage {
+
+    private static final int KEY_LIMBS = 7;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys = new long[INITIAL_CAPACITY * KEY_LIMBS];
+    private long[] values = new long[INITIAL_CAPACITY * Stack.LIMBS];
+    private int[] generations = new int[INITIAL_CAPACITY];
+    // Starts above the zero of unused table slots
+    private int generation = 1;
+    private int size = 0;
+
+    /**
+     * Reads the slot into the given word and returns it.
+     * @param address
+     * @param slot
+     * @param into
+     * @return
+     */
+    public UInt256 load(final byte[] address, final UInt256 slot, final UInt256 into) {
+        final long a0 = addressLimb(address, 0);
+        final long a1 = addressLimb(address, 1);
+        final long a2 = addressLimb(address, 2);
+        final int index = find(a0, a1, a2, slot);
+        if (generations[index] != generation) {
+            return into.setZero();
+        }
+        final int base = index * Stack.LIMBS;
+        into.u0 = values[base];
+        into.u1 = values[base + 1];
+        into.u2 = values[base + 2];
+        into.u3 = values[base + 3];
+        return into;
+    }
+
+    public void store(final byte[] address, final UInt256 slot, final UInt256 value) {
+        final long a0 = addressLimb(address, 0);
+        final long a1 = addressLimb(address, 1);
+        final long a2 = addressLimb(address, 2);
+        int index = find(a0, a1, a2, slot);
+        if (generations[index] != generation) {
+            if ((size + 1) * 2 > generations.length) {
+                resize(generations.length * 2);
+                index = find(a0, a1, a2, slot);
+            }
+            final int key = index * KEY_LIMBS;
+            keys[key] = a0;
+            keys[key + 1] = a1;
+            keys[key + 2] = a2;
+            keys[key + 3] = slot.u0;
+            keys[key + 4] = slot.u1;
+            keys[key + 5] = slot.u2;
+            keys[key + 6] = slot.u3;
+            generations[index] = generation;
+            size++;
+        }
+        final int base = index * Stack.LIMBS;
+        values[base] = value.u0;
+        values[base + 1] = value.u1;
+        values[base + 2] = value.u2;
+        values[base + 3] = value.u3;
+    }
+
+    /**
+     * Forgets every entry in constant time, at the end of a transaction.
+     */
+    public void clear() {
+        size = 0;
+        if (++generation == 0) {
+            // After 2^32 clears the stale generations could come back to life
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Returns the table slot holding the key, or the free slot where it would be inserted
+    private int find(final long a0, final long a1, final long a2, final UInt256 slot) {
+        final int mask = generations.length - 1;
+        int index = hash(a0, a1, a2, slot.u0, slot.u1, slot.u2, slot.u3) & mask;
+        while (generations[index] == generation) {
+            final int key = index * KEY_LIMBS;
+            if (keys[key] == a0 && keys[key + 1] == a1 && keys[key + 2] == a2 && keys[key + 3] == slot.u0
+                    && keys[key + 4] == slot.u1 && keys[key + 5] == slot.u2 && keys[key + 6] == slot.u3) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize(final int capacity) {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        final int[] oldGenerations = generations;
+        keys = new long[capacity * KEY_LIMBS];
+        values = new long[capacity * Stack.LIMBS];
+        generations = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldGenerations.length; i++) {
+            if (oldGenerations[i] != generation) {
+                continue;
+            }
+            final int from = i * KEY_LIMBS;
+            int index = hash(oldKeys[from], oldKeys[from + 1], oldKeys[from + 2], oldKeys[from + 3],
+                oldKeys[from + 4], oldKeys[from + 5], oldKeys[from + 6]) & mask;
+            while (generations[index] == generation) {
+                index = (index + 1) & mask;
+            }
+            System.arraycopy(oldKeys, from, keys, index * KEY_LIMBS, KEY_LIMBS);
+            System.arraycopy(oldValues, i * Stack.LIMBS, values, index * Stack.LIMBS, Stack.LIMBS);
+            generations[index] = generation;
+        }
+    }
+
+    static int hash(final long a0, final long a1, final long a2,
+            final long s0, final long s1, final long s2, final long s3) {
+        long h = a0;
+        h = h * 31 + a1;
+        h = h * 31 + a2;
+        h = h * 31 + s0;
+        h = h * 31 + s1;
+        h = h * 31 + s2;
+        h = h * 31 + s3;
+        // Final mix of MurmurHash3, so sequential slots spread over the table
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    // Limb 0 holds the low 8 bytes of the address, limb 2 the high 4
+    static long addressLimb(final byte[] address, final int limb) {
+        final int end = address.length - limb * 8;
+        final int start = Math.max(0, end - 8);
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = (value << 8) | (address[i] & 0xFF);
+        }
+        return value;
+    }
+
+}
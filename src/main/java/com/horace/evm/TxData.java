@@ -1,6 +1,7 @@
 package com.horace.evm;
 
 import java.math.BigInteger;
+import java.util.List;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -15,5 +16,11 @@ public class TxData {
     private final byte[] origin;
     private final byte[] data;
     private final BigInteger gasPrice;
+    private final List<AccessListEntry> accessList;
+
+    public TxData(final byte[] from, final byte[] to, final byte[] value, final byte[] origin, final byte[] data,
+            final BigInteger gasPrice) {
+        this(from, to, value, origin, data, gasPrice, List.of());
+    }
 
 }
@@ -0,0 +1,32 @@
+package com.horace.evm;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of a transaction run by {@link EVM#execute(TxData, WorldState)} or a call run by
+ * {@link EVM#call(TxData, Block, byte[], WorldState)}. Only a successful run has logs.
+ */
+@AllArgsConstructor
+@Getter
+public class TxResult {
+
+    public enum Status {
+        SUCCESS,
+        REVERTED,
+        // Halted exceptionally, or the sender could not pay the value
+        FAILED
+    }
+
+    private final Status status;
+    private final long gasUsed;
+    private final byte[] returnData;
+    private final List<Log> logs;
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+}
@@ -0,0 +1,652 @@
+package com.horace.evm;
+
+import java.math.BigInteger;
+
+/**
+ * Mutable unsigned 256-bit word backed by four 64-bit limbs.
+ * Limb u0 holds the least significant 64 bits and u3 the most significant.
+ * All binary operations are done in place ({@code this = this op other}) and wrap modulo 2^256,
+ * so instructions can reuse a few words per context instead of allocating a BigInteger per opcode.
+ * Operations are safe when {@code other == this}.
+ */
+public final class UInt256 implements Comparable<UInt256> {
+
+    public static final int SIZE_IN_BYTES = 32;
+
+    private static final BigInteger MASK_64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    long u0;
+    long u1;
+    long u2;
+    long u3;
+
+    public UInt256() {
+    }
+
+    public UInt256(final long value) {
+        this.u0 = value;
+    }
+
+    public UInt256(final long u3, final long u2, final long u1, final long u0) {
+        this.u0 = u0;
+        this.u1 = u1;
+        this.u2 = u2;
+        this.u3 = u3;
+    }
+
+    public static UInt256 fromBytes(final byte[] bytes) {
+        return new UInt256().setBytes(bytes);
+    }
+
+    public static UInt256 fromBigInteger(final BigInteger value) {
+        return new UInt256().setBigInteger(value);
+    }
+
+    // Setters
+
+    public UInt256 set(final UInt256 other) {
+        this.u0 = other.u0;
+        this.u1 = other.u1;
+        this.u2 = other.u2;
+        this.u3 = other.u3;
+        return this;
+    }
+
+    public UInt256 set(final long value) {
+        this.u0 = value;
+        this.u1 = 0;
+        this.u2 = 0;
+        this.u3 = 0;
+        return this;
+    }
+
+    public UInt256 set(final boolean value) {
+        return set(value ? 1L : 0L);
+    }
+
+    public UInt256 setZero() {
+        return set(0L);
+    }
+
+    public UInt256 setBytes(final byte[] bytes) {
+        return setBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Sets this word from a big-endian byte range. Ranges longer than 32 bytes keep the low 32 bytes,
+     * shorter ranges are zero extended.
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    public UInt256 setBytes(final byte[] bytes, final int offset, final int length) {
+        long l0 = 0, l1 = 0, l2 = 0, l3 = 0;
+        final int start = offset + Math.max(0, length - SIZE_IN_BYTES);
+        final int end = offset + length;
+        for (int i = start; i < end; i++) {
+            l3 = (l3 << 8) | (l2 >>> 56);
+            l2 = (l2 << 8) | (l1 >>> 56);
+            l1 = (l1 << 8) | (l0 >>> 56);
+            l0 = (l0 << 8) | (bytes[i] & 0xFF);
+        }
+        this.u0 = l0;
+        this.u1 = l1;
+        this.u2 = l2;
+        this.u3 = l3;
+        return this;
+    }
+
+    public UInt256 setBigInteger(final BigInteger value) {
+        final BigInteger v = value.signum() < 0 ? value.add(BigInteger.ONE.shiftLeft(256)) : value;
+        this.u0 = v.longValue();
+        this.u1 = v.shiftRight(64).longValue();
+        this.u2 = v.shiftRight(128).longValue();
+        this.u3 = v.shiftRight(192).longValue();
+        return this;
+    }
+
+    // Conversions
+
+    public byte[] toBytes() {
+        final byte[] bytes = new byte[SIZE_IN_BYTES];
+        toBytes(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Writes this word as 32 big-endian bytes into the destination array.
+     * @param dest
+     * @param offset
+     */
+    public void toBytes(final byte[] dest, final int offset) {
+        putLong(dest, offset, u3);
+        putLong(dest, offset + 8, u2);
+        putLong(dest, offset + 16, u1);
+        putLong(dest, offset + 24, u0);
+    }
+
+    public BigInteger toBigInteger() {
+        return BigInteger.valueOf(u3 >>> 32).shiftLeft(32).or(BigInteger.valueOf(u3 & 0xFFFFFFFFL)).shiftLeft(64)
+            .or(BigInteger.valueOf(u2).and(MASK_64)).shiftLeft(64)
+            .or(BigInteger.valueOf(u1).and(MASK_64)).shiftLeft(64)
+            .or(BigInteger.valueOf(u0).and(MASK_64));
+    }
+
+    public boolean isZero() {
+        return (u0 | u1 | u2 | u3) == 0;
+    }
+
+    /**
+     * Returns true when the word is negative in two's complement, i.e. the top bit is set.
+     * @return
+     */
+    public boolean isNegative() {
+        return u3 < 0;
+    }
+
+    public boolean fitsInt() {
+        return (u1 | u2 | u3) == 0 && u0 >= 0 && u0 <= Integer.MAX_VALUE;
+    }
+
+    public boolean fitsLong() {
+        return (u1 | u2 | u3) == 0 && u0 >= 0;
+    }
+
+    public int intValue() {
+        return (int) u0;
+    }
+
+    public long longValue() {
+        return u0;
+    }
+
+    /**
+     * Returns the value as an int, saturating at Integer.MAX_VALUE. Handy for offsets and sizes,
+     * where anything that large is out of range anyway.
+     * @return
+     */
+    public int clampedInt() {
+        return fitsInt() ? (int) u0 : Integer.MAX_VALUE;
+    }
+
+    public int bitLength() {
+        if (u3 != 0) return 256 - Long.numberOfLeadingZeros(u3);
+        if (u2 != 0) return 192 - Long.numberOfLeadingZeros(u2);
+        if (u1 != 0) return 128 - Long.numberOfLeadingZeros(u1);
+        return 64 - Long.numberOfLeadingZeros(u0);
+    }
+
+    public int byteLength() {
+        return (bitLength() + 7) >>> 3;
+    }
+
+    // Comparison
+
+    @Override
+    public int compareTo(final UInt256 other) {
+        if (u3 != other.u3) return Long.compareUnsigned(u3, other.u3);
+        if (u2 != other.u2) return Long.compareUnsigned(u2, other.u2);
+        if (u1 != other.u1) return Long.compareUnsigned(u1, other.u1);
+        return Long.compareUnsigned(u0, other.u0);
+    }
+
+    public int signedCompareTo(final UInt256 other) {
+        if (u3 != other.u3) return Long.compare(u3, other.u3);
+        if (u2 != other.u2) return Long.compareUnsigned(u2, other.u2);
+        if (u1 != other.u1) return Long.compareUnsigned(u1, other.u1);
+        return Long.compareUnsigned(u0, other.u0);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof UInt256)) return false;
+        final UInt256 other = (UInt256) obj;
+        return u0 == other.u0 && u1 == other.u1 && u2 == other.u2 && u3 == other.u3;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(u0 ^ u1 ^ u2 ^ u3);
+    }
+
+    // Arithmetic
+
+    public UInt256 add(final UInt256 other) {
+        final long r0 = u0 + other.u0;
+        long carry = Long.compareUnsigned(r0, u0) < 0 ? 1 : 0;
+        final long t1 = u1 + other.u1;
+        final long r1 = t1 + carry;
+        carry = (Long.compareUnsigned(t1, u1) < 0 || Long.compareUnsigned(r1, t1) < 0) ? 1 : 0;
+        final long t2 = u2 + other.u2;
+        final long r2 = t2 + carry;
+        carry = (Long.compareUnsigned(t2, u2) < 0 || Long.compareUnsigned(r2, t2) < 0) ? 1 : 0;
+        this.u3 = u3 + other.u3 + carry;
+        this.u2 = r2;
+        this.u1 = r1;
+        this.u0 = r0;
+        return this;
+    }
+
+    public UInt256 sub(final UInt256 other) {
+        final long r0 = u0 - other.u0;
+        long borrow = Long.compareUnsigned(u0, other.u0) < 0 ? 1 : 0;
+        final long t1 = u1 - other.u1;
+        final long r1 = t1 - borrow;
+        borrow = (Long.compareUnsigned(u1, other.u1) < 0 || Long.compareUnsigned(t1, borrow) < 0) ? 1 : 0;
+        final long t2 = u2 - other.u2;
+        final long r2 = t2 - borrow;
+        borrow = (Long.compareUnsigned(u2, other.u2) < 0 || Long.compareUnsigned(t2, borrow) < 0) ? 1 : 0;
+        this.u3 = u3 - other.u3 - borrow;
+        this.u2 = r2;
+        this.u1 = r1;
+        this.u0 = r0;
+        return this;
+    }
+
+    public UInt256 negate() {
+        not();
+        final long r0 = u0 + 1;
+        if (r0 == 0) {
+            if (++u1 == 0) {
+                if (++u2 == 0) {
+                    ++u3;
+                }
+            }
+        }
+        u0 = r0;
+        return this;
+    }
+
+    public UInt256 mul(final UInt256 other) {
+        final long a0 = u0, a1 = u1, a2 = u2, a3 = u3;
+        final long b0 = other.u0, b1 = other.u1, b2 = other.u2, b3 = other.u3;
+
+        // Schoolbook multiplication, dropping every partial product above 2^256.
+        final long r0 = a0 * b0;
+        long carry0 = multiplyHighUnsigned(a0, b0);
+
+        long lo = a1 * b0 + carry0;
+        carry0 = multiplyHighUnsigned(a1, b0) + (Long.compareUnsigned(lo, carry0) < 0 ? 1 : 0);
+        final long res1 = lo;
+
+        lo = a2 * b0 + carry0;
+        carry0 = multiplyHighUnsigned(a2, b0) + (Long.compareUnsigned(lo, carry0) < 0 ? 1 : 0);
+        long res2 = lo;
+
+        final long r1 = a0 * b1 + res1;
+        long carry1 = multiplyHighUnsigned(a0, b1) + (Long.compareUnsigned(r1, res1) < 0 ? 1 : 0);
+
+        final long p = a1 * b1;
+        long hi = multiplyHighUnsigned(a1, b1);
+        final long t = p + carry1;
+        hi += Long.compareUnsigned(t, p) < 0 ? 1 : 0;
+        final long t2 = t + res2;
+        hi += Long.compareUnsigned(t2, t) < 0 ? 1 : 0;
+        res2 = t2;
+        carry1 = hi;
+
+        final long r2 = a0 * b2 + res2;
+        final long carry2 = multiplyHighUnsigned(a0, b2) + (Long.compareUnsigned(r2, res2) < 0 ? 1 : 0);
+
+        this.u3 = a3 * b0 + a2 * b1 + a1 * b2 + a0 * b3 + carry0 + carry1 + carry2;
+        this.u2 = r2;
+        this.u1 = r1;
+        this.u0 = r0;
+        return this;
+    }
+
+    /**
+     * Unsigned division. Division by zero yields zero, as in the EVM.
+     * @param other
+     * @return
+     */
+    public UInt256 div(final UInt256 other) {
+        return divMod(other, false);
+    }
+
+    /**
+     * Unsigned modulo. Modulo by zero yields zero, as in the EVM.
+     * @param other
+     * @return
+     */
+    public UInt256 mod(final UInt256 other) {
+        return divMod(other, true);
+    }
+
+    public UInt256 sdiv(final UInt256 other) {
+        if (other.isZero()) {
+            return setZero();
+        }
+        final boolean negative = isNegative() != other.isNegative();
+        final UInt256 divisor = new UInt256(other.u3, other.u2, other.u1, other.u0);
+        if (divisor.isNegative()) divisor.negate();
+        if (isNegative()) negate();
+        divMod(divisor, false);
+        return negative ? negate() : this;
+    }
+
+    public UInt256 smod(final UInt256 other) {
+        if (other.isZero()) {
+            return setZero();
+        }
+        final boolean negative = isNegative();
+        final UInt256 divisor = new UInt256(other.u3, other.u2, other.u1, other.u0);
+        if (divisor.isNegative()) divisor.negate();
+        if (negative) negate();
+        divMod(divisor, true);
+        return negative ? negate() : this;
+    }
+
+    public UInt256 addMod(final UInt256 other, final UInt256 modulus) {
+        if (modulus.isZero()) {
+            return setZero();
+        }
+        final UInt256 b = new UInt256(other.u3, other.u2, other.u1, other.u0).mod(modulus);
+        mod(modulus);
+        add(b);
+        // Both operands are below the modulus, so the true sum is below 2 * modulus and a single
+        // (wrapping) subtraction brings it back into range, including when the addition carried out.
+        if (compareTo(b) < 0 || compareTo(modulus) >= 0) {
+            sub(modulus);
+        }
+        return this;
+    }
+
+    public UInt256 mulMod(final UInt256 other, final UInt256 modulus) {
+        if (modulus.isZero()) {
+            return setZero();
+        }
+        if (bitLength() + other.bitLength() <= 256) {
+            return mul(other).mod(modulus);
+        }
+        // The full 512-bit product is rare enough to leave to BigInteger.
+        return setBigInteger(toBigInteger().multiply(other.toBigInteger()).mod(modulus.toBigInteger()));
+    }
+
+    public UInt256 exp(final UInt256 exponent) {
+        final UInt256 base = new UInt256(u3, u2, u1, u0);
+        set(1L);
+        final int bits = exponent.bitLength();
+        for (int i = 0; i < bits; i++) {
+            if (exponent.testBit(i)) {
+                mul(base);
+            }
+            if (i + 1 < bits) {
+                base.mul(base);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sign extends this word from the byte at position {@code byteNum}, counting from the least significant byte.
+     * @param byteNum
+     * @return
+     */
+    public UInt256 signExtend(final UInt256 byteNum) {
+        if (!byteNum.fitsInt() || byteNum.u0 >= 31) {
+            return this;
+        }
+        final int bit = (int) byteNum.u0 * 8 + 7;
+        final boolean negative = testBit(bit);
+        final int limb = bit >>> 6;
+        final long mask = (bit & 63) == 63 ? -1L : (1L << ((bit & 63) + 1)) - 1;
+        final long fill = negative ? -1L : 0L;
+        switch (limb) {
+            case 0:
+                u0 = negative ? u0 | ~mask : u0 & mask;
+                u1 = fill;
+                u2 = fill;
+                u3 = fill;
+                break;
+            case 1:
+                u1 = negative ? u1 | ~mask : u1 & mask;
+                u2 = fill;
+                u3 = fill;
+                break;
+            case 2:
+                u2 = negative ? u2 | ~mask : u2 & mask;
+                u3 = fill;
+                break;
+            default:
+                u3 = negative ? u3 | ~mask : u3 & mask;
+                break;
+        }
+        return this;
+    }
+
+    // Bitwise
+
+    public UInt256 and(final UInt256 other) {
+        u0 &= other.u0;
+        u1 &= other.u1;
+        u2 &= other.u2;
+        u3 &= other.u3;
+        return this;
+    }
+
+    public UInt256 or(final UInt256 other) {
+        u0 |= other.u0;
+        u1 |= other.u1;
+        u2 |= other.u2;
+        u3 |= other.u3;
+        return this;
+    }
+
+    public UInt256 xor(final UInt256 other) {
+        u0 ^= other.u0;
+        u1 ^= other.u1;
+        u2 ^= other.u2;
+        u3 ^= other.u3;
+        return this;
+    }
+
+    public UInt256 not() {
+        u0 = ~u0;
+        u1 = ~u1;
+        u2 = ~u2;
+        u3 = ~u3;
+        return this;
+    }
+
+    public boolean testBit(final int n) {
+        if (n < 0 || n >= 256) return false;
+        return ((limb(n >>> 6) >>> (n & 63)) & 1) != 0;
+    }
+
+    /**
+     * Replaces this word with its byte at {@code index}, where byte 0 is the most significant one.
+     * @param index
+     * @return
+     */
+    public UInt256 byteAt(final UInt256 index) {
+        if (!index.fitsInt() || index.u0 >= SIZE_IN_BYTES) {
+            return setZero();
+        }
+        final int fromLow = SIZE_IN_BYTES - 1 - (int) index.u0;
+        return set((limb(fromLow >>> 3) >>> ((fromLow & 7) * 8)) & 0xFF);
+    }
+
+    public UInt256 shl(final UInt256 shift) {
+        return shift.fitsInt() ? shl((int) shift.u0) : setZero();
+    }
+
+    public UInt256 shr(final UInt256 shift) {
+        return shift.fitsInt() ? shr((int) shift.u0) : setZero();
+    }
+
+    public UInt256 sar(final UInt256 shift) {
+        return shift.fitsInt() ? sar((int) shift.u0) : fill(isNegative());
+    }
+
+    public UInt256 shl(final int n) {
+        if (n >= 256) return setZero();
+        if (n <= 0) return this;
+        final int limbs = n >>> 6, bits = n & 63;
+        long l3 = limb(3 - limbs), l2 = limb(2 - limbs), l1 = limb(1 - limbs), l0 = limb(-limbs);
+        if (bits != 0) {
+            l3 = (l3 << bits) | (l2 >>> (64 - bits));
+            l2 = (l2 << bits) | (l1 >>> (64 - bits));
+            l1 = (l1 << bits) | (l0 >>> (64 - bits));
+            l0 = l0 << bits;
+        }
+        u0 = l0;
+        u1 = l1;
+        u2 = l2;
+        u3 = l3;
+        return this;
+    }
+
+    public UInt256 shr(final int n) {
+        return shiftRight(n, 0L);
+    }
+
+    public UInt256 sar(final int n) {
+        return shiftRight(n, isNegative() ? -1L : 0L);
+    }
+
+    @Override
+    public String toString() {
+        return toBigInteger().toString();
+    }
+
+    public String toHexString() {
+        return toBigInteger().toString(16);
+    }
+
+    // Internals
+
+    private UInt256 fill(final boolean ones) {
+        final long v = ones ? -1L : 0L;
+        u0 = v;
+        u1 = v;
+        u2 = v;
+        u3 = v;
+        return this;
+    }
+
+    private UInt256 shiftRight(final int n, final long fill) {
+        if (n >= 256) return fill(fill != 0);
+        if (n <= 0) return this;
+        final int limbs = n >>> 6, bits = n & 63;
+        long l0 = limbOr(limbs, fill), l1 = limbOr(1 + limbs, fill), l2 = limbOr(2 + limbs, fill), l3 = limbOr(3 + limbs, fill);
+        if (bits != 0) {
+            l0 = (l0 >>> bits) | (l1 << (64 - bits));
+            l1 = (l1 >>> bits) | (l2 << (64 - bits));
+            l2 = (l2 >>> bits) | (l3 << (64 - bits));
+            l3 = (l3 >>> bits) | (fill << (64 - bits));
+        }
+        u0 = l0;
+        u1 = l1;
+        u2 = l2;
+        u3 = l3;
+        return this;
+    }
+
+    long limb(final int i) {
+        switch (i) {
+            case 0: return u0;
+            case 1: return u1;
+            case 2: return u2;
+            case 3: return u3;
+            default: return 0L;
+        }
+    }
+
+    private long limbOr(final int i, final long fill) {
+        return i <= 3 ? limb(i) : fill;
+    }
+
+    private UInt256 divMod(final UInt256 divisor, final boolean remainder) {
+        if (divisor.isZero()) {
+            return setZero();
+        }
+        final int cmp = compareTo(divisor);
+        if (cmp < 0) {
+            return remainder ? this : setZero();
+        }
+        if (cmp == 0) {
+            return set(remainder ? 0L : 1L);
+        }
+        if (fitsLong() && divisor.fitsLong()) {
+            return set(remainder ? u0 % divisor.u0 : u0 / divisor.u0);
+        }
+        if ((divisor.u1 | divisor.u2 | divisor.u3) == 0 && (divisor.u0 >>> 32) == 0) {
+            return divModSmall(divisor.u0, remainder);
+        }
+        return divModLong(divisor, remainder);
+    }
+
+    /**
+     * Divides by a divisor below 2^32, one 32-bit digit at a time. Each step divides a partial remainder
+     * below 2^64, which overflows a signed long once the divisor reaches 2^31, so it divides unsigned.
+     */
+    private UInt256 divModSmall(final long d, final boolean remainder) {
+        long rem = 0;
+        long q3 = 0, q2 = 0, q1 = 0, q0 = 0;
+        for (int i = 7; i >= 0; i--) {
+            final long digit = (limb(i >>> 1) >>> ((i & 1) * 32)) & 0xFFFFFFFFL;
+            final long cur = (rem << 32) | digit;
+            final long q = Long.divideUnsigned(cur, d);
+            rem = Long.remainderUnsigned(cur, d);
+            final long shifted = q << ((i & 1) * 32);
+            switch (i >>> 1) {
+                case 3: q3 |= shifted; break;
+                case 2: q2 |= shifted; break;
+                case 1: q1 |= shifted; break;
+                default: q0 |= shifted; break;
+            }
+        }
+        if (remainder) {
+            return set(rem);
+        }
+        u0 = q0;
+        u1 = q1;
+        u2 = q2;
+        u3 = q3;
+        return this;
+    }
+
+    /**
+     * Shift-subtract long division; the number of rounds is the bit length difference of the operands.
+     */
+    private UInt256 divModLong(final UInt256 divisor, final boolean remainder) {
+        final int shift = bitLength() - divisor.bitLength();
+        final UInt256 d = new UInt256(divisor.u3, divisor.u2, divisor.u1, divisor.u0).shl(shift);
+        long q3 = 0, q2 = 0, q1 = 0, q0 = 0;
+        for (int i = shift; i >= 0; i--) {
+            if (compareTo(d) >= 0) {
+                sub(d);
+                final long bit = 1L << (i & 63);
+                switch (i >>> 6) {
+                    case 3: q3 |= bit; break;
+                    case 2: q2 |= bit; break;
+                    case 1: q1 |= bit; break;
+                    default: q0 |= bit; break;
+                }
+            }
+            d.shr(1);
+        }
+        if (remainder) {
+            return this;
+        }
+        u0 = q0;
+        u1 = q1;
+        u2 = q2;
+        u3 = q3;
+        return this;
+    }
+
+    private static long multiplyHighUnsigned(final long x, final long y) {
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    private static void putLong(final byte[] dest, final int offset, final long value) {
+        for (int i = 7; i >= 0; i--) {
+            dest[offset + 7 - i] = (byte) (value >>> (i * 8));
+        }
+    }
+
+}
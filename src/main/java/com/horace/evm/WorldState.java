@@ -0,0 +1,46 @@
+package com.horace.evm;
+
+/**
+ * What a {@link JournaledState} reads from and commits to: accounts, storage slots and code by hash.
+ * {@link GlobalState} is the persistent implementation; the {@link BlockExecutor} puts a multi-version
+ * view in its place while transactions run in parallel.
+ */
+public interface WorldState {
+
+    Account getAccount(byte[] address);
+
+    void putAccount(byte[] address, Account account);
+
+    void removeAccount(byte[] address);
+
+    /**
+     * Reads the slot into the given word and returns it.
+     * @param address
+     * @param slot
+     * @param into
+     * @return
+     */
+    UInt256 load(byte[] address, UInt256 slot, UInt256 into);
+
+    void store(byte[] address, UInt256 slot, UInt256 value);
+
+    byte[] getCode(Hash codeHash);
+
+    void putCode(Hash codeHash, byte[] code);
+
+    /**
+     * Runs a batch of writes, e.g. a transaction commit, that readers of a snapshot must see entirely
+     * or not at all.
+     * @param writes
+     */
+    default void atomically(final Runnable writes) {
+        writes.run();
+    }
+
+    /**
+     * Marks the end of a block: writes buffered in memory reach the backing store. Nothing to do by default.
+     */
+    default void flush() {
+    }
+
+}
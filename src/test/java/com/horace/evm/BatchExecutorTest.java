@@ -0,0 +1,60 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class BatchExecutorTest {
+
+    private static final int CALLS = 20;
+
+    @Test
+    public void errorInCallStillProducesResult() {
+        // Fails every read with an Error, which must neither go unanswered nor kill the pool worker
+        final WorldState world = (WorldState) Proxy.newProxyInstance(WorldState.class.getClassLoader(),
+            new Class<?>[] {WorldState.class}, (proxy, method, args) -> {
+                throw new AssertionError("Unreadable state");
+            });
+        try (BatchExecutor executor = new BatchExecutor(2)) {
+            assertAllFailed(executor, world);
+        }
+    }
+
+    @Test
+    public void rejectedCallsProduceResults() {
+        final BatchExecutor executor = new BatchExecutor(2);
+        executor.close();
+        assertAllFailed(executor, new GlobalState(StateBackend.heap()));
+    }
+
+    private static void assertAllFailed(final BatchExecutor executor, final WorldState world) {
+        final List<CallRequest> requests = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            final byte[] address = new byte[Address.ADDRESS_LENGTH];
+            address[0] = (byte) i;
+            requests.add(new CallRequest(new TxData(address, address, new byte[0], address, new byte[0],
+                BigInteger.ONE), null));
+        }
+        final Set<Long> indexes = new HashSet<>();
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            final Iterator<CallResult> results = executor.execute(requests.iterator(), world);
+            while (results.hasNext()) {
+                final CallResult result = results.next();
+                assertEquals(TxResult.Status.FAILED, result.getResult().getStatus());
+                indexes.add(result.getIndex());
+            }
+        });
+        assertEquals(CALLS, indexes.size());
+    }
+
+}
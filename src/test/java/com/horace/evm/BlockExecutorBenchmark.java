@@ -0,0 +1,121 @@
+package com.horace.evm;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Speedup of the {@link BlockExecutor} over sequential execution for 1, 2, 4, ... threads up to the
+ * number of cores, on synthetic blocks of token transfers. Each transaction calls a contract that moves
+ * an amount between two storage balances; a fraction of them send to one hot account, and a fraction
+ * also transfer ether to the contract, which makes every such pair of transactions conflict.
+ * Every parallel run is checked against the state root of the sequential one.
+ * <p>
+ * Usage: {@code BlockExecutorBenchmark [transactions] [accounts] [hotFraction] [valueFraction] [rounds]},
+ * by default blocks of 10^4 transfers between 10^5 accounts, first without and then with 10% hot recipients.
+ */
+public final class BlockExecutorBenchmark {
+
+    // Moves calldata[32..64) from the caller's balance slot to the balance slot of calldata[0..32)
+    private static final byte[] TOKEN = HexFormat.of().parseHex("6020358033540333556000358054820190555000");
+    private static final byte[] CONTRACT = address(-1);
+
+    private BlockExecutorBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        final int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        final int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        final int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+        if (args.length > 2) {
+            run(transactions, accounts, Double.parseDouble(args[2]), args.length > 3 ? Double.parseDouble(args[3]) : 0,
+                rounds);
+        } else {
+            run(transactions, accounts, 0, 0, rounds);
+            run(transactions, accounts, 0.1, 0, rounds);
+        }
+    }
+
+    private static void run(final int transactions, final int accounts, final double hotFraction,
+            final double valueFraction, final int rounds) {
+        System.out.printf("%d transactions, %d accounts, %.0f%% hot, %.0f%% with value%n",
+            transactions, accounts, hotFraction * 100, valueFraction * 100);
+        final List<TxData> block = block(transactions, accounts, hotFraction, valueFraction);
+
+        long sequential = Long.MAX_VALUE;
+        Hash expected = null;
+        try (BlockExecutor executor = new BlockExecutor(1)) {
+            for (int round = 0; round < rounds; round++) {
+                final GlobalState state = genesis(accounts);
+                final long start = System.nanoTime();
+                executor.executeSequential(block, state);
+                sequential = Math.min(sequential, System.nanoTime() - start);
+                expected = state.computeStateRoot();
+            }
+        }
+        System.out.printf("sequential: %d ms%n", sequential / 1_000_000);
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+            long best = Long.MAX_VALUE;
+            try (BlockExecutor executor = new BlockExecutor(threads)) {
+                for (int round = 0; round < rounds; round++) {
+                    final GlobalState state = genesis(accounts);
+                    final long start = System.nanoTime();
+                    executor.execute(block, state);
+                    best = Math.min(best, System.nanoTime() - start);
+                    if (!state.computeStateRoot().equals(expected)) {
+                        throw new IllegalStateException("State root differs from sequential execution");
+                    }
+                }
+            }
+            System.out.printf("%d threads: %d ms, speedup %.2f%n", threads, best / 1_000_000, (double) sequential / best);
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    private static GlobalState genesis(final int accounts) {
+        final GlobalState state = new GlobalState(StateBackend.heap(), true);
+        final Hash codeHash = Hash.keccak256(TOKEN);
+        state.putCode(codeHash, TOKEN);
+        state.putAccount(CONTRACT, new Account(BigInteger.ZERO, codeHash, TOKEN.length));
+        final UInt256 slot = new UInt256();
+        final UInt256 balance = new UInt256(1_000_000);
+        for (int i = 0; i < accounts; i++) {
+            state.putAccount(address(i), new Account(BigInteger.valueOf(1_000_000), CodeStore.EMPTY_CODE_HASH, 0));
+            state.store(CONTRACT, slot.setBytes(address(i)), balance);
+        }
+        state.computeStateRoot();
+        return state;
+    }
+
+    private static List<TxData> block(final int transactions, final int accounts, final double hotFraction,
+            final double valueFraction) {
+        final Random random = new Random(1);
+        final List<TxData> block = new ArrayList<>(transactions);
+        for (int i = 0; i < transactions; i++) {
+            final byte[] from = address(random.nextInt(accounts));
+            final int to = random.nextDouble() < hotFraction ? 0 : random.nextInt(accounts);
+            final byte[] data = new byte[64];
+            System.arraycopy(address(to), 0, data, 12, Address.ADDRESS_LENGTH);
+            data[63] = (byte) (1 + random.nextInt(100));
+            final byte[] value = random.nextDouble() < valueFraction ? new byte[] {1} : new byte[0];
+            block.add(new TxData(from, CONTRACT, value, from, data, BigInteger.ONE));
+        }
+        return block;
+    }
+
+    private static byte[] address(final int index) {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        address[0] = 1;
+        for (int i = 0; i < 4; i++) {
+            address[Address.ADDRESS_LENGTH - 1 - i] = (byte) (index >>> (8 * i));
+        }
+        return address;
+    }
+
+}
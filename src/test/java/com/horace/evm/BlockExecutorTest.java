@@ -0,0 +1,123 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs conflicting blocks on several threads and checks every transaction result and the state root
+ * against executing them one after the other.
+ */
+public class BlockExecutorTest {
+
+    // Moves calldata[32..64) from the caller's balance slot to the balance slot of calldata[0..32)
+    private static final byte[] TOKEN = HexFormat.of().parseHex("6020358033540333556000358054820190555000");
+    // By calldata[0..32): 1 sets the flag in slot 1, 2 writes calldata[32..64) to slot 2 unless the flag
+    // is set, 3 copies slot 2 to slot 3 and returns it
+    private static final byte[] GATE = HexFormat.of().parseHex("6000358060011460205780600214602757"
+        + "6002548060035560005260206000f3" + "5b600160015500" + "5b6001546034576020356002555b00");
+    private static final byte[] TOKEN_ADDRESS = address(0xF0);
+    private static final byte[] GATE_ADDRESS = address(0xF1);
+    // Receives a share of the transfers, every pair of which conflicts on its slot
+    private static final byte[] HOT = address(0);
+
+    private static final int ACCOUNTS = 50;
+    private static final int TRANSACTIONS = 200;
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void parallelMatchesSequential() {
+        try (BlockExecutor sequential = new BlockExecutor(1); BlockExecutor parallel = new BlockExecutor(THREADS)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                final List<TxData> block = block(new Random(round));
+                final GlobalState expected = genesis();
+                final List<String> expectedResults = describe(sequential.executeSequential(block, expected));
+                final Hash expectedRoot = expected.computeStateRoot();
+                // The write before the flag landed, the one after it did not
+                assertEquals(new UInt256(11), expected.load(GATE_ADDRESS, new UInt256(2), new UInt256()));
+                // Thread timing differs between runs of the same block, the outcome must not
+                for (int run = 0; run < 3; run++) {
+                    final GlobalState actual = genesis();
+                    final String message = "round " + round + ", run " + run;
+                    assertEquals(expectedResults, describe(parallel.execute(block, actual)), message);
+                    assertEquals(expectedRoot, actual.computeStateRoot(), message);
+                }
+            }
+        }
+    }
+
+    private static List<TxData> block(final Random random) {
+        final List<TxData> block = new ArrayList<>(TRANSACTIONS);
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            final byte[] from = address(1 + random.nextInt(ACCOUNTS));
+            final byte[] to = random.nextInt(3) == 0 ? HOT : address(1 + random.nextInt(ACCOUNTS));
+            final byte[] data = new byte[64];
+            System.arraycopy(to, 0, data, 12, Address.ADDRESS_LENGTH);
+            data[63] = (byte) (1 + random.nextInt(100));
+            // Ether sent to the token contract, so these also conflict on its balance
+            final byte[] value = random.nextInt(5) == 0 ? new byte[] {1} : new byte[0];
+            block.add(new TxData(from, TOKEN_ADDRESS, value, from, data, BigInteger.ONE));
+        }
+        // A conditional write before the flag is set, one right after that the flag turns off once its
+        // first incarnation has written, and reads of the slot it stops writing
+        final int flag = 10 + random.nextInt(TRANSACTIONS - 20);
+        block.add(random.nextInt(flag), gate(random, 2, 11));
+        block.add(flag + 1, gate(random, 1, 0));
+        block.add(flag + 2, gate(random, 2, 12));
+        block.add(flag + 3, gate(random, 3, 0));
+        block.add(flag + 4 + random.nextInt(TRANSACTIONS - flag), gate(random, 3, 0));
+        return block;
+    }
+
+    private static TxData gate(final Random random, final int mode, final int value) {
+        final byte[] from = address(1 + random.nextInt(ACCOUNTS));
+        final byte[] data = new byte[64];
+        data[31] = (byte) mode;
+        data[63] = (byte) value;
+        return new TxData(from, GATE_ADDRESS, new byte[0], from, data, BigInteger.ONE);
+    }
+
+    private static GlobalState genesis() {
+        final GlobalState state = new GlobalState(StateBackend.heap(), true);
+        deploy(state, TOKEN_ADDRESS, TOKEN);
+        deploy(state, GATE_ADDRESS, GATE);
+        state.store(GATE_ADDRESS, new UInt256(2), new UInt256(7));
+        final UInt256 slot = new UInt256();
+        final UInt256 balance = new UInt256(1_000_000);
+        for (int i = 0; i <= ACCOUNTS; i++) {
+            state.putAccount(address(i), new Account(BigInteger.valueOf(1_000_000), CodeStore.EMPTY_CODE_HASH, 0));
+            state.store(TOKEN_ADDRESS, slot.setBytes(address(i)), balance);
+        }
+        return state;
+    }
+
+    private static void deploy(final GlobalState state, final byte[] address, final byte[] code) {
+        final Hash codeHash = Hash.keccak256(code);
+        state.putCode(codeHash, code);
+        state.putAccount(address, new Account(BigInteger.ZERO, codeHash, code.length));
+    }
+
+    private static List<String> describe(final List<TxResult> results) {
+        final List<String> described = new ArrayList<>(results.size());
+        for (TxResult result : results) {
+            described.add(result.getStatus() + " gas=" + result.getGasUsed() + " return="
+                + HexFormat.of().formatHex(result.getReturnData()) + " logs=" + result.getLogs().size());
+        }
+        return described;
+    }
+
+    private static byte[] address(final int index) {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        address[0] = 1;
+        address[Address.ADDRESS_LENGTH - 1] = (byte) index;
+        return address;
+    }
+
+}
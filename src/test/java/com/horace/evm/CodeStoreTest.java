@@ -0,0 +1,27 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.mapdb.DBMaker;
+
+public class CodeStoreTest {
+
+    @Test
+    public void evictedCodeReadsBack() {
+        // Room for two decoded codes, so all but the last two come from the map
+        final CodeStore store = new CodeStore(DBMaker.memoryDB().make(), 2);
+        final Hash[] hashes = new Hash[100];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = store.put(new byte[] {0x60, (byte) i, 0x00});
+        }
+        store.put(hashes[0], new byte[] {0x60, 0, 0x00});
+        assertEquals(hashes.length, store.size());
+        for (int i = 0; i < hashes.length; i++) {
+            assertArrayEquals(new byte[] {0x60, (byte) i, 0x00}, store.get(hashes[i]));
+        }
+        assertArrayEquals(new byte[0], store.get(Hash.keccak256(new byte[] {1})));
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class EVMTest {
+
+    private static final long GAS_LIMIT = 100_000;
+    private static final byte[] SENDER = address(1);
+    private static final byte[] CONTRACT = address(2);
+
+    @Test
+    public void stackOverflowFailsTransaction() {
+        // 1025 PUSH0, one more than the stack holds
+        final byte[] code = new byte[1025];
+        Arrays.fill(code, (byte) 0x5F);
+        for (EVM.Engine engine : EVM.Engine.values()) {
+            final TxResult result = new EVM(engine, GAS_LIMIT).execute(transaction(), world(code));
+            assertEquals(TxResult.Status.FAILED, result.getStatus(), engine::name);
+            assertEquals(GAS_LIMIT, result.getGasUsed(), engine::name);
+        }
+    }
+
+    @Test
+    public void callDepthLimitOnSmallThreadStack() throws InterruptedException {
+        // Counts in slot 0, then calls itself with all its gas until the call at depth 1024 fails
+        final byte[] code = HexFormat.of().parseHex("600054600101600055" + "60006000600060006000305af1" + "5000");
+        for (EVM.Engine engine : EVM.Engine.values()) {
+            final GlobalState world = world(code);
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            // Far less than 1025 nested frames need
+            final Thread thread = new Thread(null, () -> {
+                try {
+                    final TxResult result = new EVM(engine, Long.MAX_VALUE / 2).execute(transaction(), world);
+                    assertEquals(TxResult.Status.SUCCESS, result.getStatus(), engine::name);
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }, "small-stack", 256 << 10);
+            thread.start();
+            thread.join();
+            if (failure.get() != null) {
+                throw new AssertionError(engine.name(), failure.get());
+            }
+            assertEquals(new UInt256(ExecutionContext.MAX_CALL_DEPTH + 1), world.load(CONTRACT, new UInt256(),
+                new UInt256()), engine::name);
+        }
+    }
+
+    @Test
+    public void newAccountCostOnlyForEmptyAccounts() {
+        final byte[] recipient = address(3);
+        // CALL with no gas and a value of 1 to the recipient
+        final byte[] code = HexFormat.of().parseHex("6000600060006000600173" + HexFormat.of().formatHex(recipient)
+            + "6000f100");
+        final GlobalState fresh = world(code);
+        final GlobalState used = world(code);
+        // Spent all its ether but sent transactions, so it is not empty
+        used.putAccount(recipient, new Account(BigInteger.ZERO, CodeStore.EMPTY_CODE_HASH, 0, 5));
+        final long freshGas = new EVM().execute(transaction(), fresh).getGasUsed();
+        final long usedGas = new EVM().execute(transaction(), used).getGasUsed();
+        assertEquals(GasSchedule.NEW_ACCOUNT_GAS, freshGas - usedGas);
+    }
+
+    @Test
+    public void tracerSeesStackBeforeAndAfterEachInstruction() {
+        // PUSH1 1, PUSH1 2, ADD, STOP
+        final byte[] code = HexFormat.of().parseHex("600160020100");
+        final List<String> seen = new ArrayList<>();
+        final Tracer tracer = new Tracer() {
+            @Override
+            public void step(final ExecutionContext frame, final int pc, final Instruction instruction) {
+                seen.add(pc + " " + frame.getStack().size());
+            }
+
+            @Override
+            public void executed(final ExecutionContext frame, final int pc, final Instruction instruction) {
+                seen.add(pc + " -> " + frame.getStack().size());
+            }
+        };
+        new EVM(EVM.Engine.INTERPRETER, GAS_LIMIT, tracer).execute(transaction(), world(code));
+        assertEquals(List.of("0 0", "0 -> 1", "2 1", "2 -> 2", "4 2", "4 -> 1", "5 1", "5 -> 1"), seen);
+    }
+
+    private static TxData transaction() {
+        return new TxData(SENDER, CONTRACT, new byte[0], SENDER, new byte[0], BigInteger.ONE);
+    }
+
+    private static GlobalState world(final byte[] code) {
+        final GlobalState world = new GlobalState(StateBackend.heap());
+        final Hash codeHash = Hash.keccak256(code);
+        world.putCode(codeHash, code);
+        world.putAccount(CONTRACT, new Account(BigInteger.ONE, codeHash, code.length));
+        world.putAccount(SENDER, new Account(BigInteger.valueOf(1_000_000), CodeStore.EMPTY_CODE_HASH, 0));
+        return world;
+    }
+
+    private static byte[] address(final int index) {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        address[Address.ADDRESS_LENGTH - 1] = (byte) index;
+        return address;
+    }
+
+}
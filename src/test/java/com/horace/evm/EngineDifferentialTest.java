@@ -0,0 +1,336 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs random programs on every engine and checks each against the reference: the {@link Instruction}
+ * table stepped one opcode at a time. Outcome, stack, output, memory size and gas left must all match;
+ * after an exceptional halt only the outcome does, since the frame's state is thrown away.
+ */
+public class EngineDifferentialTest {
+
+    private static final int PROGRAMS = 5000;
+    private static final long MAX_GAS = 30_000;
+
+    private static final int[] BINARY_OPS = {
+        0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x0A, 0x0B, 0x10, 0x11, 0x12, 0x13, 0x14,
+        0x16, 0x17, 0x18, 0x1A, 0x1B, 0x1C, 0x1D
+    };
+    private static final int[] TERNARY_OPS = {0x08, 0x09};
+    private static final int[] UNARY_OPS = {0x15, 0x19, 0x35, 0x50, 0x51};
+    private static final int[] NULLARY_OPS = {0x36, 0x58, 0x59, 0x5A, 0x5F};
+
+    // Accounts SELFDESTRUCT touches, every run journals on it and discards its changes
+    private static final GlobalState WORLD = new GlobalState(StateBackend.heap());
+
+    /**
+     * Engines checked against the reference. Each run gets a fresh analysis of the code, so nothing
+     * cached by one engine is seen by another, and the tiered engine compiles on the first run.
+     * @return
+     */
+    private static Map<String, Consumer<ExecutionContext>> engines() {
+        final Map<String, Consumer<ExecutionContext>> engines = new LinkedHashMap<>();
+        engines.put("interpreter", new Interpreter(false)::execute);
+        engines.put("fused interpreter", new Interpreter(true)::execute);
+        engines.put("tiered", new TieredExecutor(1, new Interpreter())::execute);
+        return engines;
+    }
+
+    @Test
+    public void randomPrograms() {
+        final Map<String, Consumer<ExecutionContext>> engines = engines();
+        final Random random = new Random(42);
+        for (int n = 0; n < PROGRAMS; n++) {
+            final byte[] code = generate(random);
+            // Mostly enough to finish, sometimes running out part way
+            final long gas = random.nextInt(4) == 0 ? 1 + random.nextInt((int) MAX_GAS) : MAX_GAS;
+            final String expected = run(code, gas, EngineDifferentialTest::reference);
+            for (Map.Entry<String, Consumer<ExecutionContext>> engine : engines.entrySet()) {
+                assertEquals(expected, run(code, gas, engine.getValue()),
+                    () -> engine.getKey() + " on " + HexFormat.of().formatHex(code) + " with gas " + gas);
+            }
+        }
+    }
+
+    /**
+     * Runs straight-line code, a counting loop and memory growth with every gas limit up to what they
+     * need, so running out of gas is tried at every instruction of every block.
+     */
+    @Test
+    public void everyGasLimit() {
+        final Map<String, Consumer<ExecutionContext>> engines = engines();
+        final String[] programs = {
+            // Arithmetic, MSTORE with expansion, GAS mid-block, RETURN
+            "6003600401600202806000526020525a60405260606000f3",
+            // Count down from 5, storing the counter at its own offset
+            "60055b6001900380602002819052806002575060a06000f3",
+            // KECCAK256 over grown memory, then REVERT with it
+            "60ff60805360a060002060005260206000fd"
+        };
+        for (String hex : programs) {
+            final byte[] code = HexFormat.of().parseHex(hex);
+            final long needed = MAX_GAS - Long.parseLong(run(code, MAX_GAS, EngineDifferentialTest::reference)
+                .replaceAll(".*gas=", ""));
+            for (long gas = 0; gas <= needed + 1; gas++) {
+                final String expected = run(code, gas, EngineDifferentialTest::reference);
+                for (Map.Entry<String, Consumer<ExecutionContext>> engine : engines.entrySet()) {
+                    final long limit = gas;
+                    assertEquals(expected, run(code, gas, engine.getValue()), () -> engine.getKey() + " on " + hex
+                        + " with gas " + limit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the stack to just below, at and just above its limit of 1024, in one block and spread over
+     * several, and underflows it in the middle of a block.
+     */
+    @Test
+    public void stackLimits() {
+        final Map<String, Consumer<ExecutionContext>> engines = engines();
+        final List<byte[]> programs = new ArrayList<>();
+        for (int depth = 1020; depth <= 1026; depth++) {
+            final Program straight = new Program();
+            final Program blocks = new Program();
+            for (int i = 0; i < depth; i++) {
+                straight.op(0x5F);
+                blocks.op(0x5F);
+                if (i % 100 == 99) {
+                    blocks.op(0x5B);
+                }
+            }
+            straight.op(0x00);
+            programs.add(straight.link(new Random(0)));
+            programs.add(blocks.link(new Random(0)));
+        }
+        programs.add(HexFormat.of().parseHex("600160020160030101600455"));
+        programs.add(HexFormat.of().parseHex("60016002015b0101"));
+        for (byte[] code : programs) {
+            final String expected = run(code, MAX_GAS, EngineDifferentialTest::reference);
+            for (Map.Entry<String, Consumer<ExecutionContext>> engine : engines.entrySet()) {
+                assertEquals(expected, run(code, MAX_GAS, engine.getValue()),
+                    () -> engine.getKey() + " on " + HexFormat.of().formatHex(code));
+            }
+        }
+    }
+
+    private static void reference(final ExecutionContext context) {
+        while (!context.isStopped()) {
+            Instruction.decodeOpcode(context).execute(context);
+        }
+    }
+
+    private static String run(final byte[] code, final long gas, final Consumer<ExecutionContext> engine) {
+        final ExecutionContext context = new ExecutionContext(CodeAnalysis.analyze(code), 0, new Stack(), new Memory());
+        final JournaledState state = new JournaledState(WORLD);
+        context.setState(state);
+        context.setGasLeft(gas);
+        try {
+            engine.accept(context);
+        } catch (RuntimeException e) {
+            return "HALT";
+        } finally {
+            state.discard();
+        }
+        return (context.isReverted() ? "REVERT" : "STOP") + " " + context.getStack()
+            + " output=" + HexFormat.of().formatHex(context.getOutput().toArray())
+            + " msize=" + context.getMemory().size() + " gas=" + context.getGasLeft();
+    }
+
+    // Straight-line fragments with jumps between them, ending in a halt or running off the end
+    private static byte[] generate(final Random random) {
+        final Program program = new Program();
+        // Enough on the stack for most fragments to find their operands
+        for (int i = random.nextInt(20); i > 0; i--) {
+            push(program, random);
+        }
+        final int fragments = 1 + random.nextInt(40);
+        for (int i = 0; i < fragments; i++) {
+            fragment(program, random);
+        }
+        end(program, random);
+        return program.link(random);
+    }
+
+    private static void fragment(final Program program, final Random random) {
+        switch (random.nextInt(10)) {
+            case 0:
+            case 1:
+                push(program, random);
+                break;
+            case 2:
+                push(program, random);
+                push(program, random);
+                program.op(BINARY_OPS[random.nextInt(BINARY_OPS.length)]);
+                break;
+            case 3:
+                program.op(random.nextBoolean()
+                    ? TERNARY_OPS[random.nextInt(TERNARY_OPS.length)]
+                    : UNARY_OPS[random.nextInt(UNARY_OPS.length)]);
+                break;
+            case 4:
+                program.op(NULLARY_OPS[random.nextInt(NULLARY_OPS.length)]);
+                break;
+            case 5:
+                // DUP or SWAP, mostly within the stack
+                program.op((random.nextBoolean() ? 0x80 : 0x90) + random.nextInt(random.nextInt(4) == 0 ? 16 : 6));
+                break;
+            case 6:
+                // MLOAD, MSTORE, MSTORE8 or KECCAK256 at a small offset
+                if (random.nextBoolean()) {
+                    push(program, random);
+                }
+                program.push(1, random.nextInt(128));
+                program.op(new int[] {0x51, 0x52, 0x53, 0x20}[random.nextInt(4)]);
+                break;
+            case 7:
+                program.op(0x5B);
+                break;
+            case 8:
+                // The shapes superinstructions fuse, besides a pushed jump target
+                switch (random.nextInt(3)) {
+                    case 0:
+                        program.push(4, random.nextInt(3) == 0 ? 0 : random.nextInt());
+                        program.op(0x14);
+                        break;
+                    case 1:
+                        program.op(0x80 + random.nextInt(6));
+                        program.op(0x90 + random.nextInt(6));
+                        break;
+                    default:
+                        program.op(0x15);
+                        program.jump(0x57);
+                        break;
+                }
+                break;
+            default:
+                if (random.nextInt(16) == 0) {
+                    // SELFDESTRUCT halts in the middle of the code
+                    program.push(1, random.nextInt(256));
+                    program.op(0xFF);
+                    break;
+                }
+                if (random.nextBoolean()) {
+                    push(program, random);
+                }
+                program.jump(random.nextBoolean() ? 0x56 : 0x57);
+                break;
+        }
+    }
+
+    private static void end(final Program program, final Random random) {
+        switch (random.nextInt(5)) {
+            case 0:
+                program.op(0x00);
+                break;
+            case 1:
+            case 2:
+                program.push(1, random.nextInt(64));
+                program.push(1, random.nextInt(64));
+                program.op(random.nextBoolean() ? 0xF3 : 0xFD);
+                break;
+            case 3:
+                program.op(0xFE);
+                break;
+            default:
+                // Off the end of the code, an implicit STOP
+                break;
+        }
+    }
+
+    private static void push(final Program program, final Random random) {
+        final int size = 1 + random.nextInt(32);
+        switch (random.nextInt(4)) {
+            case 0:
+                program.push(1, random.nextInt(256));
+                break;
+            case 1:
+                // Around a 32-bit digit or a 64-bit limb
+                final int bit = new int[] {31, 32, 63, 64, 128, 255}[random.nextInt(6)];
+                program.push(32, BigInteger.ONE.shiftLeft(bit).add(BigInteger.valueOf(random.nextInt(3) - 1)));
+                break;
+            default:
+                program.push(size, new BigInteger(size * 8, random));
+                break;
+        }
+    }
+
+    /**
+     * Bytecode under construction. Jump targets are patched in once the code is complete: mostly to
+     * a JUMPDEST further on, sometimes back, which loops until the gas runs out, and rarely anywhere.
+     */
+    private static final class Program {
+
+        private final List<Integer> code = new ArrayList<>();
+        private final List<Integer> jumps = new ArrayList<>();
+        private final List<Integer> jumpdests = new ArrayList<>();
+
+        void op(final int opcode) {
+            if (opcode == 0x5B) {
+                jumpdests.add(code.size());
+            }
+            code.add(opcode);
+        }
+
+        void push(final int size, final long value) {
+            push(size, BigInteger.valueOf(value));
+        }
+
+        void push(final int size, final BigInteger value) {
+            code.add(0x5F + size);
+            final byte[] bytes = value.toByteArray();
+            for (int i = size; i > 0; i--) {
+                code.add(i <= bytes.length ? bytes[bytes.length - i] & 0xFF : 0);
+            }
+        }
+
+        // PUSH2 of a target to be patched, then the jump
+        void jump(final int opcode) {
+            jumps.add(code.size());
+            code.add(0x61);
+            code.add(0);
+            code.add(0);
+            code.add(opcode);
+        }
+
+        byte[] link(final Random random) {
+            for (int at : jumps) {
+                final List<Integer> forward = new ArrayList<>();
+                for (int jumpdest : jumpdests) {
+                    if (jumpdest > at) {
+                        forward.add(jumpdest);
+                    }
+                }
+                final int choice = random.nextInt(20);
+                final int target;
+                if (choice < 14 && !forward.isEmpty()) {
+                    target = forward.get(random.nextInt(forward.size()));
+                } else if (choice < 19 && !jumpdests.isEmpty()) {
+                    target = jumpdests.get(random.nextInt(jumpdests.size()));
+                } else {
+                    target = random.nextInt(code.size() + 2);
+                }
+                code.set(at + 1, target >>> 8);
+                code.set(at + 2, target & 0xFF);
+            }
+            final byte[] bytes = new byte[code.size()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (int) code.get(i);
+            }
+            return bytes;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GlobalStateTest {
+
+    private static final byte[] SENDER = address(1);
+    private static final byte[] RECIPIENT = address(2);
+
+    @Test
+    public void closeKeepsCachedAccounts(@TempDir final Path dir) {
+        final Path file = dir.resolve("state.db");
+        try (GlobalState state = new GlobalState(StateBackend.mappedFile(file))) {
+            state.putAccount(SENDER, account(7));
+        }
+        try (GlobalState state = new GlobalState(StateBackend.mappedFile(file))) {
+            assertEquals(BigInteger.valueOf(7), state.getAccount(SENDER).getBalance());
+        }
+    }
+
+    @Test
+    public void reopenedStateKeepsItsRoot(@TempDir final Path dir) {
+        final Path file = dir.resolve("state.db");
+        final Hash root;
+        try (GlobalState state = new GlobalState(StateBackend.mappedFile(file), true)) {
+            state.putAccount(SENDER, account(7));
+            state.putAccount(RECIPIENT, account(0));
+            state.store(RECIPIENT, new UInt256(1), new UInt256(2));
+            root = state.computeStateRoot();
+        }
+        assertNotEquals(MerklePatriciaTrie.EMPTY_ROOT, root);
+        try (GlobalState state = new GlobalState(StateBackend.mappedFile(file), true)) {
+            assertEquals(root, state.computeStateRoot());
+        }
+        // Without a root nothing records the writes
+        try (GlobalState state = new GlobalState(StateBackend.mappedFile(file))) {
+            state.putAccount(SENDER, account(8));
+            assertNull(state.getStateTrie());
+            assertThrows(IllegalStateException.class, state::computeStateRoot);
+        }
+    }
+
+    @Test
+    public void blocksFlushAccounts() {
+        for (boolean parallel : new boolean[] {false, true}) {
+            final StateBackend backend = StateBackend.heap();
+            final GlobalState state = new GlobalState(backend);
+            state.putAccount(SENDER, account(1000));
+            final TxData tx = new TxData(SENDER, RECIPIENT, new byte[] {100}, SENDER, new byte[0], BigInteger.ONE);
+            try (BlockExecutor executor = new BlockExecutor(2)) {
+                if (parallel) {
+                    executor.execute(List.of(tx), state);
+                } else {
+                    executor.executeSequential(List.of(tx), state);
+                }
+            }
+            // A second state on the same backend has nothing cached, it only sees what was flushed
+            final GlobalState reader = new GlobalState(backend);
+            assertEquals(BigInteger.valueOf(900), reader.getAccount(SENDER).getBalance());
+            assertEquals(BigInteger.valueOf(100), reader.getAccount(RECIPIENT).getBalance());
+        }
+    }
+
+    private static Account account(final long balance) {
+        return new Account(BigInteger.valueOf(balance), CodeStore.EMPTY_CODE_HASH, 0);
+    }
+
+    private static byte[] address(final int index) {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        address[Address.ADDRESS_LENGTH - 1] = (byte) index;
+        return address;
+    }
+
+}
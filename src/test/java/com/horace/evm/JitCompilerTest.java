@@ -0,0 +1,25 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+
+public class JitCompilerTest {
+
+    @Test
+    public void rejectedClassFallsBackToInterpreter() {
+        // A class file header and nothing else, which defineHiddenClass rejects with a ClassFormatError
+        assertNull(JitCompiler.load(HexFormat.of().parseHex("cafebabe00000041"), new int[] {0}));
+        assertNull(JitCompiler.load(new byte[0], new int[] {0}));
+    }
+
+    @Test
+    public void compilesCode() {
+        final CodeAnalysis analysis = CodeAnalysis.analyze(HexFormat.of().parseHex("6001600201600055"));
+        assertNotNull(JitCompiler.compile(analysis.getDecodedCode()));
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class JournaledStateTest {
+
+    private static final byte[] ADDRESS = new byte[Address.ADDRESS_LENGTH];
+    private static final TxData TX = new TxData(address(0x11), address(0x12), new byte[0], address(0x11),
+        new byte[0], BigInteger.ONE);
+
+    @Test
+    public void transientStoreRevertsAndClears() {
+        final JournaledState state = new JournaledState(new GlobalState(StateBackend.heap()));
+        final UInt256 slot = new UInt256(1, 2, 3, 4);
+        state.storeTransient(ADDRESS, slot, new UInt256(5));
+        final int snapshot = state.snapshot();
+        state.storeTransient(ADDRESS, slot, new UInt256(7));
+        state.storeTransient(ADDRESS, new UInt256(9), new UInt256(8));
+        assertEquals(new UInt256(7), state.loadTransient(ADDRESS, slot, new UInt256()));
+        state.revert(snapshot);
+        assertEquals(new UInt256(5), state.loadTransient(ADDRESS, slot, new UInt256()));
+        assertEquals(new UInt256(), state.loadTransient(ADDRESS, new UInt256(9), new UInt256()));
+        state.commit();
+        assertEquals(new UInt256(), state.loadTransient(ADDRESS, slot, new UInt256()));
+    }
+
+    @Test
+    public void resetStartsOverOnAnotherWorld() {
+        final GlobalState first = new GlobalState(StateBackend.heap());
+        final GlobalState second = new GlobalState(StateBackend.heap());
+        first.putAccount(ADDRESS, new Account(BigInteger.ONE, CodeStore.EMPTY_CODE_HASH, 0));
+        second.putAccount(ADDRESS, new Account(BigInteger.TWO, CodeStore.EMPTY_CODE_HASH, 0));
+        final JournaledState state = new JournaledState(first);
+        state.setBalance(ADDRESS, BigInteger.TEN);
+        state.storeTransient(ADDRESS, new UInt256(), new UInt256(3));
+        state.warmAccount(ADDRESS);
+        state.reset(second);
+        assertEquals(0, state.getJournalSize());
+        assertEquals(BigInteger.TWO, state.getAccount(ADDRESS).getBalance());
+        assertEquals(new UInt256(), state.loadTransient(ADDRESS, new UInt256(), new UInt256()));
+        assertTrue(state.warmAccount(ADDRESS));
+        assertEquals(BigInteger.ONE, first.getAccount(ADDRESS).getBalance());
+    }
+
+    @Test
+    public void coinbaseWarmFromShanghai() {
+        final byte[] coinbase = address(0xCB);
+        final Block block = new Block(null, coinbase, null, null, null, null);
+        final GlobalState world = new GlobalState(StateBackend.heap());
+        final JournaledState state = new JournaledState(world);
+        for (GasSchedule schedule : new GasSchedule[] {GasSchedule.SHANGHAI, GasSchedule.LATEST}) {
+            state.reset(world);
+            state.beginTransaction(TX, block, schedule);
+            assertFalse(state.warmAccount(coinbase));
+        }
+        state.reset(world);
+        state.beginTransaction(TX, block, GasSchedule.LONDON);
+        assertTrue(state.warmAccount(coinbase));
+        state.reset(world);
+        state.beginTransaction(TX, null, GasSchedule.LATEST);
+        assertTrue(state.warmAccount(coinbase));
+    }
+
+    @Test
+    public void accessSetsColdAfterReset() {
+        final GlobalState world = new GlobalState(StateBackend.heap());
+        final JournaledState state = new JournaledState(world);
+        state.beginTransaction(TX, null, GasSchedule.LATEST);
+        assertTrue(state.warmAccount(address(0x13)));
+        assertTrue(state.warmSlot(address(0x13), new UInt256(1)));
+        state.reset(world);
+        state.beginTransaction(new TxData(address(0x14), address(0x15), new byte[0], address(0x14), new byte[0],
+            BigInteger.ONE), null, GasSchedule.LATEST);
+        assertTrue(state.warmAccount(address(0x11)));
+        assertTrue(state.warmAccount(address(0x13)));
+        assertTrue(state.warmSlot(address(0x13), new UInt256(1)));
+        assertFalse(state.warmAccount(address(0x15)));
+    }
+
+    private static byte[] address(final int index) {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        address[Address.ADDRESS_LENGTH - 1] = (byte) index;
+        return address;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Roots checked against the trie tests of the Ethereum test suite (trieanyorder.json).
+ */
+public class MerklePatriciaTrieTest {
+
+    private static final String EMPTY = "56e81f171bcc55a6ff8345e692c0f86e5b48e01b996cadc001622fb5e363b421";
+    private static final String DOGS = "8aad789dff2f538bca5d8ea56e8abe10f4c7ba3a5dea95fea4cd6e7c3a1168d3";
+    private static final String PUPPY = "5991bb8c6514148a29db676a14ac506cd2cd5775ace63c30a4fe457715e9ac84";
+
+    @Test
+    public void emptyRoot() {
+        assertEquals(EMPTY, MerklePatriciaTrie.EMPTY_ROOT.toString());
+        assertEquals(EMPTY, new MerklePatriciaTrie().rootHash().toString());
+    }
+
+    @Test
+    public void ethereumVectors() {
+        assertEquals(DOGS, trie("doe", "reindeer", "dog", "puppy", "dogglesworth", "cat").rootHash().toString());
+        assertEquals(PUPPY, trie("do", "verb", "horse", "stallion", "doge", "coin", "dog", "puppy").rootHash()
+            .toString());
+        // Any insertion order gives the same root
+        assertEquals(PUPPY, trie("dog", "puppy", "doge", "coin", "horse", "stallion", "do", "verb").rootHash()
+            .toString());
+    }
+
+    @Test
+    public void deleteThenReinsert() {
+        final MerklePatriciaTrie trie = trie("doe", "reindeer", "dog", "puppy", "dogglesworth", "cat");
+        trie.remove(bytes("dogglesworth"));
+        assertEquals(trie("doe", "reindeer", "dog", "puppy").rootHash(), trie.rootHash());
+        trie.put(bytes("dogglesworth"), bytes("cat"));
+        assertEquals(DOGS, trie.rootHash().toString());
+        // An empty value removes the key
+        trie.put(bytes("doe"), new byte[0]);
+        trie.remove(bytes("dog"));
+        trie.remove(bytes("dogglesworth"));
+        assertEquals(EMPTY, trie.rootHash().toString());
+        trie.put(bytes("doe"), bytes("reindeer"));
+        trie.put(bytes("dogglesworth"), bytes("cat"));
+        trie.put(bytes("dog"), bytes("puppy"));
+        assertEquals(DOGS, trie.rootHash().toString());
+    }
+
+    @Test
+    public void serialAndParallelHashingAgree() {
+        final MerklePatriciaTrie serial = new MerklePatriciaTrie();
+        final MerklePatriciaTrie parallel = new MerklePatriciaTrie();
+        final Random random = new Random(7);
+        final List<byte[]> keys = new ArrayList<>();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 2000; i++) {
+                final byte[] key;
+                if (!keys.isEmpty() && random.nextInt(4) == 0) {
+                    key = keys.get(random.nextInt(keys.size()));
+                } else {
+                    key = Hash.keccak256(BigInteger.valueOf(random.nextLong()).toByteArray()).getBytes();
+                    keys.add(key);
+                }
+                final byte[] value = random.nextInt(5) == 0 ? new byte[0] : new byte[1 + random.nextInt(40)];
+                random.nextBytes(value);
+                serial.put(key, value);
+                parallel.put(key, value);
+            }
+            assertEquals(serial.rootHash(), parallel.rootHash(ForkJoinPool.commonPool()));
+        }
+    }
+
+    @Test
+    public void stateTrieEncodesAccounts() {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        address[Address.ADDRESS_LENGTH - 1] = 1;
+        final Account account = new Account(BigInteger.TEN.pow(18), CodeStore.EMPTY_CODE_HASH, 0, 1);
+        final StateTrie stateTrie = new StateTrie(a -> account, ForkJoinPool.commonPool());
+        stateTrie.touchAccount(address);
+        // [nonce 1, balance 1 ether, empty storage root, empty code hash]
+        final byte[] rlp = HexFormat.of().parseHex("f84c01880de0b6b3a7640000"
+            + "a0" + EMPTY + "a0c5d2460186f7233c927e7db2dcc703c0e500b653ca82273b7bfad8045d85a470");
+        final MerklePatriciaTrie expected = new MerklePatriciaTrie();
+        expected.put(Hash.keccak256(address).getBytes(), rlp);
+        assertEquals(expected.rootHash(), stateTrie.computeRoot());
+    }
+
+    private static MerklePatriciaTrie trie(final String... pairs) {
+        final MerklePatriciaTrie trie = new MerklePatriciaTrie();
+        for (int i = 0; i < pairs.length; i += 2) {
+            trie.put(bytes(pairs[i]), bytes(pairs[i + 1]));
+        }
+        return trie;
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
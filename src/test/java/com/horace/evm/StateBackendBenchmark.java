@@ -0,0 +1,114 @@
+package com.horace.evm;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares the {@link StateBackend} kinds under {@link Storage}: fills slots random words, committing
+ * every {@code slotsPerBlock} slots as blocks would, then times random lookups. Reports the heap used
+ * and the GC collections and pause time spent in each phase.
+ * <p>
+ * Usage: {@code StateBackendBenchmark [slots] [lookups] [slotsPerBlock] [commitBatch]}, by default
+ * 10^7 slots, 10^6 lookups, blocks of 1000 slots and one store commit per block.
+ */
+public final class StateBackendBenchmark {
+
+    private StateBackendBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int slots = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        final int slotsPerBlock = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        final int commitBatch = args.length > 3 ? Integer.parseInt(args[3]) : StateBackend.DEFAULT_COMMIT_BATCH;
+
+        for (StateBackend.Kind kind : StateBackend.Kind.values()) {
+            final Path file = Files.createTempFile("evm-state", ".db");
+            Files.delete(file);
+            final long before = usedHeap();
+            try (StateBackend backend = StateBackend.of(kind, file, commitBatch)) {
+                final Storage storage = new Storage(backend);
+                GcStats gc = new GcStats();
+                long start = System.nanoTime();
+                fill(storage, backend, slots, slotsPerBlock);
+                final long elapsed = System.nanoTime() - start;
+                final long used = usedHeap() - before;
+                System.out.printf("%s: %d slots stored in %d ms, heap %d MB, %s%n",
+                    kind, slots, elapsed / 1_000_000, used >> 20, gc.since());
+
+                gc = new GcStats();
+                start = System.nanoTime();
+                lookup(storage, slots, lookups);
+                System.out.printf("%s: %d lookups, %d ns/lookup, %s%n",
+                    kind, lookups, (System.nanoTime() - start) / lookups, gc.since());
+            } finally {
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(Path.of(file + ".wal.0"));
+            }
+        }
+    }
+
+    private static void fill(final Storage storage, final StateBackend backend, final int slots,
+            final int slotsPerBlock) {
+        final Random random = new Random(1);
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        final UInt256 slot = new UInt256();
+        final UInt256 value = new UInt256();
+        for (int i = 0; i < slots; i++) {
+            value.set(random.nextLong() | 1);
+            storage.store(address, slot.set(i), value);
+            if ((i + 1) % slotsPerBlock == 0) {
+                backend.commit();
+            }
+        }
+        backend.commit();
+    }
+
+    private static void lookup(final Storage storage, final int slots, final int lookups) {
+        final Random random = new Random(2);
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        final UInt256 slot = new UInt256();
+        final UInt256 value = new UInt256();
+        long checksum = 0;
+        for (int i = 0; i < lookups; i++) {
+            checksum += storage.load(address, slot.set(random.nextInt(slots)), value).u0;
+        }
+        System.out.println("checksum " + checksum);
+    }
+
+    // Collection count and accumulated pause time over all collectors
+    private static final class GcStats {
+
+        private final long count;
+        private final long time;
+
+        GcStats() {
+            long c = 0;
+            long t = 0;
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                c += Math.max(0, bean.getCollectionCount());
+                t += Math.max(0, bean.getCollectionTime());
+            }
+            this.count = c;
+            this.time = t;
+        }
+
+        String since() {
+            final GcStats now = new GcStats();
+            return String.format("%d collections, %d ms in GC", now.count - count, now.time - time);
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
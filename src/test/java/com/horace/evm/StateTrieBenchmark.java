@@ -0,0 +1,62 @@
+package com.horace.evm;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times {@link StateTrie#computeRoot()} for blocks that touch a number of slots spread over contracts,
+ * after an initial state of contracts x slots has been hashed once.
+ * <p>
+ * Usage: {@code StateTrieBenchmark [contracts] [slotsPerContract] [slotsPerBlock] [blocks]}, by default
+ * 10^4 contracts of 100 slots and 20 blocks of 10^4 slots.
+ */
+public final class StateTrieBenchmark {
+
+    private static final Account CONTRACT = new Account(BigInteger.ONE, CodeStore.EMPTY_CODE_HASH, 0);
+
+    private StateTrieBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        final int contracts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        final int slots = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int slotsPerBlock = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        final int blocks = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        final StateTrie trie = new StateTrie(address -> CONTRACT, ForkJoinPool.commonPool());
+        final Random random = new Random(1);
+        final UInt256 slot = new UInt256();
+        final UInt256 value = new UInt256();
+        long start = System.nanoTime();
+        for (int c = 0; c < contracts; c++) {
+            final byte[] address = address(c);
+            for (int s = 0; s < slots; s++) {
+                trie.updateSlot(address, slot.set(s), value.set(random.nextLong() | 1));
+            }
+        }
+        System.out.printf("initial root %s over %d slots in %d ms%n",
+            trie.computeRoot(), contracts * (long) slots, (System.nanoTime() - start) / 1_000_000);
+
+        for (int block = 0; block < blocks; block++) {
+            start = System.nanoTime();
+            for (int i = 0; i < slotsPerBlock; i++) {
+                trie.updateSlot(address(random.nextInt(contracts)), slot.set(random.nextInt(slots * 2)),
+                    value.set(random.nextInt(4) == 0 ? 0 : random.nextLong()));
+            }
+            final long recorded = System.nanoTime();
+            final Hash root = trie.computeRoot();
+            System.out.printf("block %d: root %s, %d slots recorded in %d us, committed in %d ms%n", block, root,
+                slotsPerBlock, (recorded - start) / 1000, (System.nanoTime() - recorded) / 1_000_000);
+        }
+    }
+
+    private static byte[] address(final int index) {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        for (int i = 0; i < 4; i++) {
+            address[Address.ADDRESS_LENGTH - 1 - i] = (byte) (index >>> (8 * i));
+        }
+        return address;
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.horace.evm;
+
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+
+/**
+ * Compares the flat {@link Storage} with the previous layout of one MapDB map per contract.
+ * Fills contracts x slots random words, then times random lookups and reports the heap used.
+ * Finally times word stores and loads of {@link TransientStorage} against {@link Storage}.
+ * <p>
+ * Usage: {@code StorageBenchmark [contracts] [slotsPerContract] [lookups]}, by default 1000 contracts of 100 slots.
+ * MapDB rewrites its catalog of named maps for every map created, so filling the per-contract layout is
+ * quadratic in the number of contracts and takes minutes beyond a few thousand.
+ */
+public final class StorageBenchmark {
+
+    private StorageBenchmark() {
+    }
+
+    /**
+     * Storage as laid out before the flat map: a named map per contract, created on first access.
+     * Opened maps are kept, as opening one by name reads the whole catalog.
+     */
+    private static final class PerContractStorage {
+
+        private final DB db = DBMaker.memoryDB().make();
+        private final Map<String, HTreeMap<byte[], byte[]>> opened = new HashMap<>();
+
+        HTreeMap<byte[], byte[]> contract(final byte[] address) {
+            return opened.computeIfAbsent("slotMap-" + HexFormat.of().formatHex(address), name -> db.hashMap(name)
+                .keySerializer(Serializer.BYTE_ARRAY)
+                .valueSerializer(Serializer.BYTE_ARRAY)
+                .createOrOpen());
+        }
+
+        byte[] get(final byte[] address, final byte[] key) {
+            return contract(address).getOrDefault(key, new byte[] {(byte) 0x00});
+        }
+
+        void put(final byte[] address, final byte[] key, final byte[] value) {
+            contract(address).put(key, value);
+        }
+    }
+
+    public static void main(String[] args) {
+        final int contracts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        final int slots = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        long before = usedHeap();
+        final Storage flat = new Storage(StateBackend.heap());
+        long start = System.nanoTime();
+        fill(contracts, slots, (address, key, value) -> flat.put(address, key, value));
+        report("flat", contracts * (long) slots, start, before);
+        start = System.nanoTime();
+        final long expected = lookup(contracts, slots, lookups, flat::get);
+        reportLookups("flat", lookups, start);
+
+        before = usedHeap();
+        final PerContractStorage perContract = new PerContractStorage();
+        start = System.nanoTime();
+        fill(contracts, slots, perContract::put);
+        report("per-contract", contracts * (long) slots, start, before);
+        start = System.nanoTime();
+        final long checksum = lookup(contracts, slots, lookups, perContract::get);
+        reportLookups("per-contract", lookups, start);
+        if (checksum != expected) {
+            throw new IllegalStateException("Flat and per-contract storage read different values");
+        }
+
+        final TransientStorage transientStorage = new TransientStorage();
+        for (int round = 0; round < 5; round++) {
+            transientStorage.clear();
+            start = System.nanoTime();
+            final long transientChecksum = storeAndLoad(lookups, transientStorage::store, transientStorage::load);
+            reportLookups("transient store+load", lookups, start);
+            start = System.nanoTime();
+            final long storageChecksum = storeAndLoad(lookups, flat::store, flat::load);
+            reportLookups("storage store+load", lookups, start);
+            if (transientChecksum != storageChecksum) {
+                throw new IllegalStateException("Transient storage and storage read different values");
+            }
+        }
+    }
+
+    private interface WordWriter {
+        void store(byte[] address, UInt256 slot, UInt256 value);
+    }
+
+    private interface WordReader {
+        UInt256 load(byte[] address, UInt256 slot, UInt256 into);
+    }
+
+    // A few hundred slots of one contract, as a transaction would touch them
+    private static long storeAndLoad(final int operations, final WordWriter writer, final WordReader reader) {
+        final byte[] address = address(42);
+        final UInt256 slot = new UInt256();
+        final UInt256 value = new UInt256();
+        long checksum = 0;
+        for (int i = 0; i < operations; i++) {
+            slot.set((i >> 1) & 255);
+            if ((i & 1) == 0) {
+                writer.store(address, slot, value.set(i));
+            } else {
+                checksum += reader.load(address, slot, value).u0;
+            }
+        }
+        return checksum;
+    }
+
+    private interface Writer {
+        void put(byte[] address, byte[] key, byte[] value);
+    }
+
+    private interface Reader {
+        byte[] get(byte[] address, byte[] key);
+    }
+
+    private static void fill(final int contracts, final int slots, final Writer writer) {
+        final Random random = new Random(1);
+        for (int c = 0; c < contracts; c++) {
+            final byte[] address = address(c);
+            for (int s = 0; s < slots; s++) {
+                final byte[] value = new byte[UInt256.SIZE_IN_BYTES];
+                random.nextBytes(value);
+                writer.put(address, new UInt256(s).toBytes(), value);
+            }
+        }
+    }
+
+    private static long lookup(final int contracts, final int slots, final int lookups, final Reader reader) {
+        final Random random = new Random(2);
+        long checksum = 0;
+        for (int i = 0; i < lookups; i++) {
+            // One in ten lookups misses
+            final int slot = random.nextInt(slots + slots / 10 + 1);
+            checksum += reader.get(address(random.nextInt(contracts)), new UInt256(slot).toBytes())[0];
+        }
+        return checksum;
+    }
+
+    private static byte[] address(final int index) {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        for (int i = 0; i < 4; i++) {
+            address[Address.ADDRESS_LENGTH - 1 - i] = (byte) (index >>> (8 * i));
+        }
+        return address;
+    }
+
+    private static void report(final String name, final long entries, final long start, final long before) {
+        final long elapsed = System.nanoTime() - start;
+        final long used = usedHeap() - before;
+        System.out.printf("%s: %d slots stored in %d ms, heap %d MB (%d bytes/slot)%n",
+            name, entries, elapsed / 1_000_000, used >> 20, used / Math.max(1, entries));
+    }
+
+    private static void reportLookups(final String name, final int lookups, final long start) {
+        final long elapsed = System.nanoTime() - start;
+        System.out.printf("%s: %d lookups, %d ns/lookup%n", name, lookups, elapsed / lookups);
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
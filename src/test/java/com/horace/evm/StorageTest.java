@@ -0,0 +1,36 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class StorageTest {
+
+    @Test
+    public void storedSlotsReadBack() {
+        final Storage storage = new Storage(StateBackend.heap());
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        final UInt256 value = new UInt256();
+        for (int i = 0; i < 1000; i++) {
+            address[0] = (byte) i;
+            storage.store(address, new UInt256(i), new UInt256(i + 1));
+        }
+        for (int i = 0; i < 1000; i++) {
+            address[0] = (byte) i;
+            assertEquals(new UInt256(i + 1), storage.load(address, new UInt256(i), value));
+            assertEquals(new UInt256(), storage.load(address, new UInt256(i + 1), value));
+        }
+        assertArrayEquals(new UInt256(1000).toBytes(), storage.get(address, new UInt256(999).toBytes()));
+    }
+
+    @Test
+    public void zeroRemovesSlot() {
+        final Storage storage = new Storage(StateBackend.heap());
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        storage.store(address, new UInt256(1), new UInt256(7));
+        storage.store(address, new UInt256(1), new UInt256());
+        assertEquals(new UInt256(), storage.load(address, new UInt256(1), new UInt256(5)));
+    }
+
+}
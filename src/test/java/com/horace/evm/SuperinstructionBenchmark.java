@@ -0,0 +1,129 @@
+package com.horace.evm;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+/**
+ * Calls into a contract's runtime code on the interpreter with and without superinstructions, and
+ * reports the time per call and how often each {@link Superinstruction} ran.
+ * <p>
+ * Usage: {@code SuperinstructionBenchmark [codeFile calldata] [calls] [rounds]}, where the code file holds
+ * runtime code in hex, e.g. the result of eth_getCode for a deployed contract. The only storage is the
+ * caller's balance in a mapping at slot 0, as solc lays out an ERC-20, so pick calldata that succeeds on it.
+ * By default transfer calls on {@link #TOKEN}.
+ */
+public final class SuperinstructionBenchmark {
+
+    /**
+     * Runtime code of an ERC-20 token with totalSupply, balanceOf and transfer, assembled by hand in the
+     * layout solc 0.8 emits: a selector dispatch of PUSH4 EQ PUSH2 JUMPI, a non-payable check, balances
+     * in a mapping at slot 0 and internal functions called by pushing the return label and jumping.
+     */
+    static final byte[] TOKEN = HexFormat.of().parseHex(""
+        // Free memory pointer, reject value
+        + "6080604052" + "34801561000f575f80fd5b50"
+        // Dispatch on the selector
+        + "6004361061003f575f3560e01c"
+        + "806318160ddd1461004357" + "806370a082311461005157" + "8063a9059cbb1461006857" + "5b5f80fd"
+        // totalSupply()
+        + "5b600254604051908152602090f3"
+        // balanceOf(address)
+        + "5b61005c600435610122565b54604051908152602090f3"
+        // transfer(address,uint256): decode and validate the arguments, return true
+        + "5b6100976024356004358073ffffffffffffffffffffffffffffffffffffffff168114610092575f80fd5b6100a456"
+        + "5b6040519015158152602090f3"
+        // Move the amount, checking the sender's balance and the recipient's for overflow
+        + "5b6100ad33610122565b8054838110156100bb575f80fd5b83900390556100c981610122565b805483810181811061010e57"
+        + "9050905581604051528033"
+        // Transfer(address,address,uint256)
+        + "7fddf252ad1be2c89b69c2b068fc378daa952ba7f163c4a11628f55a4df523b3ef6020604051a35050600190565b"
+        // Panic(0x11)
+        + "634e487b7160e01b5f52601160045260245ffd"
+        // Balance slot of an address: keccak256(address . 0)
+        + "5b5f525f60205260405f209056");
+
+    private static final byte[] CONTRACT = address(0xC0);
+    private static final byte[] HOLDER = address(1);
+
+    private SuperinstructionBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        final byte[] code;
+        final byte[] data;
+        int arg = 0;
+        if (args.length > 1 && !args[0].matches("\\d+")) {
+            code = HexFormat.of().parseHex(strip(Files.readString(Path.of(args[0]))));
+            data = HexFormat.of().parseHex(strip(args[1]));
+            arg = 2;
+        } else {
+            code = TOKEN;
+            // transfer(address(2), 1)
+            data = HexFormat.of().parseHex("a9059cbb" + "00".repeat(31) + "02" + "00".repeat(31) + "01");
+        }
+        final int calls = args.length > arg ? Integer.parseInt(args[arg]) : 100_000;
+        final int rounds = args.length > arg + 1 ? Integer.parseInt(args[arg + 1]) : 5;
+        final GlobalState state = genesis(code);
+        final TxData tx = new TxData(HOLDER, CONTRACT, new byte[0], HOLDER, data, BigInteger.ONE);
+
+        for (boolean superinstructions : new boolean[] {false, true}) {
+            final EVM evm = new EVM(EVM.Engine.INTERPRETER, EVM.DEFAULT_GAS_LIMIT, null,
+                new Interpreter(superinstructions));
+            final TxResult result = evm.call(tx, null, null, state);
+            if (!result.isSuccess()) {
+                throw new IllegalStateException("Call did not succeed: " + result.getStatus());
+            }
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                Superinstruction.resetHits();
+                final long start = System.nanoTime();
+                // Calls never commit, so every one sees the same state
+                for (int i = 0; i < calls; i++) {
+                    evm.call(tx, null, null, state);
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("superinstructions %s: %.0f ns per call, %d gas%n", superinstructions ? "on" : "off",
+                (double) best / calls, result.getGasUsed());
+            long saved = 0;
+            for (Superinstruction superinstruction : Superinstruction.values()) {
+                saved += superinstruction.getDispatchesSaved();
+                if (superinstructions) {
+                    System.out.printf("  %-17s %.2f per call%n", superinstruction,
+                        (double) superinstruction.getHits() / calls);
+                }
+            }
+            if (superinstructions) {
+                System.out.printf("  dispatches saved  %.2f per call%n", (double) saved / calls);
+            }
+        }
+    }
+
+    private static GlobalState genesis(final byte[] code) {
+        final GlobalState state = new GlobalState(StateBackend.heap());
+        final Hash codeHash = Hash.keccak256(code);
+        state.putCode(codeHash, code);
+        state.putAccount(CONTRACT, new Account(BigInteger.ZERO, codeHash, code.length));
+        state.putAccount(HOLDER, new Account(BigInteger.valueOf(1_000_000), CodeStore.EMPTY_CODE_HASH, 0));
+        // The holder's token balance, at keccak256(holder . 0) as solc lays out a mapping at slot 0
+        final byte[] key = new byte[64];
+        System.arraycopy(HOLDER, 0, key, 12, Address.ADDRESS_LENGTH);
+        state.store(CONTRACT, new UInt256().setBytes(Hash.keccak256(key).getBytes()), new UInt256(1_000_000));
+        return state;
+    }
+
+    private static String strip(final String hex) {
+        final String trimmed = hex.strip();
+        return trimmed.startsWith("0x") ? trimmed.substring(2) : trimmed;
+    }
+
+    private static byte[] address(final int index) {
+        final byte[] address = new byte[Address.ADDRESS_LENGTH];
+        address[Address.ADDRESS_LENGTH - 1] = (byte) index;
+        return address;
+    }
+
+}
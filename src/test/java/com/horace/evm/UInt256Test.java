@@ -0,0 +1,122 @@
+package com.horace.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the limb arithmetic of {@link UInt256} against BigInteger, on values around every limb and
+ * 32-bit digit boundary and on random words of every length.
+ */
+public class UInt256Test {
+
+    private static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(256);
+    private static final BigInteger SIGN = BigInteger.ONE.shiftLeft(255);
+
+    private static final List<BigInteger> VALUES = values();
+
+    @Test
+    public void add() {
+        check("add", (a, b) -> new UInt256().set(a).add(b), BigInteger::add);
+    }
+
+    @Test
+    public void sub() {
+        check("sub", (a, b) -> new UInt256().set(a).sub(b), BigInteger::subtract);
+    }
+
+    @Test
+    public void mul() {
+        check("mul", (a, b) -> new UInt256().set(a).mul(b), BigInteger::multiply);
+    }
+
+    @Test
+    public void div() {
+        check("div", (a, b) -> new UInt256().set(a).div(b), (a, b) -> b.signum() == 0 ? BigInteger.ZERO : a.divide(b));
+    }
+
+    @Test
+    public void mod() {
+        check("mod", (a, b) -> new UInt256().set(a).mod(b), (a, b) -> b.signum() == 0 ? BigInteger.ZERO : a.mod(b));
+    }
+
+    @Test
+    public void sdiv() {
+        check("sdiv", (a, b) -> new UInt256().set(a).sdiv(b),
+            (a, b) -> b.signum() == 0 ? BigInteger.ZERO : signed(a).divide(signed(b)));
+    }
+
+    @Test
+    public void smod() {
+        check("smod", (a, b) -> new UInt256().set(a).smod(b),
+            (a, b) -> b.signum() == 0 ? BigInteger.ZERO : signed(a).remainder(signed(b)));
+    }
+
+    @Test
+    public void addMod() {
+        for (BigInteger m : VALUES) {
+            final UInt256 modulus = UInt256.fromBigInteger(m);
+            check("addmod " + m.toString(16), (a, b) -> new UInt256().set(a).addMod(b, modulus),
+                (a, b) -> m.signum() == 0 ? BigInteger.ZERO : a.add(b).mod(m));
+        }
+    }
+
+    @Test
+    public void mulMod() {
+        for (BigInteger m : VALUES) {
+            final UInt256 modulus = UInt256.fromBigInteger(m);
+            check("mulmod " + m.toString(16), (a, b) -> new UInt256().set(a).mulMod(b, modulus),
+                (a, b) -> m.signum() == 0 ? BigInteger.ZERO : a.multiply(b).mod(m));
+        }
+    }
+
+    @Test
+    public void exp() {
+        check("exp", (a, b) -> new UInt256().set(a).exp(b), (a, b) -> a.modPow(b, MODULUS));
+    }
+
+    private static void check(final String op, final BinaryOperator<UInt256> actual,
+            final BinaryOperator<BigInteger> expected) {
+        for (BigInteger a : VALUES) {
+            for (BigInteger b : VALUES) {
+                final BigInteger result = actual.apply(UInt256.fromBigInteger(a), UInt256.fromBigInteger(b)).toBigInteger();
+                assertEquals(expected.apply(a, b).mod(MODULUS), result,
+                    () -> op + "(" + a.toString(16) + ", " + b.toString(16) + ")");
+            }
+        }
+    }
+
+    private static BigInteger signed(final BigInteger value) {
+        return value.testBit(255) ? value.subtract(MODULUS) : value;
+    }
+
+    private static List<BigInteger> values() {
+        final List<BigInteger> values = new ArrayList<>();
+        values.add(BigInteger.ZERO);
+        values.add(BigInteger.ONE);
+        values.add(BigInteger.TWO);
+        values.add(BigInteger.valueOf(3));
+        // Around 32-bit digits and 64-bit limbs: the divisor fast paths switch there
+        for (int bit : new int[] {31, 32, 33, 63, 64, 65, 96, 127, 128, 129, 191, 192, 193, 255}) {
+            final BigInteger power = BigInteger.ONE.shiftLeft(bit);
+            values.add(power.subtract(BigInteger.ONE));
+            values.add(power);
+            values.add(power.add(BigInteger.ONE));
+        }
+        values.add(MODULUS.subtract(BigInteger.ONE));
+        values.add(MODULUS.subtract(BigInteger.TWO));
+        values.add(SIGN.add(BigInteger.valueOf(12345)));
+        final Random random = new Random(1);
+        for (int bits = 8; bits <= 256; bits += 8) {
+            values.add(new BigInteger(bits, random));
+        }
+        return values;
+    }
+
+}